@@ -0,0 +1,102 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Bid Path Benchmark
+ */
+package auctionHouse;
+
+import general.AuctionData;
+import general.Bench;
+import general.BenchWriter;
+import general.Message.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One bid through an auction house, as its parser handles it: bidReceived checks the bid, the
+ * end of the parser's run sends the bank a hold, then bidConfirmation accepts the bid once the
+ * hold is confirmed and the end of that run sends every agent the change. The bank is a stand-in
+ * that the benchmark answers itself, so only the house's own work is timed, including the bid
+ * timer it restarts on the timing wheel twice per bid. Bids rotate over every open auction and 10
+ * agents, each higher than the last. Runs with 3, 100 and 1000 open auctions, since each bid
+ * looks its auction up by id. With lease=on the bank has leased the house each agent's credit,
+ * so a bid is accepted before its hold reaches the bank, and the bank's answer only settles the
+ * hold afterwards; bank_waits_per_bid reports how many bids still had to wait for the bank.
+ */
+public final class BidPathBench {
+    private static final int AGENTS = 10;
+    private static final int[] LOTS = {3, 100, 1000};
+
+    private BidPathBench() {}
+
+    /**
+     * Runs the benchmark
+     * @throws Exception if a bid is not sent to the bank for a hold
+     */
+    public static void run() throws Exception {
+        for (int lots : LOTS) run(lots, false);
+        String amount = System.getProperty("auction.lease.amount");
+        try {
+            System.setProperty("auction.lease.amount", "1e12");
+            run(LOTS[0], true);
+        } finally {
+            if (amount == null) System.clearProperty("auction.lease.amount");
+            else System.setProperty("auction.lease.amount", amount);
+        }
+    }
+
+    private static void run(int lots, boolean lease) throws Exception {
+        NewHold[] hold = new NewHold[1];
+        LeaseHold[] leaseHold = new LeaseHold[1];
+        List<NewLease> leaseRequests = new ArrayList<>();
+        LongAdder bids = new LongAdder();
+        LongAdder waits = new LongAdder();
+        AuctionEngine house = new AuctionEngine("Bench house", 0, lots, null);
+        AtomicReference<List<AuctionData>> open = new AtomicReference<>();
+        Bench.quietly(() -> {
+            house.startHeadless("AH0001", new BenchWriter(m -> {
+                if (m instanceof NewHold h) hold[0] = h;
+                else if (m instanceof LeaseHold h) leaseHold[0] = h;
+                else if (m instanceof NewLease l) leaseRequests.add(l);
+            }));
+            for (int a = 0; a < AGENTS; a++) {
+                house.addNewAgent(new RegisterAgent("CL" + a, "Agent " + a), new BenchWriter(m -> {
+                    if (m instanceof NewAuctions n) open.set(n.auctionListings());
+                }), null);
+            }
+            house.publish();
+        });
+        List<AuctionData> auctions = open.get();
+        String params = "auctions=" + auctions.size() + ",agents=" + AGENTS + (lease ? ",lease=on" : "");
+        Bench.Result result = Bench.measure("auctionHouse.bid", params, 1, true, (t, i) -> {
+            AuctionData auction = auctions.get((int) (i % auctions.size()));
+            hold[0] = null;
+            leaseHold[0] = null;
+            house.bidReceived(new NewBid(auction.item(), auction.ID(), 1000 + i, "CL" + (i % AGENTS), null));
+            house.forwardBids();
+            for (NewLease l : leaseRequests) {
+                house.leaseGranted(new LeaseGranted(l.accountNumber(), l.amount(), 3_600_000, l.requestId()));
+            }
+            leaseRequests.clear();
+            bids.increment();
+            if (leaseHold[0] != null) {
+                LeaseHold h = leaseHold[0];
+                house.bidConfirmation(new ConfirmHold(true, h.accAndID(), h.accountNumber(), h.idNum(), h.requestId(), null));
+                house.publish();
+                return;
+            }
+            NewHold h = hold[0];
+            if (h == null) throw new IllegalStateException("Bid was not sent for a hold");
+            waits.increment();
+            house.bidConfirmation(new ConfirmHold(true, h.accAndID(), h.accountNumber(), h.idNum(), h.requestId(), null));
+            house.publish();
+        });
+        if (lease) {
+            Bench.report("auctionHouse.bid.bankWaits", result.params(),
+                    Map.of("bank_waits_per_bid", waits.sum() / (double) bids.sum()));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Bid War Benchmark
+ */
+package auctionHouse;
+
+import general.AuctionData;
+import general.Bench;
+import general.BenchWriter;
+import general.Message.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bidding war: 10 agents each bid higher than the last on the same auction within one run of
+ * the parser, then the bank confirms every hold it was asked for. With coalescing=off each bid
+ * goes to the bank, as with -Dauction.bidWindowMillis=-1, and every bid but the last is released
+ * again with an EndHold. With coalescing=on only the best bid of the war is sent. Reports time
+ * per war and the holds and hold releases the bank sees per bid.
+ */
+public final class BidWarBench {
+    private static final int AGENTS = 10;
+
+    private BidWarBench() {}
+
+    /**
+     * Runs the benchmark
+     * @throws Exception if setup fails
+     */
+    public static void run() throws Exception {
+        String window = System.getProperty("auction.bidWindowMillis");
+        try {
+            run("off", "-1");
+            run("on", "0");
+        } finally {
+            if (window == null) System.clearProperty("auction.bidWindowMillis");
+            else System.setProperty("auction.bidWindowMillis", window);
+        }
+    }
+
+    private static void run(String coalescing, String window) throws Exception {
+        System.setProperty("auction.bidWindowMillis", window);
+        List<NewHold> holds = new ArrayList<>();
+        LongAdder held = new LongAdder();
+        LongAdder released = new LongAdder();
+        LongAdder bids = new LongAdder();
+        AuctionEngine house = new AuctionEngine("Bench house", 0, 3, null);
+        AtomicReference<List<AuctionData>> open = new AtomicReference<>();
+        Bench.quietly(() -> {
+            house.startHeadless("AH0001", new BenchWriter(m -> {
+                if (m instanceof NewHold h) {
+                    holds.add(h);
+                    held.increment();
+                } else if (m instanceof EndHold) {
+                    released.increment();
+                }
+            }));
+            for (int a = 0; a < AGENTS; a++) {
+                house.addNewAgent(new RegisterAgent("CL" + a, "Agent " + a), new BenchWriter(m -> {
+                    if (m instanceof NewAuctions n) open.set(n.auctionListings());
+                }), null);
+            }
+            house.publish();
+        });
+        AuctionData auction = open.get().get(0);
+        held.reset();
+        released.reset();
+        Bench.Result result = Bench.measure("auctionHouse.bidWar", "coalescing=" + coalescing + ",agents=" + AGENTS,
+                1, true, (t, i) -> {
+                    for (int a = 0; a < AGENTS; a++) {
+                        house.bidReceived(new NewBid(auction.item(), auction.ID(), 1000 + i * AGENTS + a, "CL" + a, null));
+                        bids.increment();
+                    }
+                    house.forwardBids();
+                    for (NewHold h : holds) {
+                        house.bidConfirmation(new ConfirmHold(true, h.accAndID(), h.accountNumber(), h.idNum(), h.requestId(), null));
+                    }
+                    holds.clear();
+                    house.publish();
+                });
+        Bench.report("auctionHouse.bidWar.bankMessages", result.params(), Map.of(
+                "holds_per_bid", held.sum() / (double) bids.sum(),
+                "endholds_per_bid", released.sum() / (double) bids.sum()));
+    }
+}
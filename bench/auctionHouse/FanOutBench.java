@@ -0,0 +1,85 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Auction House Fan-out Benchmark
+ */
+package auctionHouse;
+
+import general.AuctionData;
+import general.Bench;
+import general.BenchWriter;
+import general.BinaryCodec;
+import general.Message.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What agents are sent for one accepted bid, at 10, 100 and 1000 agents with 3 and 1000 open
+ * auctions. With send=update every agent gets the bid's AuctionUpdate; with send=snapshot every
+ * agent also asks for the whole list, which is what every change used to cost. Both time the bid
+ * itself as well, so the difference is the fan-out. Also reports the encoded bytes sent per bid.
+ */
+public final class FanOutBench {
+    private static final int[] AGENTS = {10, 100, 1000};
+    private static final int[] LOTS = {3, 1000};
+
+    private FanOutBench() {}
+
+    /**
+     * Runs the benchmark
+     * @throws Exception if setup fails
+     */
+    public static void run() throws Exception {
+        for (int lots : LOTS) {
+            for (int agents : AGENTS) {
+                run(agents, lots, false);
+                run(agents, lots, true);
+            }
+        }
+    }
+
+    private static void run(int agents, int lots, boolean snapshot) throws Exception {
+        NewHold[] hold = new NewHold[1];
+        boolean[] counting = new boolean[1];
+        LongAdder bytes = new LongAdder();
+        AuctionEngine house = new AuctionEngine("Bench house", 0, lots, null);
+        AtomicReference<List<AuctionData>> open = new AtomicReference<>();
+        Bench.quietly(() -> {
+            house.startHeadless("AH0001", new BenchWriter(m -> {
+                if (m instanceof NewHold h) hold[0] = h;
+            }));
+            for (int a = 0; a < agents; a++) {
+                house.addNewAgent(new RegisterAgent("CL" + a, "Agent " + a), new BenchWriter(m -> {
+                    if (m instanceof NewAuctions n) open.set(n.auctionListings());
+                    if (counting[0]) {
+                        try {
+                            bytes.add(BinaryCodec.encode(m).length);
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }), null);
+            }
+            house.publish();
+        });
+        List<AuctionData> auctions = open.get();
+        String params = "agents=" + agents + ",auctions=" + lots + ",send=" + (snapshot ? "snapshot" : "update");
+        Bench.Op bid = (t, i) -> {
+            AuctionData auction = auctions.get((int) (i % auctions.size()));
+            house.bidReceived(new NewBid(auction.item(), auction.ID(), 1000 + i, "CL" + (i % agents), null));
+            house.forwardBids();
+            NewHold h = hold[0];
+            house.bidConfirmation(new ConfirmHold(true, h.accAndID(), h.accountNumber(), h.idNum(), h.requestId(), null));
+            if (snapshot) {
+                for (int a = 0; a < agents; a++) house.resyncAuctions(new ResyncAuctions("CL" + a));
+            }
+            house.publish();
+        };
+        Bench.measure("auctionHouse.fanout", params, 1, bid);
+        counting[0] = true;
+        Bench.quietly(() -> bid.run(0, 1L << 40)); // one more bid, higher than any measured
+        Bench.report("auctionHouse.fanout.bytes", params, Map.of("bytes_per_bid", (double) bytes.sum()));
+    }
+}
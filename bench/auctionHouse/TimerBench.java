@@ -0,0 +1,54 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Timer Benchmark
+ */
+package auctionHouse;
+
+import general.Bench;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restarting an auction's 30 second bid timer, which happens twice per accepted bid. With
+ * timer=java.util.Timer each restart cancels the auction's Timer and starts a new one, and with
+ * it a new thread, as auctions did before the timing wheel. With timer=wheel each restart cancels
+ * and reschedules the auction's timeout on one shared TimingWheel, from 1 and 4 threads at once
+ * as the workers of an EngineHost would. Restarts rotate over 100 auctions.
+ */
+public final class TimerBench {
+    private static final int AUCTIONS = 100;
+    private static final long EXPIRATION = 30_000L;
+
+    private TimerBench() {}
+
+    /**
+     * Runs the benchmark
+     * @throws Exception if a restart fails
+     */
+    public static void run() throws Exception {
+        Timer[] timers = new Timer[AUCTIONS];
+        Bench.measure("auctionHouse.timerReset", "timer=java.util.Timer", 1, true, (t, i) -> {
+            int a = (int) (i % AUCTIONS);
+            if (timers[a] != null) timers[a].cancel();
+            timers[a] = new Timer();
+            timers[a].schedule(new TimerTask() {
+                @Override
+                public void run() {}
+            }, EXPIRATION);
+        });
+        for (Timer timer : timers) if (timer != null) timer.cancel();
+
+        for (int threads : new int[] {1, 4}) {
+            TimingWheel wheel = new TimingWheel(100, 512);
+            TimingWheel.Timeout[][] timeouts = new TimingWheel.Timeout[threads][AUCTIONS];
+            Runnable task = () -> {};
+            Bench.measure("auctionHouse.timerReset", "timer=wheel", threads, true, (t, i) -> {
+                int a = (int) (i % AUCTIONS);
+                wheel.cancel(timeouts[t][a]);
+                timeouts[t][a] = wheel.schedule(task, EXPIRATION, TimeUnit.MILLISECONDS);
+            });
+        }
+    }
+}
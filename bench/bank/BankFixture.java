@@ -0,0 +1,76 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Bank Fixture
+ */
+package bank;
+
+import general.Bench;
+import general.BenchWriter;
+import general.Message.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A bank driven straight through its protected methods, with no sockets or parser threads,
+ * and helpers to open accounts on it.
+ */
+final class BankFixture {
+    final Bank bank;
+    final Journal journal;
+    private final Path dir;
+
+    /**
+     * Constructor
+     * @param journaled true to journal every change to a fresh directory
+     * @throws Exception if the journal cannot be created or recovered
+     */
+    BankFixture(boolean journaled) throws Exception {
+        dir = journaled ? Files.createTempDirectory("bench-journal") : null;
+        journal = journaled ? new Journal(dir, 64L << 20, 5, 100_000) : null;
+        bank = new Bank(0, 1, 0, null, journal, false, null);
+        if (journal != null) Bench.quietly(bank::recoverJournal);
+    }
+
+    /**
+     * Opens an agent account whose messages are dropped
+     * @param name agent name
+     * @param balance starting balance
+     * @return the account number
+     */
+    String agent(String name, double balance) {
+        String[] made = new String[1];
+        bank.addAgent(new NewAgent(name, balance), null, new BenchWriter(m -> {
+            if (m instanceof AgentMade a) made[0] = a.accountNumber();
+        }));
+        return made[0];
+    }
+
+    /**
+     * Opens an auction house account
+     * @param name house name
+     * @return the account number
+     */
+    String house(String name) {
+        String[] made = new String[1];
+        bank.addAH("localhost", new NewAuctionHouse(name, 5000), null, new BenchWriter(m -> {
+            if (m instanceof AuctionHouseMade h) made[0] = h.accountNumber();
+        }));
+        return made[0];
+    }
+
+    /**
+     * Stops the journal and deletes its directory
+     * @throws IOException if the directory cannot be deleted
+     */
+    void close() throws IOException {
+        if (journal == null) return;
+        journal.stop();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Cluster Benchmark
+ */
+package bank;
+
+import general.Bench;
+import general.BankProcess;
+import general.BenchClient;
+import general.Message.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Hold throughput of a bank cluster as nodes are added. The banks are started in their own JVMs,
+ * 32 agents register spread over the nodes, and 4 auction houses, also spread over the nodes,
+ * each run a closed loop from their own thread: ask for a hold for a random agent, wait for the
+ * ConfirmHold, then end the hold. With more than one node most agents belong to another node,
+ * so most holds are forwarded.
+ * Settings: -Dbench.nodes (default 1,2,3) and -Dbench.clusterVariant (transport variant, default nio+binary).
+ */
+public final class ClusterBench {
+    private static final int PORT = 7500;
+    private static final int HOUSES = 4;
+    private static final int AGENTS = 32;
+
+    private ClusterBench() {}
+
+    /**
+     * Runs the benchmark
+     * @throws Exception if a bank cannot be started or a client fails
+     */
+    public static void run() throws Exception {
+        String variant = System.getProperty("bench.clusterVariant", "nio+binary");
+        int port = PORT;
+        for (String count : System.getProperty("bench.nodes", "1,2,3").split(",")) {
+            int nodes = Integer.parseInt(count.trim());
+            measure(variant, nodes, port);
+            port += nodes;
+        }
+    }
+
+    private static void measure(String variant, int nodes, int port) throws Exception {
+        StringBuilder spec = new StringBuilder();
+        for (int n = 0; n < nodes; n++) spec.append(n == 0 ? "" : ",").append("localhost:").append(port + n);
+        List<BankProcess> banks = new ArrayList<>();
+        List<BenchClient> clients = new ArrayList<>();
+        try {
+            for (int n = 0; n < nodes; n++) {
+                banks.add(nodes == 1 ? BankProcess.start(port, variant)
+                        : BankProcess.start(port + n, variant, "bank.cluster=" + spec, "bank.node=" + n));
+            }
+            if (nodes > 1) Thread.sleep(2000); // let the banks link up
+            String[] agents = new String[AGENTS];
+            for (int a = 0; a < AGENTS; a++) {
+                BenchClient agent = new BenchClient("localhost", port + a % nodes, variant);
+                clients.add(agent);
+                agent.send(new NewAgent("Agent " + a, 1e9));
+                agents[a] = agent.await(AgentMade.class).accountNumber();
+                agent.drain();
+            }
+            BenchClient[] houses = new BenchClient[HOUSES];
+            String[] houseAccounts = new String[HOUSES];
+            for (int h = 0; h < HOUSES; h++) {
+                houses[h] = new BenchClient("localhost", port + h % nodes, variant);
+                clients.add(houses[h]);
+                houses[h].send(new NewAuctionHouse("House " + h, 6000 + h));
+                houseAccounts[h] = houses[h].await(AuctionHouseMade.class).accountNumber();
+            }
+            Bench.measure("bank.cluster.hold", "nodes=" + nodes + ",variant=" + variant, HOUSES, true, (t, i) -> {
+                String agent = agents[ThreadLocalRandom.current().nextInt(AGENTS)];
+                int auction = (int) (i & 1023);
+                String item = houseAccounts[t] + ":" + auction;
+                houses[t].send(new NewHold(agent, 1, item, auction, 2 * i, null));
+                houses[t].await(ConfirmHold.class);
+                houses[t].send(new EndHold(agent, 1, item, 2 * i + 1));
+            });
+        } finally {
+            for (BenchClient client : clients) client.close();
+            for (BankProcess bank : banks) bank.close();
+        }
+    }
+}
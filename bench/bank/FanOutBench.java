@@ -0,0 +1,32 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Bank Fan-out Benchmark
+ */
+package bank;
+
+import general.Bench;
+
+/**
+ * Cost of Bank.sendAuctionHouseList, which builds the house list and queues it for every agent
+ * each time a house opens or closes, at 10, 100 and 1000 connected agents with 5 houses.
+ */
+public final class FanOutBench {
+    private static final int[] AGENTS = {10, 100, 1000};
+
+    private FanOutBench() {}
+
+    /**
+     * Runs the benchmark
+     * @throws Exception if setup fails
+     */
+    public static void run() throws Exception {
+        for (int agents : AGENTS) {
+            BankFixture fixture = new BankFixture(false);
+            Bench.quietly(() -> {
+                for (int h = 0; h < 5; h++) fixture.house("Bench house " + h);
+                for (int a = 0; a < agents; a++) fixture.agent("Agent " + a, 100);
+            });
+            Bench.measure("bank.sendAuctionHouseList", "agents=" + agents, 1, (t, i) -> fixture.bank.sendAuctionHouseList());
+        }
+    }
+}
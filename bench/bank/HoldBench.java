@@ -0,0 +1,49 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Hold Benchmark
+ */
+package bank;
+
+import general.Bench;
+import general.Message.NewHold;
+
+/**
+ * Bank.addNewHold called from several threads at once, as the lanes of a bank do. With
+ * agents=shared every thread places holds for the same agent, so they all contend on its
+ * account lock; with agents=distinct each thread has its own agent. Each operation replaces one
+ * of 64 holds the agent has with one house, with a fresh request id, and is timed for latency.
+ */
+public final class HoldBench {
+    private static final int[] THREADS = {1, 4, 16};
+
+    private HoldBench() {}
+
+    /**
+     * Runs the benchmark
+     * @throws Exception if the bank refuses a hold
+     */
+    public static void run() throws Exception {
+        for (boolean shared : new boolean[] {true, false}) {
+            for (int threads : THREADS) {
+                BankFixture fixture = new BankFixture(false);
+                String[] accounts = new String[threads];
+                String[] items = new String[64];
+                Bench.quietly(() -> {
+                    String house = fixture.house("Bench house");
+                    for (int t = 0; t < threads; t++) {
+                        accounts[t] = shared && t > 0 ? accounts[0] : fixture.agent("Agent " + t, 1e9);
+                    }
+                    for (int a = 0; a < items.length; a++) items[a] = house + ":" + a;
+                });
+                Bench.measure("bank.addNewHold", "agents=" + (shared ? "shared" : "distinct"), threads, true,
+                        (t, i) -> {
+                            int auction = (int) (i & 63);
+                            long requestId = ((long) (t + 1) << 40) | i;
+                            if (!fixture.bank.addNewHold(new NewHold(accounts[t], 1, items[auction], auction, requestId, null))) {
+                                throw new IllegalStateException("Hold refused");
+                            }
+                        });
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Registration Benchmark
+ */
+package bank;
+
+import general.Bench;
+import general.BenchWriter;
+import general.Message.AgentMade;
+import general.Message.NewAgent;
+
+/**
+ * Agents registering with the bank from several threads at once, as with the lanes and the nio
+ * transport, where new account numbers are issued concurrently. Each operation opens an agent
+ * account and closes it again, so the account map stays small while it runs. With houses=1 the
+ * bank also sends each new agent the auction house list.
+ */
+public final class RegistrationBench {
+    private static final int[] THREADS = {1, 4, 16};
+
+    private RegistrationBench() {}
+
+    /**
+     * Runs the benchmark
+     * @throws Exception if setup fails
+     */
+    public static void run() throws Exception {
+        for (int houses : new int[] {0, 1}) {
+            for (int threads : THREADS) {
+                BankFixture fixture = new BankFixture(false);
+                if (houses > 0) Bench.quietly(() -> fixture.house("Bench house"));
+                String[] made = new String[threads];
+                BenchWriter[] writers = new BenchWriter[threads];
+                for (int t = 0; t < threads; t++) {
+                    int thread = t;
+                    writers[t] = new BenchWriter(m -> {
+                        if (m instanceof AgentMade a) made[thread] = a.accountNumber();
+                    });
+                }
+                Bench.measure("bank.registerAgent", "houses=" + houses, threads, true, (t, i) -> {
+                    fixture.bank.addAgent(new NewAgent("Agent", 100), null, writers[t]);
+                    fixture.bank.closeAgentAccount(made[t]);
+                });
+            }
+        }
+    }
+}
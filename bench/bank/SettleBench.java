@@ -0,0 +1,66 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Settle Benchmark
+ */
+package bank;
+
+import general.Bench;
+import general.Message.AuctionOver;
+import general.Message.NewHold;
+import general.Message.SettleBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cost of settling won auctions, with the journal off and on. Each operation places a hold for
+ * one of 32 agents and settles one auction. With close=each, every auction is settled on its own
+ * as an AuctionOver would be; with close=batch, 32 auctions that closed together are settled
+ * with one SettleBatch, as in a closing storm. Times are per auction in both cases.
+ */
+public final class SettleBench {
+    private static final int AGENTS = 32;
+
+    private SettleBench() {}
+
+    /**
+     * Runs the benchmark
+     * @throws Exception if setup fails or a hold is refused
+     */
+    public static void run() throws Exception {
+        for (boolean journaled : new boolean[] {false, true}) {
+            for (boolean batched : new boolean[] {false, true}) {
+                BankFixture fixture = new BankFixture(journaled);
+                String[] house = new String[1];
+                String[] agents = new String[AGENTS];
+                Bench.quietly(() -> {
+                    house[0] = fixture.house("Bench house");
+                    for (int a = 0; a < AGENTS; a++) agents[a] = fixture.agent("Agent " + a, 1e12);
+                });
+                List<AuctionOver> closed = new ArrayList<>(AGENTS);
+                try {
+                    Bench.measure("bank.settle", "journal=" + (journaled ? "on" : "off") + ",close="
+                            + (batched ? "batch" : "each"), 1, (t, i) -> {
+                        String agent = agents[(int) (i % AGENTS)];
+                        int auction = (int) i;
+                        String item = house[0] + ":" + auction;
+                        if (!fixture.bank.addNewHold(new NewHold(agent, 1, item, auction, 2 * i, null))) {
+                            throw new IllegalStateException("Hold refused");
+                        }
+                        if (!batched) {
+                            fixture.bank.auctionEnded(house[0], agent, item, 1, 2 * i + 1);
+                            return;
+                        }
+                        closed.add(new AuctionOver(house[0], agent, item, 1, 2 * i + 1));
+                        if (closed.size() == AGENTS) {
+                            fixture.bank.settleBatch(new SettleBatch(house[0], List.copyOf(closed)));
+                            closed.clear();
+                        }
+                    });
+                } finally {
+                    fixture.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Bank Process
+ */
+package general;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A real bank started in its own JVM for the benchmarks that need sockets. A variant names the
+ * transport the way the results do: "stream" or "nio", optionally followed by "+binary" for the
+ * binary codec and "+virtual" for virtual threads, for example "nio+binary". The bank's output
+ * goes to a log file, which is deleted when the process is closed.
+ */
+public final class BankProcess implements Closeable {
+    private final Process process;
+    private final Path log;
+
+    private BankProcess(Process process, Path log) {
+        this.process = process;
+        this.log = log;
+    }
+
+    /**
+     * Starts a bank and waits until it is listening
+     * @param port port the bank listens on
+     * @param variant transport variant
+     * @param props further system properties as name=value, such as "bank.node=1"
+     * @return the running bank
+     * @throws IOException if the bank cannot be started or does not come up within 15 seconds
+     */
+    public static BankProcess start(int port, String variant, String... props) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.addAll(jvmProps(variant));
+        for (String prop : props) command.add("-D" + prop);
+        command.add("bank.Bank");
+        command.add(Integer.toString(port));
+        Path log = Files.createTempFile("bench-bank-" + port + "-", ".log");
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(log.toFile()).start();
+        BankProcess bank = new BankProcess(process, log);
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (!Files.readString(log).contains("on port: ")) {
+            if (!process.isAlive() || System.currentTimeMillis() > deadline) {
+                String output = Files.readString(log);
+                bank.close();
+                throw new IOException("Bank on port " + port + " did not start: " + output);
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                bank.close();
+                throw new IOException("Interrupted starting bank", e);
+            }
+        }
+        return bank;
+    }
+
+    /**
+     * @param variant transport variant
+     * @return the system properties that select it, as JVM arguments
+     */
+    public static List<String> jvmProps(String variant) {
+        List<String> props = new ArrayList<>();
+        props.add("-Dauction.transport=" + (variant.startsWith("nio") ? "nio" : "stream"));
+        if (variant.contains("+binary")) props.add("-Dauction.codec=binary");
+        if (variant.contains("+virtual")) props.add("-Dauction.virtualThreads=true");
+        return props;
+    }
+
+    /**
+     * @param variant transport variant
+     * @return true if the variant sends length-prefixed frames rather than an object stream
+     */
+    public static boolean frames(String variant) {
+        return variant.startsWith("nio") || variant.contains("+binary");
+    }
+
+    /**
+     * @param variant transport variant
+     * @return true if the variant uses the binary codec
+     */
+    public static boolean binary(String variant) {
+        return variant.contains("+binary");
+    }
+
+    /**
+     * Reads the bank's thread count and resident memory from /proc, on Linux only
+     * @return "threads" and "rss_mb", or nothing where /proc is not available
+     */
+    public Map<String, Double> status() {
+        Map<String, Double> status = new LinkedHashMap<>();
+        File file = new File("/proc/" + process.pid() + "/status");
+        if (!file.exists()) return status;
+        try {
+            for (String line : Files.readAllLines(file.toPath())) {
+                String[] parts = line.split("\\s+");
+                if (line.startsWith("Threads:")) status.put("threads", Double.parseDouble(parts[1]));
+                if (line.startsWith("VmRSS:")) status.put("rss_mb", Double.parseDouble(parts[1]) / 1024);
+            }
+        } catch (IOException | NumberFormatException e) {
+            Bench.log("Error: Cannot read bank status: " + e.getMessage());
+        }
+        return status;
+    }
+
+    /**
+     * Stops the bank and deletes its log
+     */
+    @Override
+    public void close() {
+        process.destroy();
+        try {
+            process.waitFor();
+            Files.deleteIfExists(log);
+        } catch (InterruptedException | IOException e) {
+            Bench.log("Error: Cannot stop bank: " + e.getMessage());
+        }
+    }
+}
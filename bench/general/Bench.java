@@ -0,0 +1,274 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Benchmark Harness
+ */
+package general;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small benchmark harness with no dependencies, since the project has no build file to pull JMH in.
+ * Each measurement runs an operation in a loop on one or more threads for a number of timed
+ * iterations, after warm-up iterations that are thrown away, and reports the mean time per
+ * operation, throughput and the spread between iterations. With latency on, every operation is
+ * also timed into a Histogram for p50/p99/p999. Benchmarks may add their own figures, such as
+ * bytes per message or threads per connection.
+ * Settings: -Dbench.warmup (iterations, default 3), -Dbench.iterations (default 5),
+ * -Dbench.millis (per iteration, default 1000) and -Dbench.out (results file base name,
+ * default bench-results), which gets a .json and a .csv file with one entry per measurement.
+ * The code under test prints a lot, so System.out is silenced while it runs.
+ */
+public final class Bench {
+    /**
+     * One operation of a benchmark
+     */
+    public interface Op {
+        /**
+         * @param thread index of the calling thread, from 0
+         * @param i number of operations this thread has run so far, counting earlier iterations
+         */
+        void run(int thread, long i) throws Exception;
+    }
+
+    /**
+     * One measurement
+     * @param benchmark benchmark name
+     * @param params what was varied, as name=value pairs
+     * @param threads threads running the operation
+     * @param ops operations in the measured iterations
+     * @param nanosPerOp mean time per operation on each thread
+     * @param opsPerSec operations per second over all threads
+     * @param error half the spread of ops per second between iterations
+     * @param extra other figures, such as percentiles or bytes
+     */
+    public record Result(String benchmark, String params, int threads, long ops, double nanosPerOp,
+                         double opsPerSec, double error, Map<String, Double> extra) {}
+
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final long MILLIS = Long.getLong("bench.millis", 1000);
+    private static final PrintStream CONSOLE = System.out;
+    private static final PrintStream SILENT = new PrintStream(OutputStream.nullOutputStream());
+    private static final List<Result> RESULTS = new ArrayList<>();
+    private static volatile Object sink;
+
+    private Bench() {}
+
+    /**
+     * Keeps a value alive so the JIT cannot remove the code that produced it
+     * @param value anything
+     */
+    public static void sink(Object value) {
+        sink = value;
+    }
+
+    /**
+     * Runs an operation without per-operation timing
+     * @return the measurement
+     */
+    public static Result measure(String benchmark, String params, int threads, Op op) throws Exception {
+        return measure(benchmark, params, threads, false, op);
+    }
+
+    /**
+     * Runs an operation on some threads through the warm-up and measured iterations
+     * @param benchmark benchmark name
+     * @param params what was varied, as name=value pairs
+     * @param threads number of threads running the operation
+     * @param latency true to time every operation into a histogram
+     * @param op the operation
+     * @return the measurement, also kept for the results file
+     * @throws Exception if the operation fails
+     */
+    public static Result measure(String benchmark, String params, int threads, boolean latency, Op op)
+            throws Exception {
+        Histogram histogram = new Histogram();
+        long[] counts = new long[ITERATIONS];
+        long[] next = new long[threads];
+        for (int iteration = -WARMUP; iteration < ITERATIONS; iteration++) {
+            long ops = iteration(threads, next, iteration >= 0 && latency ? histogram : null, op);
+            if (iteration >= 0) counts[iteration] = ops;
+        }
+        long total = 0, min = Long.MAX_VALUE, max = 0;
+        for (long c : counts) {
+            total += c;
+            min = Math.min(min, c);
+            max = Math.max(max, c);
+        }
+        double seconds = ITERATIONS * MILLIS / 1000.0;
+        double opsPerSec = total / seconds;
+        double nanosPerOp = total == 0 ? 0 : seconds * 1e9 * threads / total;
+        double error = (max - min) / 2.0 / (MILLIS / 1000.0);
+        Map<String, Double> extra = new LinkedHashMap<>();
+        if (latency) {
+            extra.put("p50_ns", (double) histogram.percentile(0.5));
+            extra.put("p99_ns", (double) histogram.percentile(0.99));
+            extra.put("p999_ns", (double) histogram.percentile(0.999));
+        }
+        return record(new Result(benchmark, params, threads, total, nanosPerOp, opsPerSec, error, extra));
+    }
+
+    /**
+     * Keeps a figure that is not a throughput, such as a size or a one-off time
+     * @param benchmark benchmark name
+     * @param params what was varied
+     * @param extra the figures
+     * @return the result
+     */
+    public static Result report(String benchmark, String params, Map<String, Double> extra) {
+        return record(new Result(benchmark, params, 0, 0, 0, 0, 0, new LinkedHashMap<>(extra)));
+    }
+
+    /**
+     * Runs code with System.out silenced, for setup that prints
+     * @param setup the code
+     * @throws Exception if the code fails
+     */
+    public static void quietly(Setup setup) throws Exception {
+        System.setOut(SILENT);
+        try {
+            setup.call();
+        } finally {
+            System.setOut(CONSOLE);
+        }
+    }
+
+    /**
+     * Setup code for quietly
+     */
+    public interface Setup {
+        void call() throws Exception;
+    }
+
+    /**
+     * @param line printed even while the code under test is silenced
+     */
+    public static void log(String line) {
+        CONSOLE.println(line);
+    }
+
+    /**
+     * @return every result so far
+     */
+    public static List<Result> results() {
+        return RESULTS;
+    }
+
+    private static Result record(Result result) {
+        RESULTS.add(result);
+        StringBuilder line = new StringBuilder(String.format("%-28s %-32s", result.benchmark(), result.params()));
+        if (result.ops() > 0) {
+            line.append(String.format(" %3d thr %12.1f ns/op %14.1f ops/s +- %.1f",
+                    result.threads(), result.nanosPerOp(), result.opsPerSec(), result.error()));
+        }
+        result.extra().forEach((k, v) -> line.append(String.format("  %s=%.1f", k, v)));
+        CONSOLE.println(line);
+        return result;
+    }
+
+    /**
+     * Runs one timed iteration
+     * @param next each thread's operation count so far, carried over between iterations
+     * @return operations run in this iteration
+     */
+    private static long iteration(int threads, long[] next, Histogram histogram, Op op) throws Exception {
+        LongAdder ops = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        Exception[] failure = new Exception[1];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                long first = next[thread];
+                long i = first;
+                try {
+                    start.await();
+                    while (running.get()) {
+                        if (histogram == null) {
+                            op.run(thread, i);
+                        } else {
+                            long begin = System.nanoTime();
+                            op.run(thread, i);
+                            histogram.record(System.nanoTime() - begin);
+                        }
+                        i++;
+                    }
+                } catch (Exception e) {
+                    failure[0] = e;
+                    running.set(false);
+                }
+                next[thread] = i;
+                ops.add(i - first);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        System.setOut(SILENT);
+        try {
+            start.countDown();
+            Thread.sleep(MILLIS);
+            running.set(false);
+            for (Thread worker : workers) worker.join();
+        } finally {
+            System.setOut(CONSOLE);
+        }
+        if (failure[0] != null) throw failure[0];
+        return ops.sum();
+    }
+
+    /**
+     * Writes every result to the .json and .csv results files
+     * @throws IOException if a file cannot be written
+     */
+    public static void write() throws IOException {
+        String base = System.getProperty("bench.out", "bench-results");
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"cpus\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"transport\": \"").append(Transport.NIO ? "nio" : "stream")
+                .append(Transport.BINARY ? "+binary" : "").append("\",\n");
+        json.append("  \"virtualThreads\": ").append(Threads.virtual()).append(",\n");
+        json.append("  \"results\": [\n");
+        StringBuilder csv = new StringBuilder("benchmark,params,threads,ops,ns_per_op,ops_per_sec,error,extra\n");
+        for (int i = 0; i < RESULTS.size(); i++) {
+            Result r = RESULTS.get(i);
+            json.append("    {\"benchmark\": \"").append(r.benchmark()).append("\", \"params\": \"").append(r.params())
+                    .append("\", \"threads\": ").append(r.threads()).append(", \"ops\": ").append(r.ops())
+                    .append(", \"nsPerOp\": ").append(num(r.nanosPerOp())).append(", \"opsPerSec\": ")
+                    .append(num(r.opsPerSec())).append(", \"error\": ").append(num(r.error()));
+            StringBuilder extra = new StringBuilder();
+            for (Map.Entry<String, Double> e : r.extra().entrySet()) {
+                json.append(", \"").append(e.getKey()).append("\": ").append(num(e.getValue()));
+                if (extra.length() > 0) extra.append(';');
+                extra.append(e.getKey()).append('=').append(num(e.getValue()));
+            }
+            json.append(i + 1 < RESULTS.size() ? "},\n" : "}\n");
+            csv.append(r.benchmark()).append(',').append('"').append(r.params()).append('"').append(',')
+                    .append(r.threads()).append(',').append(r.ops()).append(',').append(num(r.nanosPerOp()))
+                    .append(',').append(num(r.opsPerSec())).append(',').append(num(r.error())).append(',')
+                    .append(extra).append('\n');
+        }
+        json.append("  ]\n}\n");
+        Files.writeString(Path.of(base + ".json"), json, StandardCharsets.UTF_8);
+        Files.writeString(Path.of(base + ".csv"), csv, StandardCharsets.UTF_8);
+        CONSOLE.println("Results written to " + base + ".json and " + base + ".csv");
+    }
+
+    private static String num(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Benchmark Client
+ */
+package general;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Synchronous client that speaks the bank's protocol over one socket in any transport variant,
+ * without a writer thread, so thousands of them cost the benchmark little. Only one thread may
+ * send and only one may read at a time.
+ */
+public class BenchClient implements Closeable {
+    private final Socket socket;
+    private final boolean frames;
+    private final boolean binary;
+    private final DataOutputStream dataOut;
+    private final DataInputStream dataIn;
+    private ObjectOutputStream objOut;
+    private ObjectInputStream objIn;
+    private int sinceReset;
+
+    /**
+     * Constructor
+     * @param host bank host
+     * @param port bank port
+     * @param variant transport variant, as for BankProcess
+     * @throws IOException if the bank cannot be reached
+     */
+    public BenchClient(String host, int port, String variant) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        frames = BankProcess.frames(variant);
+        binary = BankProcess.binary(variant);
+        dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        dataIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        if (!frames) {
+            objOut = new ObjectOutputStream(dataOut);
+            objOut.flush();
+        }
+    }
+
+    /**
+     * Sends one message and flushes it
+     * @param m message
+     * @throws IOException if the connection fails
+     */
+    public void send(Message m) throws IOException {
+        if (frames) {
+            byte[] frame = binary ? BinaryCodec.encode(m) : Transport.serialize(m);
+            dataOut.writeInt(frame.length);
+            dataOut.write(frame);
+        } else {
+            objOut.writeObject(m);
+            if (++sinceReset == ResettingObjectOutput.RESET_MESSAGES) {
+                objOut.reset();
+                sinceReset = 0;
+            }
+        }
+        dataOut.flush();
+    }
+
+    /**
+     * Reads the next message
+     * @return the message
+     * @throws IOException if the connection fails or the message cannot be decoded
+     */
+    public Message read() throws IOException {
+        try {
+            if (!frames) {
+                if (objIn == null) objIn = new ObjectInputStream(dataIn);
+                return (Message) objIn.readObject();
+            }
+            byte[] frame = new byte[dataIn.readInt()];
+            dataIn.readFully(frame);
+            return binary ? BinaryCodec.decode(ByteBuffer.wrap(frame)) : Transport.deserialize(ByteBuffer.wrap(frame));
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads messages until one of a type arrives, dropping the others
+     * @param type message type to wait for
+     * @return the message
+     * @throws IOException if the connection fails first
+     */
+    public <T extends Message> T await(Class<T> type) throws IOException {
+        while (true) {
+            Message m = read();
+            if (type.isInstance(m)) return type.cast(m);
+        }
+    }
+
+    /**
+     * Reads and drops every message on a daemon thread until the connection closes
+     */
+    public void drain() {
+        Thread drainer = new Thread(() -> {
+            try {
+                while (true) read();
+            } catch (IOException ignored) {
+            }
+        });
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Benchmark Writer
+ */
+package general;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Connection stand-in for the benchmarks. Counts what it is sent, remembers the last message
+ * and optionally hands each message to a consumer, but never writes anything.
+ */
+public class BenchWriter implements MessageWriter {
+    private final LongAdder sent = new LongAdder();
+    private final Consumer<Message> consumer;
+    private volatile Message last;
+
+    /**
+     * Constructor for a writer that drops every message
+     */
+    public BenchWriter() {
+        this(null);
+    }
+
+    /**
+     * Constructor
+     * @param consumer called with every message, on the sending thread, or null
+     */
+    public BenchWriter(Consumer<Message> consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public boolean send(Message m) {
+        sent.increment();
+        last = m;
+        if (consumer != null) consumer.accept(m);
+        return true;
+    }
+
+    @Override
+    public int pending() {
+        return 0;
+    }
+
+    @Override
+    public void close() {}
+
+    /**
+     * @return messages sent so far
+     */
+    public long sent() {
+        return sent.sum();
+    }
+
+    /**
+     * @return the last message sent, or null
+     */
+    public Message last() {
+        return last;
+    }
+}
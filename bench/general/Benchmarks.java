@@ -0,0 +1,50 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Benchmarks
+ */
+package general;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks and writes the results files. With -Dbench.filter=regex only the
+ * benchmarks whose names match are run, for example -Dbench.filter=codec|bank.hold.
+ */
+public final class Benchmarks {
+    private interface Suite {
+        void run() throws Exception;
+    }
+
+    private Benchmarks() {}
+
+    /**
+     * Main
+     * @param args unused
+     * @throws Exception if a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, Suite> suites = new LinkedHashMap<>();
+        suites.put("codec", CodecBench::run);
+        suites.put("stream.soak", SoakBench::run);
+        suites.put("bank.hold", bank.HoldBench::run);
+        suites.put("bank.registration", bank.RegistrationBench::run);
+        suites.put("bank.settle", bank.SettleBench::run);
+        suites.put("bank.fanout", bank.FanOutBench::run);
+        suites.put("auctionHouse.bid", auctionHouse.BidPathBench::run);
+        suites.put("auctionHouse.bidWar", auctionHouse.BidWarBench::run);
+        suites.put("auctionHouse.fanout", auctionHouse.FanOutBench::run);
+        suites.put("auctionHouse.timer", auctionHouse.TimerBench::run);
+        suites.put("connections", ConnectionBench::run);
+        suites.put("cluster", bank.ClusterBench::run);
+        Pattern filter = Pattern.compile(System.getProperty("bench.filter", ".*"));
+        for (Map.Entry<String, Suite> suite : suites.entrySet()) {
+            if (!filter.matcher(suite.getKey()).find()) continue;
+            Bench.log("# " + suite.getKey());
+            suite.getValue().run();
+        }
+        Bench.write();
+        System.exit(0);
+    }
+}
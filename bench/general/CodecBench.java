@@ -0,0 +1,100 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Codec Benchmark
+ */
+package general;
+
+import general.Message.*;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encode and decode cost of every message record, with Java serialization one message per frame
+ * (the framed transports without -Dauction.codec=binary), the long-lived object stream of the
+ * default transport, and the binary codec. Also reports the bytes each codec puts on the wire
+ * per message. The stream codec is only timed for encoding, since its decoder cannot be run
+ * apart from its encoder; its sizes include the class descriptors it sends again after each reset.
+ */
+public final class CodecBench {
+    private CodecBench() {}
+
+    /**
+     * @return one filled-in example of every message record
+     */
+    public static List<Message> samples() {
+        Trace trace = new Trace(42);
+        trace.hop(Trace.SENT, 1000);
+        trace.hop("bank.messages.queued", 2000);
+        trace.hop("bank.messages.taken", 3000);
+        Map<String, SocketData> houses = new HashMap<>();
+        for (int i = 0; i < 5; i++) houses.put("AH000" + i, new SocketData("localhost", 5000 + i));
+        List<AuctionData> listings = new ArrayList<>();
+        for (int i = 0; i < 3; i++) listings.add(new AuctionData("Item number " + i, i, 10.5 * i, "CL0001"));
+        List<AuctionOver> outcomes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) outcomes.add(new AuctionOver("AH0001", "CL000" + i, "Item " + i, 12.5, 100 + i));
+        return List.of(
+                new AgentMade("CL0001"),
+                new NewAgent("Agent Smith", 1000),
+                new RegisterAgent("CL0001", "Agent Smith"),
+                new NewBid("Lamp", 7, 25.5, "CL0001", null),
+                new NewBid("Lamp", 7, 25.5, "CL0001", trace),
+                new NewHold("CL0001", 25.5, "AH0001:7", 7, 123456789L, null),
+                new ConfirmHold(true, "AH0001:7", "CL0001", 7, 123456789L, null),
+                new EndHold("CL0001", 25.5, "AH0001:7", 123456790L),
+                new CloseAgent("CL0001"),
+                new AuctionList(houses),
+                new AuctionHouseMade("AH0001"),
+                new NewAuctionHouse("House of Lamps", 5001),
+                new NewAuctions("House of Lamps", 42, listings),
+                new AuctionUpdate("House of Lamps", 43, 7, listings.get(0)),
+                new AuctionUpdate("House of Lamps", 44, 7, null),
+                new ResyncAuctions("CL0001"),
+                new AuctionOver("AH0001", "CL0001", "Lamp", 25.5, 123456791L),
+                new SettleBatch("AH0001", outcomes),
+                new AuctionWon("Lamp", 25.5),
+                new AuctionHouseClosed("AH0001"),
+                new ConfirmBid(true, "Lamp", "House of Lamps", null),
+                new UpdateMoney(974.5, 25.5));
+    }
+
+    /**
+     * Runs the benchmark
+     * @throws Exception if a message cannot be encoded
+     */
+    public static void run() throws Exception {
+        for (Message m : samples()) {
+            String type = m.getClass().getSimpleName() + (m instanceof Traced t && t.trace() != null ? "+trace" : "");
+            byte[] serialized = Transport.serialize(m);
+            byte[] binary = BinaryCodec.encode(m);
+            // the object stream writes a repeated object as a handle, so it is given distinct copies
+            Message[] copies = new Message[ResettingObjectOutput.RESET_MESSAGES];
+            for (int i = 0; i < copies.length; i++) copies[i] = Transport.deserialize(ByteBuffer.wrap(serialized));
+            ResettingObjectOutput stream = new ResettingObjectOutput(OutputStream.nullOutputStream());
+            long before = stream.stats().bytes();
+            for (Message copy : copies) stream.write(copy);
+            stream.flush();
+            Map<String, Double> bytes = new LinkedHashMap<>();
+            bytes.put("serialized_bytes", (double) serialized.length);
+            bytes.put("stream_bytes", (stream.stats().bytes() - before) / (double) copies.length);
+            bytes.put("binary_bytes", (double) binary.length);
+            Bench.report("codec.size", "type=" + type, bytes);
+
+            Bench.measure("codec.encode", "type=" + type + ",codec=serialized", 1,
+                    (t, i) -> Bench.sink(Transport.serialize(m)));
+            Bench.measure("codec.encode", "type=" + type + ",codec=stream", 1,
+                    (t, i) -> stream.write(copies[(int) (i % copies.length)]));
+            Bench.measure("codec.encode", "type=" + type + ",codec=binary", 1,
+                    (t, i) -> Bench.sink(BinaryCodec.encode(m)));
+            Bench.measure("codec.decode", "type=" + type + ",codec=serialized", 1,
+                    (t, i) -> Bench.sink(Transport.deserialize(ByteBuffer.wrap(serialized))));
+            Bench.measure("codec.decode", "type=" + type + ",codec=binary", 1,
+                    (t, i) -> Bench.sink(BinaryCodec.decode(ByteBuffer.wrap(binary))));
+        }
+    }
+}
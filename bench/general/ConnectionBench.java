@@ -0,0 +1,99 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Connection Benchmark
+ */
+package general;
+
+import general.Message.AgentMade;
+import general.Message.NewAgent;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How a bank copes with many open connections in each transport variant: stream with platform
+ * threads, stream with virtual threads, nio and nio with the binary codec. A bank is started in
+ * its own JVM and that many agents connect and register one after another, each waiting for its
+ * AgentMade, and stay connected. Reports the time to register each agent, and the bank's
+ * threads and resident memory once they are all connected.
+ * Settings: -Dbench.variants (default stream,stream+virtual,nio,nio+binary) and
+ * -Dbench.connections (default 100,1000,10000). A count that would not fit in the open file
+ * limit, which the bank and the benchmark each need one descriptor per connection of, is skipped
+ * with a message.
+ */
+public final class ConnectionBench {
+    private static final int PORT = 7400;
+    private static final int SPARE_FILES = 512; // descriptors kept for jars, logs and listeners
+
+    private ConnectionBench() {}
+
+    /**
+     * Runs the benchmark
+     * @throws Exception if a bank cannot be started or an agent cannot register
+     */
+    public static void run() throws Exception {
+        int port = PORT;
+        for (String variant : System.getProperty("bench.variants", "stream,stream+virtual,nio,nio+binary").split(",")) {
+            for (String count : System.getProperty("bench.connections", "100,1000,10000").split(",")) {
+                int connections = Integer.parseInt(count.trim());
+                long limit = openFileLimit();
+                if (limit >= 0 && connections + SPARE_FILES > limit) {
+                    Bench.log("Skipping variant=" + variant.trim() + ",connections=" + connections
+                            + ": the open file limit is " + limit + ", raise it with ulimit -n");
+                    continue;
+                }
+                measure(variant.trim(), connections, port++);
+            }
+        }
+    }
+
+    /**
+     * @return the most files this process may open, which the bank inherits, or -1 if unknown
+     */
+    private static long openFileLimit() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof UnixOperatingSystemMXBean os) {
+            return os.getMaxFileDescriptorCount();
+        }
+        return -1;
+    }
+
+    private static void measure(String variant, int connections, int port) throws Exception {
+        List<BenchClient> clients = new ArrayList<>(connections);
+        Histogram latency = new Histogram();
+        try (BankProcess bank = BankProcess.start(port, variant)) {
+            Map<String, Double> idle = bank.status();
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < connections; i++) {
+                    long begin = System.nanoTime();
+                    BenchClient client = new BenchClient("localhost", port, variant);
+                    clients.add(client);
+                    client.send(new NewAgent("Agent " + i, 100));
+                    client.await(AgentMade.class);
+                    latency.record(System.nanoTime() - begin);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                Thread.sleep(500);
+                Map<String, Double> extra = new LinkedHashMap<>();
+                extra.put("registrations_per_sec", connections / seconds);
+                extra.put("p50_ns", (double) latency.percentile(0.5));
+                extra.put("p99_ns", (double) latency.percentile(0.99));
+                extra.put("p999_ns", (double) latency.percentile(0.999));
+                Map<String, Double> loaded = bank.status();
+                if (loaded.containsKey("threads")) {
+                    extra.put("bank_threads", loaded.get("threads"));
+                    extra.put("bank_threads_idle", idle.get("threads"));
+                    extra.put("bank_rss_mb", loaded.get("rss_mb"));
+                }
+                Bench.report("bank.connections", "variant=" + variant + ",connections=" + connections, extra);
+            } finally {
+                for (BenchClient client : clients) client.close();
+            }
+        }
+    }
+}
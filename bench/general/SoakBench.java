@@ -0,0 +1,107 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Soak Benchmark
+ */
+package general;
+
+import general.Message.NewBid;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams millions of messages down one object stream connection, the default transport, and
+ * checks that the heap stays flat. Both ends of an object stream hold every object sent until it
+ * is reset, so without ResettingObjectOutput the heap grows with every message. Each message is
+ * a new object and the reader is a plain ObjectInputStream in the same JVM, so both ends count.
+ * The heap is measured after a full collection at ten points along the way, after the first
+ * tenth. Fails if it grew by more than -Dbench.soak.maxGrowthMb (default 32).
+ * With reset=off a tenth as many messages are sent without resetting, to show the growth.
+ * Settings: -Dbench.soak.messages (default 2000000).
+ */
+public final class SoakBench {
+    private static final int MESSAGES = Integer.getInteger("bench.soak.messages", 2_000_000);
+    private static final long MAX_GROWTH = Long.getLong("bench.soak.maxGrowthMb", 32) << 20;
+    private static final int FLUSH_EVERY = 64; // messages written per flush, as a busy writer does
+    private static final int CHECKPOINTS = 10;
+
+    private SoakBench() {}
+
+    /**
+     * Runs the benchmark
+     * @throws Exception if the connection fails, or the heap grew with resets on
+     */
+    public static void run() throws Exception {
+        soak(MESSAGES, true);
+        soak(MESSAGES / 10, false);
+    }
+
+    private static void soak(int messages, boolean reset) throws Exception {
+        AtomicLong received = new AtomicLong();
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+             Socket peer = server.accept()) {
+            Thread reader = new Thread(() -> {
+                try (ObjectInputStream in = new ObjectInputStream(peer.getInputStream())) {
+                    while (true) {
+                        Bench.sink(in.readObject());
+                        received.incrementAndGet();
+                    }
+                } catch (IOException | ClassNotFoundException e) {
+                    // the writer closed the connection
+                }
+            }, "soak-reader");
+            reader.start();
+            ResettingObjectOutput out = reset
+                    ? new ResettingObjectOutput(socket.getOutputStream())
+                    : new ResettingObjectOutput(socket.getOutputStream(), Integer.MAX_VALUE, Long.MAX_VALUE);
+            long baseline = 0, peak = 0, last = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                // every message is a distinct object, as a bid from the network is
+                out.write(new NewBid("Item " + i, i % 1000, 20 + i, "CL" + (i % 1000), null));
+                if (i % FLUSH_EVERY == FLUSH_EVERY - 1) out.flush();
+                if ((i + 1) % (messages / CHECKPOINTS) == 0) {
+                    out.flush();
+                    while (received.get() < i + 1) Thread.onSpinWait();
+                    last = usedHeap();
+                    if (baseline == 0) baseline = last;
+                    peak = Math.max(peak, last);
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            socket.shutdownOutput();
+            reader.join();
+            Map<String, Double> extra = new LinkedHashMap<>();
+            extra.put("messages_per_sec", messages / seconds);
+            extra.put("heap_start_mb", baseline / 1048576.0);
+            extra.put("heap_peak_mb", peak / 1048576.0);
+            extra.put("heap_end_mb", last / 1048576.0);
+            extra.put("growth_mb", (peak - baseline) / 1048576.0);
+            extra.put("resets", (double) out.stats().resets());
+            Bench.report("stream.soak", "messages=" + messages + ",reset=" + (reset ? "on" : "off"), extra);
+            if (reset && peak - baseline > MAX_GROWTH) {
+                throw new IllegalStateException("Heap grew by " + (peak - baseline) / 1048576 + " MB over "
+                        + messages + " messages with resets on");
+            }
+        }
+    }
+
+    /**
+     * @return bytes of heap in use after a full collection
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -4,10 +4,17 @@
  */
 package agent;
 
+import general.AuctionBook;
 import general.AuctionData;
 import general.Message;
 import general.Message.*;
+import general.MessageQueue;
+import general.MessageWriter;
+import general.Metrics;
+import general.Transport;
 import general.SocketData;
+import general.Threads;
+import general.Trace;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.geometry.Insets;
@@ -24,14 +31,11 @@ import javafx.stage.Stage;
 import javafx.util.Pair;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.text.NumberFormat;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 
 public class Agent extends Application {
@@ -40,8 +44,8 @@ public class Agent extends Application {
      */
     private static class Connection {
         private Socket socket;
-        private ObjectInputStream in;
-        private ObjectOutputStream out;
+        private Transport.Input in;
+        private MessageWriter out;
         private Thread listenThread;
         private MessageListener msgListener;
     }
@@ -49,7 +53,8 @@ public class Agent extends Application {
     private Connection bank;
     private Map<String, Connection> auctionHouses;
     private Map<String, List<AuctionData>> currentAuctions;
-    private BlockingQueue<Pair<Message, ObjectOutputStream>> messages;
+    private Map<String, AuctionBook> auctionBooks;
+    private BlockingQueue<Pair<Message, MessageWriter>> messages;
     private List<Pair<String, Double>> itemsWon;
 
     private final long FREQ = 2_000_000_000; // 2 seconds
@@ -87,8 +92,27 @@ public class Agent extends Application {
      */
     protected void newAuctions(Message.NewAuctions message) {
         String name = message.name();
-        currentAuctions.remove(name);
-        currentAuctions.put(name, message.auctionListings());
+        AuctionBook book = auctionBooks.computeIfAbsent(name, k -> new AuctionBook());
+        book.snapshot(message);
+        currentAuctions.put(name, book.auctions());
+    }
+
+    /**
+     * Applies one change to an auction house's auctions. If changes were missed on the way,
+     * asks the auction house for the whole list again.
+     * @param message the change
+     */
+    protected void auctionUpdate(AuctionUpdate message) {
+        String name = message.name();
+        AuctionBook book = auctionBooks.get(name);
+        if (book == null) return; // the list this change applies to has not arrived yet
+        if (!book.apply(message)) {
+            System.out.println("Missed changes to the auctions at " + name + ", asking for the list again");
+            Connection house = auctionHouses.get(name);
+            if (house != null) house.out.send(new ResyncAuctions(acctNum));
+            return;
+        }
+        currentAuctions.put(name, book.auctions());
     }
 
     /**
@@ -109,13 +133,13 @@ public class Agent extends Application {
                 try {
                     // Connect to the auction house
                     house.socket = new Socket(si.hostname(), si.port());
-                    house.out = new ObjectOutputStream(house.socket.getOutputStream());
-                    house.out.flush();
-                    house.in = new ObjectInputStream(house.socket.getInputStream());
+                    Transport.Streams streams = Transport.open(house.socket);
+                    house.in = streams.in();
+                    house.out = streams.out();
 
                     // Start a new message listener for this auction house
                     house.msgListener = new MessageListener(messages, house.in, house.out);
-                    house.listenThread = new Thread(house.msgListener);
+                    house.listenThread = Threads.newThread(house.msgListener);
                     house.listenThread.start();
 
                     // Add the new auction house to the agent's list
@@ -123,7 +147,7 @@ public class Agent extends Application {
                     System.out.println("Added new auction house " + auction);
 
                     // Register the agent with the auction house
-                    house.out.writeObject(new Message.RegisterAgent(acctNum, this.name));
+                    house.out.send(new Message.RegisterAgent(acctNum, this.name));
                 } catch (UnknownHostException e) {
                     System.out.println("Error finding host: " + e.getMessage());
                 } catch (IOException e) {
@@ -139,8 +163,10 @@ public class Agent extends Application {
                 Connection house = auctionHouses.get(ahName);
                 house.msgListener.stop();
                 house.listenThread.interrupt();
+                house.out.close();
                 auctionHouses.remove(ahName);
                 currentAuctions.remove(ahName);
+                auctionBooks.remove(ahName);
             }
         }
     }
@@ -184,9 +210,11 @@ public class Agent extends Application {
          */
 
         acctNum = "none";
-        messages = new LinkedBlockingQueue<>();
+        messages = new MessageQueue("agent.messages");
+        Metrics.serve("Agent");
         auctionHouses = Collections.synchronizedMap(new HashMap<>());
         currentAuctions = Collections.synchronizedMap(new HashMap<>());
+        auctionBooks = new HashMap<>();
         itemsWon = new ArrayList<>();
         this.primaryStage = primaryStage;
 
@@ -207,18 +235,18 @@ public class Agent extends Application {
                 bank = new Connection();
                 bank = new Connection();
                 bank.socket = new Socket(bankName.getText(), Integer.parseInt(bankPort.getText()));
-                bank.out = new ObjectOutputStream(bank.socket.getOutputStream());
-                bank.out.flush();
-                bank.in = new ObjectInputStream(bank.socket.getInputStream());
+                Transport.Streams streams = Transport.open(bank.socket);
+                bank.in = streams.in();
+                bank.out = streams.out();
                 bank.msgListener = new MessageListener(messages, bank.in, bank.out);
-                bank.listenThread = new Thread(bank.msgListener);
+                bank.listenThread = Threads.newThread(bank.msgListener);
                 bank.listenThread.start();
                 //TODO: Add multiple message listeners, add threads to global list to stop later
                 MessageParser pm = new MessageParser(this, messages);
-                Thread t = new Thread(pm);
+                Thread t = Threads.newThread(pm);
                 t.start();
                 name = nameInput.getText();
-                bank.out.writeObject(new NewAgent(name, Double.parseDouble(balance.getText())));
+                bank.out.send(new NewAgent(name, Double.parseDouble(balance.getText())));
                 start.setVisible(false);
                 run();
             } catch (UnknownHostException e) {
@@ -352,11 +380,7 @@ public class Agent extends Application {
         bid.setOnAction(event -> {
             if (balance - holds >= info.winningBid() + 1) {
                 Connection ah = auctionHouses.get(name);
-                try {
-                    ah.out.writeObject(new NewBid(info.item(), info.ID(), info.winningBid() + 1, acctNum));
-                } catch (IOException e) {
-                    System.out.println("Error sending bid to auction house: " + e.getMessage());
-                }
+                ah.out.send(new NewBid(info.item(), info.ID(), info.winningBid() + 1, acctNum, Trace.start()));
             }
         });
 
@@ -430,25 +454,15 @@ public class Agent extends Application {
                         lastUpdate = now;
                         if (checkAuctions()) {
                             CloseAgent msg = new CloseAgent(acctNum);
-                            try {
-                                bank.out.writeObject(msg);
-                                bank.msgListener.stop();
-                                bank.listenThread.interrupt();
-                            } catch (IOException e) {
-                                System.out.println(
-                                        "Error writing close message to bank: "
-                                                + e.getMessage());
-                            }
+                            bank.out.send(msg);
+                            bank.msgListener.stop();
+                            bank.listenThread.interrupt();
 
                             for (String s : auctionHouses.keySet()) {
                                 Connection ah = auctionHouses.get(s);
-                                try {
-                                    ah.out.writeObject(msg);
-                                    ah.msgListener.stop();
-                                    ah.listenThread.interrupt();
-                                } catch (IOException e) {
-                                    System.out.println("Error writing close message: " + e.getMessage());
-                                }
+                                ah.out.send(msg);
+                                ah.msgListener.stop();
+                                ah.listenThread.interrupt();
                             }
                             auctionHouses.clear();
                             currentAuctions.clear();
@@ -5,6 +5,8 @@
 package agent;
 
 import general.Message;
+import general.MessageWriter;
+import general.Transport;
 import javafx.util.Pair;
 
 import java.io.*;
@@ -15,17 +17,17 @@ import java.util.concurrent.BlockingQueue;
  */
 public class MessageListener implements Runnable {
     private boolean loop;
-    private final BlockingQueue<Pair<Message, ObjectOutputStream>> messages;
-    private final ObjectInputStream in;
-    private final ObjectOutputStream out;
+    private final BlockingQueue<Pair<Message, MessageWriter>> messages;
+    private final Transport.Input in;
+    private final MessageWriter out;
 
     /**
      * Creates a new MessageListener with the specified queue of messages
      * @param messages the queue of messages to be listened to
      * @param in input stream
-     * @param out output stream
+     * @param out outbound queue for replies to the sender
      */
-    protected MessageListener(BlockingQueue<Pair<Message, ObjectOutputStream>> messages, ObjectInputStream in, ObjectOutputStream out) {
+    protected MessageListener(BlockingQueue<Pair<Message, MessageWriter>> messages, Transport.Input in, MessageWriter out) {
         this.messages = messages;
         this.in = in;
         this.out = out;
@@ -47,7 +49,7 @@ public class MessageListener implements Runnable {
     public void run() {
         while (loop) {
             try {
-                Message m = (Message)in.readObject();
+                Message m = in.read();
                 messages.put(new Pair<>(m, out));
             } catch (InterruptedException e) {
                 System.out.println("Message listener interrupted: " +
@@ -7,7 +7,8 @@ package agent;
 import javafx.util.Pair;
 import general.Message;
 import general.Message.*;
-import java.io.ObjectOutputStream;
+import general.MessageWriter;
+import general.TraceCollector;
 import java.util.concurrent.BlockingQueue;
 
 /**
@@ -16,7 +17,7 @@ import java.util.concurrent.BlockingQueue;
  */
 public class MessageParser implements Runnable {
     private final Agent agent;
-    private final BlockingQueue<Pair<Message, ObjectOutputStream>> messages;
+    private final BlockingQueue<Pair<Message, MessageWriter>> messages;
     private boolean loop;
 
     /**
@@ -24,7 +25,7 @@ public class MessageParser implements Runnable {
      * @param agentObj the agent object we're parsing messages for
      * @param messages a blockingqueue to read messages from
      */
-    protected MessageParser(Agent agentObj, BlockingQueue<Pair<Message, ObjectOutputStream>> messages) {
+    protected MessageParser(Agent agentObj, BlockingQueue<Pair<Message, MessageWriter>> messages) {
         this.agent = agentObj;
         this.messages = messages;
         loop = true;
@@ -45,7 +46,7 @@ public class MessageParser implements Runnable {
     public void run() {
         while (loop) {
             try {
-                Pair<Message, ObjectOutputStream> pair = messages.take();
+                Pair<Message, MessageWriter> pair = messages.take();
                 Message msg = pair.getKey();
                 if (msg instanceof AgentMade agentMade) {
                     agent.setAcctNum(agentMade.accountNumber());
@@ -57,8 +58,13 @@ public class MessageParser implements Runnable {
                     String status = confirmBid.success() ?
                             "accepted" : "rejected";
                     System.out.println("Bid " + status + " for " + confirmBid.item() + " at " + confirmBid.name() + ".");
+                    if (confirmBid.trace() != null) {
+                        TraceCollector.finish(confirmBid.trace(), confirmBid.item(), confirmBid.success());
+                    }
                 } else if (msg instanceof NewAuctions newAuctions) {
                     agent.newAuctions(newAuctions);
+                } else if (msg instanceof AuctionUpdate auctionUpdate) {
+                    agent.auctionUpdate(auctionUpdate);
                 } else if (msg instanceof UpdateMoney updateFunds) {
                     agent.updateAcct(updateFunds.amount(), updateFunds.hold());
                 }
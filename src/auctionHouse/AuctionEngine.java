@@ -0,0 +1,1024 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Auction Engine
+ */
+package auctionHouse;
+import general.AuctionData;
+import general.Histogram;
+import general.Message;
+import general.Message.*;
+import general.MessageQueue;
+import general.MessageWriter;
+import general.Metrics;
+import general.Threads;
+import general.Trace;
+import general.Transport;
+import javafx.util.Pair;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The auctions of one auction house, without a window. Registers with the bank, accepts agents,
+ * takes bids, asks the bank to hold them and settles auctions when they close. An engine has no
+ * threads of its own: its messages are handled by a MessageParser task on the EngineHost's
+ * workers, never by two threads at once. An auction closes as soon as its timer on the host's
+ * TimingWheel runs out: the parser settles it with the bank, tells the winner and opens a new
+ * auction in its place. Agents are sent each change to the auctions as a numbered AuctionUpdate,
+ * and the whole list only when they join or ask for it again.
+ * With -Dauction.lease.amount above zero the engine asks the bank to lease it that much of each
+ * bidding agent's balance. A bid the lease covers wins at once and its hold follows to the bank
+ * as a LeaseHold, instead of waiting a round trip for a NewHold to be confirmed.
+ * With the nio transport it also shares the host's I/O threads. The AuctionHouse window is an
+ * optional view of one engine.
+ */
+public class AuctionEngine {
+    private final EngineHost host;
+    private Connection bank; // the connection to the bank
+    private final Map<String, Connection> agents = new ConcurrentHashMap<>(); // list of connected agents
+    private final BlockingQueue<Pair<Message, MessageWriter>> messages = new Inbox(); // messages
+    private final MessageParser parser = new MessageParser(this, messages);
+    private final AuctionRegistry<Auction> auctions; // open auctions by auction id
+    private final int lots; // auctions open at once
+    private final TimingWheel wheel; // runs the auctions' timers
+    private final Queue<Auction> expiring = new ConcurrentLinkedQueue<>(); // auctions whose timer ran out
+    private final long bidWindow = Long.getLong("auction.bidWindowMillis", 0); // see forwardBids
+    private final Set<Auction> admitting = new LinkedHashSet<>(); // auctions with a bid to forward this run
+    private final Queue<Auction> windowsClosed = new ConcurrentLinkedQueue<>(); // bid windows that ran out
+    private final double leaseAmount = Double.parseDouble(System.getProperty("auction.lease.amount", "0")); // per agent, 0 for none
+    private final long leaseRetry = TimeUnit.MILLISECONDS.toNanos(Long.getLong("auction.lease.retryMillis", 5_000));
+    private final Map<String, Lease> leases = new HashMap<>(); // credit leased by the bank, by agent account
+    private final Map<Long, NewBid> reconciling = new HashMap<>(); // bids accepted on a lease, by the request id of their hold
+    private final Set<Long> abandoned = new HashSet<>(); // request ids of holds still pending when their auction closed
+    private long sequence; // number of the last change to the auctions
+    private final List<AuctionUpdate> changes = new ArrayList<>(); // changes to send at the end of the run
+    private final Queue<Connection> joining = new ConcurrentLinkedQueue<>(); // agents waiting for the whole list
+    private volatile String accountNumber = "none"; // account number
+    private final String name; // the auction house's name
+    private final int port;
+    private volatile double aHBalance; // Auction house's bank account balance
+    private int auctionNum = 0; //Auction ID number
+    private final AtomicLong requestIds = new AtomicLong(); // numbers requests to the bank
+    private volatile boolean newAuctions = true; // are there new auctions available?
+    private volatile boolean closed;
+    private final AtomicBoolean scheduled = new AtomicBoolean(); // is the parser queued or running?
+    private volatile boolean checkDue; // auctions have closed since the last check
+    private SocketListener sl;
+    private SocketParser ps;
+    private Thread sockListenThread;
+    private Thread parseSockThread;
+    private Closeable nioPort;
+    private static final LongAdder BIDS_HELD = Metrics.counter("auction_bids{result=\"sent_for_hold\"}");
+    private static final LongAdder BIDS_TOO_LOW = Metrics.counter("auction_bids{result=\"too_low\"}");
+    private static final LongAdder BIDS_TOO_LATE = Metrics.counter("auction_bids{result=\"too_late\"}");
+    private static final LongAdder BIDS_OUTBID = Metrics.counter("auction_bids{result=\"outbid_while_waiting\"}");
+    private static final LongAdder BIDS_ON_LEASE = Metrics.counter("auction_bids{result=\"accepted_on_lease\"}");
+    private static final LongAdder LEASE_HOLDS_REFUSED = Metrics.counter("auction_lease_holds_refused");
+    private static final LongAdder AUCTIONS_WON = Metrics.counter("auctions_won");
+    private static final Histogram CLOSE_TO_WON = Metrics.histogram("auction_close_to_won_nanos");
+
+    private static final String[] itemTypes = {"cool", "weird", "small", "funny",
+            "lame", "master", "epic", "rare"};
+    private static final String[] items = {"orb", "sword", "bug", "art",
+            "house", "piano", "cat", "rug", "camera", "guitar", "poetry"};
+
+    /**
+     * Constructor
+     * @param name the auction house's name
+     * @param port port agents connect to
+     * @param lots number of auctions open at once
+     * @param host runs the engine's messages and timers, or null when the caller drives it
+     */
+    public AuctionEngine(String name, int port, int lots, EngineHost host) {
+        this.name = name;
+        this.port = port;
+        this.lots = lots;
+        this.host = host;
+        auctions = new AuctionRegistry<>(lots);
+        wheel = host != null ? host.wheel() : new TimingWheel(100, 512);
+    }
+
+    /**
+     * Opens the first auctions, connects to the bank, starts accepting agents and registers
+     * with the bank
+     * @param bankHost host name of the bank
+     * @param bankPort port of the bank
+     * @throws IOException if the bank cannot be reached or the port cannot be opened
+     */
+    protected void start(String bankHost, int bankPort) throws IOException {
+        startingAuctions();
+        bank = new Connection();
+        bank.socket = new Socket(bankHost, bankPort);
+        Transport.Streams streams = Transport.open(bank.socket);
+        bank.input = streams.in();
+        bank.output = streams.out();
+        bank.listener = new MessageListener(messages, bank.input, bank.output);
+        bank.thread = Threads.newThread(bank.listener);
+        bank.thread.start();
+
+        if (host.nio() != null) {
+            nioPort = host.nio().listen(port, new ChannelParser(this, messages));
+        } else {
+            BlockingQueue<Socket> sockets = new LinkedBlockingQueue<>();
+            sl = new SocketListener(port, sockets);
+            ps = new SocketParser(this, sockets);
+            sockListenThread = Threads.newThread(sl);
+            parseSockThread = Threads.newThread(ps);
+            sockListenThread.start();
+            parseSockThread.start();
+        }
+
+        bank.output.send(new NewAuctionHouse(name, port));
+    }
+
+    /**
+     * Sets the engine up without sockets, for the benchmarks.
+     * Agents are added with addNewAgent and bank replies are passed to the protected handlers.
+     * @param accountNumber the auction house's bank account
+     * @param bankOut receives every message meant for the bank
+     */
+    void startHeadless(String accountNumber, MessageWriter bankOut) {
+        this.accountNumber = accountNumber;
+        bank = new Connection();
+        bank.output = bankOut;
+        startingAuctions();
+    }
+
+    /**
+     * Stops opening new auctions. Once the open ones have closed, the engine tells the bank the
+     * auction house is closed and drops its connections.
+     */
+    public void close() {
+        newAuctions = false;
+        checkAuctions();
+    }
+
+    /**
+     * @return the auction house's name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the auction house's account number, or "none" until the bank has opened it
+     */
+    public String accountNumber() {
+        return accountNumber;
+    }
+
+    /**
+     * @return the auction house's balance as last sent by the bank
+     */
+    public double balance() {
+        return aHBalance;
+    }
+
+    /**
+     * @return true once the engine has closed down
+     */
+    public boolean closed() {
+        return closed;
+    }
+
+    /**
+     * @return number of connected agents
+     */
+    public int agentCount() {
+        return agents.size();
+    }
+
+    /**
+     * @return number of messages waiting to be handled
+     */
+    int waiting() {
+        return messages.size();
+    }
+
+    /**
+     * @return the open auctions
+     */
+    public List<AuctionData> auctionData() {
+        synchronized (auctions) {
+            ArrayList<AuctionData> list = new ArrayList<>(auctions.size());
+            for (int i = 0; i < auctions.size(); i++) list.add(auctions.at(i).data());
+            return list;
+        }
+    }
+
+    /**
+     * Has the parser run on the host's workers unless it is already queued or running
+     */
+    protected void ready() {
+        if (host != null && scheduled.compareAndSet(false, true)) host.execute(parser);
+    }
+
+    /**
+     * Asks the parser to check the auctions on its next run
+     */
+    protected void checkAuctions() {
+        checkDue = true;
+        ready();
+    }
+
+    /**
+     * @return true if the auctions are due to be checked, clearing the request
+     */
+    protected boolean takeCheck() {
+        if (!checkDue) return false;
+        checkDue = false;
+        return true;
+    }
+
+    /**
+     * Called by the parser when it stops, so it runs again if more work came in meanwhile
+     */
+    protected void parsed() {
+        scheduled.set(false);
+        if (!messages.isEmpty() || checkDue || !windowsClosed.isEmpty() || !joining.isEmpty()) ready();
+    }
+
+    /**
+     * Confirms whether there are funds in an agent's account that are being held for a pending bid
+     * A bid accepted on a lease has already won, and its confirmation is only checked.
+     *
+     * @param message message from the bank confirming that the funds are being held
+     */
+    protected void bidConfirmation(ConfirmHold message) {
+        NewBid leased = reconciling.remove(message.requestId());
+        if (leased != null) {
+            // the bid already won; the bank only confirms the hold behind it
+            if (!message.success()) {
+                LEASE_HOLDS_REFUSED.increment();
+                System.out.println("Error: The bank did not hold the bid of $" + leased.bid() + " on " + leased.item() +
+                        " accepted on the lease of #" + leased.accountNumber());
+                // the lease is not what the bank has, so give it back and hold the bid as any other
+                dropLease(leased.accountNumber());
+                Auction auction = auctions.get(message.id());
+                if (auction != null) auction.holdUnleased(leased);
+            }
+            return;
+        }
+        if (abandoned.remove(message.requestId())) return; // turned down and released when its auction closed
+        try {
+            Auction auction = grabAuction(message.id()); // find the specified auction
+            auction.confirmBid(message); // settle the pending bid, whether or not the funds are held
+        } catch (IllegalAccessException e) {
+            System.out.println("Error: Auction not found" + e.getMessage());
+            // nothing will settle or release a hold on an auction that is gone
+            if (message.success()) {
+                bank.output.send(new EndHold(message.accountNumber(), 0, message.item(), nextRequest()));
+            }
+        }
+    }
+
+    /**
+     * handles a new bid message that has been received
+     * @param message message from the agent containing the bid's information
+     */
+    protected void bidReceived(NewBid message) {
+        try {
+            // find the auction & check to see if the placed bid is valid.
+            Auction auction = grabAuction(message.id());
+            auction.checkValidBid(message);
+        } catch (IllegalAccessException ignored) {
+            // if the auction cannot be found, send a message to the agent to
+            // indicate that the bid was unsuccessful
+            agents.get(message.accountNumber()).output.send(
+                    new ConfirmBid(false, message.item(), name, message.trace()));
+        }
+    }
+
+
+    /**
+     * grabs an auction given its ID number
+     * @param id Unique id of an auction.
+     * @return Auction object associated with id.
+     * @throws IllegalAccessException Error if auction no longer open.
+     */
+    private Auction grabAuction(int id) throws IllegalAccessException {
+        Auction auction = auctions.get(id);
+        // if the auction is found, return it
+        if (auction != null) return auction;
+        // if the auction cannot be found, throw an exception and write a message to the console
+        throw new IllegalAccessException("That auction doesn't exist");
+    }
+
+    /**
+     * Sends the bank a hold for the best bid waiting on each auction. Bids that beat the winning
+     * bid wait on their auction instead of going to the bank at once, and a higher bid arriving
+     * meanwhile turns the waiting one down, so a bidding war costs the bank one hold per auction
+     * rather than one per bid. By default bids wait until the parser has handled the messages of
+     * its current run, which adds no delay. With -Dauction.bidWindowMillis above zero an auction's
+     * first bid also opens a window of that length on the timing wheel, and the best bid is sent
+     * when it closes. With -1 every bid is sent at once, as before. A bid the agent's lease
+     * covers is accepted here rather than sent for a hold.
+     * Called by the parser at the end of each run.
+     */
+    protected void forwardBids() {
+        for (Auction auction : admitting) auction.forwardBest();
+        admitting.clear();
+        Auction auction;
+        while ((auction = windowsClosed.poll()) != null) auction.forwardBest();
+    }
+
+    /**
+     * Takes a bid's amount out of the agent's lease. A lease too small for the bid is given back
+     * first, since the hold sent instead may need the funds it keeps.
+     * @param agentAccount the bidding agent's account number
+     * @param amount the credit the bid needs
+     * @return true if the lease covered the bid
+     */
+    private boolean drawLease(String agentAccount, double amount) {
+        Lease lease = leases.get(agentAccount);
+        if (lease == null) return false;
+        long now = System.nanoTime();
+        if (now - lease.expires < 0 && lease.credit >= amount) {
+            lease.credit -= amount;
+            if (lease.requestId != 0) lease.drawn += amount;
+            return true;
+        }
+        // with a renewal on its way the bank will hand out new credit after this, so keep it
+        if (lease.credit > 0 && lease.requestId == 0) {
+            lease.credit = 0;
+            lease.expires = now;
+            lease.renewAt = now + leaseRetry; // not at once, the bid's hold needs what it freed
+            bank.output.send(new EndLease(agentAccount, accountNumber, nextRequest()));
+        }
+        return false;
+    }
+
+    /**
+     * Asks the bank for a lease on an agent who bids here and has none, or for a new one once
+     * three quarters of it has run, so an agent who keeps bidding keeps its credit. A refused or
+     * revoked lease, or one given back for a bid it could not cover, is asked for again after
+     * -Dauction.lease.retryMillis. Called after the bid's own hold is sent, so the lease does not
+     * take funds the hold needs.
+     * @param agentAccount the bidding agent's account number
+     */
+    private void renewLease(String agentAccount) {
+        if (leaseAmount <= 0) return;
+        long now = System.nanoTime();
+        Lease lease = leases.computeIfAbsent(agentAccount, k -> new Lease(now));
+        if (lease.requestId != 0 || now - lease.renewAt < 0) return;
+        lease.requestId = nextRequest();
+        lease.drawn = 0;
+        bank.output.send(new NewLease(agentAccount, accountNumber, leaseAmount, lease.requestId));
+    }
+
+    /**
+     * Starts using a lease the bank granted. Bids taken on the old lease since it was asked for
+     * come out of the new one, since their holds reach the bank after it.
+     * @param message the bank's answer
+     */
+    protected void leaseGranted(LeaseGranted message) {
+        Lease lease = leases.get(message.accountNumber());
+        if (lease == null || lease.requestId != message.requestId()) return; // no longer wanted
+        long now = System.nanoTime();
+        lease.requestId = 0;
+        if (message.amount() <= 0) {
+            lease.credit = 0;
+            lease.renewAt = now + leaseRetry;
+            return;
+        }
+        long runs = TimeUnit.MILLISECONDS.toNanos(message.millis());
+        lease.credit = Math.max(0, message.amount() - lease.drawn);
+        lease.expires = now + runs;
+        lease.renewAt = now + runs * 3 / 4;
+    }
+
+    /**
+     * Stops bidding on a lease the bank took back and gives back what is left of it
+     * @param message the bank's notice
+     */
+    protected void leaseRevoked(LeaseRevoked message) {
+        dropLease(message.accountNumber());
+    }
+
+    /**
+     * Stops bidding on an agent's lease, gives back what is left of it and asks for a new one
+     * after -Dauction.lease.retryMillis. A renewal on its way is ended with it.
+     * @param agentAccount the agent's account number
+     */
+    private void dropLease(String agentAccount) {
+        Lease lease = leases.get(agentAccount);
+        if (lease == null) return;
+        long now = System.nanoTime();
+        lease.credit = 0;
+        lease.expires = now;
+        lease.renewAt = now + leaseRetry;
+        lease.requestId = 0;
+        bank.output.send(new EndLease(agentAccount, accountNumber, nextRequest()));
+    }
+
+    /**
+     * Gives an agent's lease back to the bank
+     * @param agentAccount the agent's account number
+     */
+    private void endLease(String agentAccount) {
+        if (leases.remove(agentAccount) != null) {
+            bank.output.send(new EndLease(agentAccount, accountNumber, nextRequest()));
+        }
+    }
+
+    /**
+     * @return a new id for a request to the bank, echoed back in its reply
+     */
+    private long nextRequest() {
+        return requestIds.incrementAndGet();
+    }
+
+    /**
+     * Updates the auction house's bank account AHBalance
+     * @param aHBalance updated AHBalance
+     */
+    protected void updateAHBankAccount(double aHBalance) {
+        this.aHBalance = aHBalance;
+    }
+
+    /**
+     * Updates an accountNumber
+     * @param accountNumber account number
+     */
+    protected void updateAccountNumber(String accountNumber) {
+        this.accountNumber = accountNumber;
+    }
+
+    /**
+     * Disconnects an agent from the Auction House & prints a confirmation that the agent was disconnected
+     * @param accountNumber the agent's account number
+     */
+    protected void disconnectAgent(String accountNumber) {
+        Connection agentConnection = agents.remove(accountNumber); // disconnect the agent from the auction house
+        endLease(accountNumber);
+
+        // print a message to the console indicating that the agent was disconnected
+        if (agentConnection != null) {
+            System.out.println("Disconnected the agent named: " + agentConnection.name + " from the Auction House");
+            if (agentConnection.listener != null) {
+                agentConnection.listener.stop();
+                agentConnection.thread.interrupt();
+            }
+            agentConnection.output.close();
+        }
+    }
+
+    /**
+     * Connects a new Agent to the auction house & then has the parser send the agent the current auction info
+     * @param message Message with agent's information.
+     * @param out queues messages to the agent
+     * @param in receives messages from the agent, null when a NioServer reads the connection
+     */
+    protected void addNewAgent(Message.RegisterAgent message, MessageWriter out, Transport.Input in) {
+        Connection agent = new Connection(); // the agent's connection
+        agent.name = message.name(); // the agent's name
+        agent.input = in; // the agent's input stream
+        agent.output = out; // the agent's output stream
+        if (in != null) {
+            agent.listener = new MessageListener(messages, in, out); // listens for messages
+            agent.thread = Threads.newThread(agent.listener);
+        }
+
+        agents.put(message.accountNumber(), agent); // add the agent to our map of connected agents
+        System.out.println("Added a new agent named:  \"" + agent.name + "\"" + " to the Auction House");
+        if (agent.thread != null) agent.thread.start();
+        joining.add(agent); // only this agent gets the whole list
+        ready();
+    }
+
+    /**
+     * Sends an agent that missed changes the whole list again
+     * @param message the agent's request
+     */
+    protected void resyncAuctions(ResyncAuctions message) {
+        Connection agent = agents.get(message.accountNumber());
+        if (agent != null) joining.add(agent);
+    }
+
+    /**
+     * Numbers a change to the auctions, to be sent to every agent at the end of the run
+     * @param replaces id of the auction changed or closed
+     * @param auction the auction in its place, or null when it closed for good
+     */
+    private void changed(int replaces, Auction auction) {
+        changes.add(new AuctionUpdate(name, ++sequence, replaces, auction == null ? null : auction.data()));
+    }
+
+    /**
+     * Sends every agent the changes made during this run, then the whole list, as of the last
+     * change, to each agent that joined or asked for it. An agent that joined meanwhile also gets
+     * the changes, and drops them since its list already has them.
+     * Called by the parser at the end of each run.
+     */
+    protected void publish() {
+        if (!changes.isEmpty()) {
+            for (Connection agent : agents.values()) {
+                for (AuctionUpdate change : changes) agent.output.send(change);
+            }
+            changes.clear();
+        }
+        NewAuctions snapshot = null;
+        Connection agent;
+        while ((agent = joining.poll()) != null) {
+            if (snapshot == null) snapshot = new NewAuctions(name, sequence, auctionData());
+            agent.output.send(snapshot);
+        }
+    }
+
+    /**
+     * Checks if any auctions have expired and need to be replaced.
+     * Replace any expired auctions with new ones, or drop them if no new auctions are opened.
+     * Only the auctions whose timers ran out are looked at, not every open auction. Each closed
+     * auction is a change agents are sent at the end of the run.
+     * Auctions that close together are settled with the bank in one SettleBatch.
+     * Once the engine is closing and its last auction is over, it shuts down.
+     */
+    protected void checkAndUpdateAuctions() {
+        List<AuctionOver> outcomes = new ArrayList<>();
+        Auction auction;
+        while ((auction = expiring.poll()) != null) {
+            // skip auctions already replaced since their timer ran out
+            if (auctions.get(auction.auctionID) != auction) continue;
+            auction.turnDown(auction.best); // a bid still waiting is too late
+            auction.best = null;
+            auction.dropPending();
+            if (!auction.winningAgent.equals("no bidder")) {
+                outcomes.add(auction.auctionWon());
+            }
+            Auction next = newAuctions ? grabAuction() : null;
+            synchronized (auctions) {
+                if (next != null) {
+                    auctions.replace(auction.auctionID, next.auctionID, next);
+                } else {
+                    auctions.remove(auction.auctionID);
+                }
+            }
+            changed(auction.auctionID, next);
+        }
+        settle(outcomes);
+        if (!newAuctions && !closed && auctions.size() == 0) shutDown();
+    }
+
+    /**
+     * Tells the bank how closed auctions ended. A single outcome goes as a plain AuctionOver,
+     * several go as one batch that the bank applies together.
+     * @param outcomes closed auctions that had a winner
+     */
+    private void settle(List<AuctionOver> outcomes) {
+        if (outcomes.size() == 1) {
+            bank.output.send(outcomes.get(0));
+        } else if (!outcomes.isEmpty()) {
+            bank.output.send(new SettleBatch(accountNumber, outcomes));
+        }
+    }
+
+    /**
+     * Tells the bank the auction house is closed and drops every connection
+     */
+    private void shutDown() {
+        closed = true;
+        for (String agentAccount : new ArrayList<>(leases.keySet())) endLease(agentAccount);
+        bank.output.send(new AuctionHouseClosed(accountNumber));
+        if (nioPort != null) {
+            try {
+                nioPort.close();
+            } catch (IOException e) {
+                System.out.println("Error closing port: " + e.getMessage());
+            }
+        } else if (ps != null) {
+            ps.stop();
+            sl.stop();
+            parseSockThread.interrupt();
+            sockListenThread.interrupt();
+        }
+        if (bank.listener != null) {
+            bank.listener.stop();
+            bank.thread.interrupt();
+        }
+        for (Connection c : agents.values()) {
+            if (c.listener != null) {
+                c.listener.stop();
+                c.thread.interrupt();
+            }
+            c.output.close();
+        }
+        if (host != null) host.closed(this);
+    }
+
+    /**
+     * Creates a new auction with a unique auction ID number given an item that is to be up for bid.
+     * Each item is randomly chosen from the list of possible items and is randomly assigned a color
+     * @return the new Auction item that is to be added to our list of all auctions
+     */
+    private Auction grabAuction() {
+        String item = itemTypes[(int)(Math.random() * itemTypes.length)] + " " +
+                items[(int)(Math.random() * items.length)];
+        return new Auction(item, ++auctionNum);
+    }
+
+    /**
+     * Generates random auctions for the starting options, as many as are open at once.
+     */
+    private void startingAuctions() {
+        synchronized (auctions) {
+            for (int i = 0; i < lots; i++) {
+                Auction auction = grabAuction();
+                auctions.add(auction.auctionID, auction);
+            }
+        }
+    }
+
+    /**
+     * Credit the bank has leased this house from one agent's balance.
+     * Only touched by the parser.
+     */
+    private static class Lease {
+        private double credit; // what is left to accept bids with
+        private long expires; // System.nanoTime() the lease stops being used
+        private long renewAt; // System.nanoTime() a new lease may be asked for
+        private long requestId; // the NewLease waiting for an answer, or 0
+        private double drawn; // taken since that NewLease was sent
+
+        private Lease(long now) {
+            expires = now;
+            renewAt = now;
+        }
+    }
+
+    private static class Connection {
+        private Socket socket; // bank socket
+        private Transport.Input input; // input stream
+        private MessageWriter output; // outbound message queue
+        private String name; // the agent's name
+        private Thread thread; // runs the listener
+        private MessageListener listener; // listens for messages
+    }
+
+    /**
+     * Message queue that has the parser scheduled whenever a message is added.
+     * Its depth is left out of the metrics, the EngineHost publishes the sum over all its houses.
+     */
+    private class Inbox extends MessageQueue {
+        private Inbox() {
+            super("auctionHouse.messages", false);
+        }
+
+        @Override
+        public void put(Pair<Message, MessageWriter> item) throws InterruptedException {
+            super.put(item);
+            ready();
+        }
+
+        @Override
+        public boolean offer(Pair<Message, MessageWriter> item) {
+            boolean added = super.offer(item);
+            if (added) ready();
+            return added;
+        }
+    }
+
+    /**
+     * Private inner class Auction handles Agents bidding on objects & creates new auctions for items.
+     */
+    private class Auction {
+        private final String item; // the item up for bid
+        private final int auctionID; // the auction's unique ID number
+        private double winningBid; // the current winning bid on an item
+        private String winningAgent; // the agent currently winning the auction
+        private String agentAccount; // the agent's account number
+        private final Map<Long, NewBid> pending; // pending bids by the request id of their hold
+        private NewBid best; // highest bid waiting to be sent to the bank
+        private long unleased; // request id of the hold for a winning bid its lease did not cover
+
+        private TimingWheel.Timeout timeout; // the bid timer
+        private volatile boolean expired; // set by the timing wheel
+        private long closes; // System.nanoTime() the auction is due to close
+
+        /**
+         * Generates string used in hold messages to bank.
+         * @param id the auction's ID number
+         * @return Combination of acctNum and id to let the bank know to hold funds from the account
+         */
+        private String holdStr(int id) {
+            return accountNumber + ":" + id;
+        }
+
+        /**
+         * @return the auction as agents see it
+         */
+        private AuctionData data() {
+            return new AuctionData(item, auctionID, winningBid, winningAgent);
+        }
+
+        /**
+         * sends a message to the agent when an auction has been won
+         * @return the outcome to settle with the bank
+         */
+        private AuctionOver auctionWon() {
+            Connection agentConnection = agents.get(agentAccount);
+            if (agentConnection != null) agentConnection.output.send(new AuctionWon(item, winningBid));
+            AUCTIONS_WON.increment();
+            CLOSE_TO_WON.record(System.nanoTime() - closes);
+            return new AuctionOver(accountNumber, agentAccount, holdStr(auctionID), winningBid, nextRequest());
+        }
+
+        /**
+         * Verifies whether the agent who placed a bid has enough funds to pay for the bid they placed.
+         * Finalizes the confirmation of the bid once the funds have been verified within the agent's bank account.
+         * If the bank could not hold the funds, the bid is rejected.
+         * @param message Message from bank indicating whether the agent's money hold is valid
+         */
+        private void confirmBid(ConfirmHold message) {
+            try {
+                NewBid bid = grabBid(message); // also removes it from the pending bids
+                Connection agentConnection = agents.get(bid.accountNumber()); // grab the agent's bank account number
+                if (message.requestId() == unleased) {
+                    unleased = 0;
+                    if (!message.success() && bid.accountNumber().equals(agentAccount) && bid.bid() == winningBid) {
+                        demote(bid, agentConnection, message.trace());
+                    }
+                    return;
+                }
+                if (!message.success()) {
+                    if (agentConnection != null) {
+                        agentConnection.output.send(new ConfirmBid(false, item, name, message.trace()));
+                    }
+                    return;
+                }
+                accept(bid, agentConnection, message.trace());
+            } catch (IllegalAccessException ignored) {
+            }
+        }
+
+        /**
+         * Settles a bid whose funds are held, making it the winning bid if it still beats it.
+         * The hold of the bid that loses, the old winner's or this one's, is released.
+         * @param bid Bid message from client.
+         * @param agentConnection the bidding agent's connection
+         * @param trace the bid's trace, or null
+         */
+        private void accept(NewBid bid, Connection agentConnection, Trace trace) {
+            if (!expired) reset(); // reset the bid timer, unless it ran out and the auction closes this run
+
+            // if the bid amount is higher than the current winning bid
+            // replace the current winning bid info with that of the new bid
+            // because the new bid is now the current winning bid
+            if (bid.bid() > winningBid) {
+                // release the previous winner's hold, an agent raising its own bid had it replaced
+                if (!winningAgent.equals("no bidder") &&
+                        (!agentAccount.equals(bid.accountNumber()))) {
+                    bank.output.send(new EndHold(agentAccount, winningBid, holdStr(auctionID), nextRequest()));
+                }
+                winningBid = bid.bid();
+                winningAgent = agentConnection.name;
+                agentAccount = bid.accountNumber();
+
+                // send a message to the agent confirming that their bid was
+                // accepted and confirmed, also print a message to the
+                // console about the accepted bid
+                agentConnection.output.send(new ConfirmBid(true, item, name, trace));
+                System.out.println("New bid on item: " + item + " was just accepted from agent: " + winningAgent);
+                changed(auctionID, this);
+            }
+            else {
+                // send a message to the bank that the bid was rejected, also print a message to
+                // the console about the rejected bid
+                agentConnection.output.send(new ConfirmBid(false, item, name, trace));
+                // the winner's own lower bid replaced its winning hold at the bank, which must stay
+                if (!bid.accountNumber().equals(agentAccount)) {
+                    bank.output.send(new EndHold(bid.accountNumber(), bid.bid(), holdStr(bid.id()), nextRequest()));
+                }
+                System.out.println("New bid on item: " + item + "was just rejected from agent: " + agentConnection.name);
+            }
+        }
+
+        /**
+         * Asks the bank to hold a bid accepted on a lease the bank did not cover. The bid stays
+         * the winning bid while the hold is pending, unless it has been outbid since.
+         * @param bid the bid accepted on the lease
+         */
+        private void holdUnleased(NewBid bid) {
+            if (!bid.accountNumber().equals(agentAccount) || bid.bid() != winningBid) return;
+            unleased = hold(bid);
+        }
+
+        /**
+         * Takes away the winning bid when the bank could not hold it. The auction is left with no
+         * bidder, and new bids must still beat the amount.
+         * @param bid the winning bid
+         * @param agentConnection the bidding agent's connection, or null
+         * @param trace the bid's trace, or null
+         */
+        private void demote(NewBid bid, Connection agentConnection, Trace trace) {
+            winningAgent = "no bidder";
+            agentAccount = null;
+            if (agentConnection != null) agentConnection.output.send(new ConfirmBid(false, item, name, trace));
+            System.out.println("Bid on item: " + item + " from agent: " + bid.accountNumber() + " could not be held");
+            changed(auctionID, this);
+        }
+
+        /**
+         * Takes a bid out of the pending bids by the request id the bank echoed back
+         * @param message Confirmation of valid hold message from bank.
+         * @return Initial bid message from client.
+         * @throws IllegalAccessException Error if old bid does not exist.
+         */
+        private NewBid grabBid(ConfirmHold message) throws IllegalAccessException {
+            NewBid bid = pending.remove(message.requestId());
+            // if it's not found, throw an exception and print an error statement
+            if (bid == null) throw new IllegalAccessException("That bid was not found.");
+            return bid;
+        }
+
+        /**
+         * Checks to see if a bid placed is valid. If it is valid, confirm the bid and print a
+         * message to console indicating that the bid was confirmed. If the bid isn't valid, reject
+         * the bid and print a message to the console indicating that the bid was rejected.
+         * @param message Bid message from client.
+         */
+        private void checkValidBid(NewBid message) {
+            if (expired) {
+                // the timer ran out and the auction closes at the end of this run
+                BIDS_TOO_LATE.increment();
+                turnDown(message);
+                return;
+            }
+            reset(); // reset the bidding timer
+            System.out.println("New bid on the item: " + item +
+                    " was just received from agent: " + agents.get(message.accountNumber()).name);
+
+            // a bid is valid if the bid is greater than the current winning bid
+            if (message.bid() > winningBid) {
+                if (bidWindow < 0) {
+                    admit(message);
+                } else if (best == null) {
+                    // the first bid waits for the end of the run or of the window
+                    best = message;
+                    if (bidWindow == 0) {
+                        admitting.add(this);
+                    } else {
+                        wheel.schedule(() -> {
+                            windowsClosed.add(this);
+                            ready();
+                        }, bidWindow, TimeUnit.MILLISECONDS);
+                    }
+                } else if (message.bid() > best.bid()) {
+                    // the new bid beats the one waiting, which never reaches the bank
+                    BIDS_OUTBID.increment();
+                    turnDown(best);
+                    best = message;
+                } else {
+                    BIDS_OUTBID.increment();
+                    turnDown(message);
+                }
+            } else {
+                // a bid is invalid if the bid isn't greater than the current winning bid
+                // reject the bid
+                BIDS_TOO_LOW.increment();
+                agents.get(message.accountNumber()).output.send(
+                        new ConfirmBid(false, item, name, message.trace()));
+                System.out.println("New bid on the item: " + item +
+                        " was just rejected from agent: " + agents.get(message.accountNumber()).name);
+            }
+        }
+
+        /**
+         * Sends the bank a hold for the best waiting bid, if it still beats the winning bid and
+         * the auction's timer has not run out
+         */
+        private void forwardBest() {
+            NewBid bid = best;
+            best = null;
+            if (bid == null || auctions.get(auctionID) != this) return;
+            if (expired) {
+                BIDS_TOO_LATE.increment();
+                turnDown(bid);
+            } else if (bid.bid() > winningBid) {
+                admit(bid);
+            } else {
+                BIDS_TOO_LOW.increment();
+                turnDown(bid);
+            }
+        }
+
+        /**
+         * Accepts a bid at once when the agent's lease covers it and the hold follows to the bank
+         * as a LeaseHold; otherwise asks the bank to hold it first
+         * @param message Bid message from client, beating the winning bid
+         */
+        private void admit(NewBid message) {
+            Connection agentConnection = agents.get(message.accountNumber());
+            // raising one's own winning bid only needs credit for the raise, as the bank replaces the hold
+            double raise = message.accountNumber().equals(agentAccount) ? message.bid() - winningBid : message.bid();
+            if (agentConnection == null || !drawLease(message.accountNumber(), raise)) {
+                hold(message);
+            } else {
+                long requestId = nextRequest();
+                reconciling.put(requestId, message);
+                BIDS_ON_LEASE.increment();
+                bank.output.send(new LeaseHold(
+                        message.accountNumber(), message.bid(), holdStr(auctionID), auctionID, requestId));
+                accept(message, agentConnection, message.trace());
+            }
+            renewLease(message.accountNumber());
+        }
+
+        /**
+         * Asks the bank to hold a bid
+         * @param message Bid message from client.
+         * @return the request id the bank's answer will carry
+         */
+        private long hold(NewBid message) {
+            // send a message to the bank instructing it to hold the bid amount from the bidding agent's account
+            // and keep the bid until the bank answers, under the request id the answer will carry
+            long requestId = nextRequest();
+            pending.put(requestId, message);
+            BIDS_HELD.increment();
+            bank.output.send(new NewHold(
+                    message.accountNumber(), message.bid(), holdStr(auctionID), auctionID, requestId, message.trace()));
+            return requestId;
+        }
+
+        /**
+         * Turns down the bids still waiting for the bank when the auction closes and releases
+         * their holds, except a raise by the winner, whose hold the settlement releases. The
+         * bank's answers to them are then ignored.
+         */
+        private void dropPending() {
+            for (Map.Entry<Long, NewBid> entry : pending.entrySet()) {
+                NewBid bid = entry.getValue();
+                if (!bid.accountNumber().equals(agentAccount)) {
+                    bank.output.send(new EndHold(bid.accountNumber(), bid.bid(), holdStr(auctionID), nextRequest()));
+                }
+                abandoned.add(entry.getKey());
+                turnDown(bid);
+            }
+            pending.clear();
+        }
+
+        /**
+         * Rejects a bid without asking the bank
+         * @param message Bid message from client, or null
+         */
+        private void turnDown(NewBid message) {
+            if (message == null) return;
+            Connection agentConnection = agents.get(message.accountNumber());
+            if (agentConnection != null) {
+                agentConnection.output.send(new ConfirmBid(false, item, name, message.trace()));
+                System.out.println("New bid on the item: " + item +
+                        " was just rejected from agent: " + agentConnection.name);
+            }
+        }
+
+        /**
+         * Resets the 30s timer on an auction
+         */
+        private void reset() {
+            wheel.cancel(timeout);
+
+            //30s delay for timer
+            long EXPIRATION_TIMER = 30_000L;
+
+            closes = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EXPIRATION_TIMER);
+            timeout = wheel.schedule(() -> {
+                expired = true;
+                expiring.add(this);
+                checkAuctions();
+            }, EXPIRATION_TIMER, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Constructor for an auction item. Creates a new auction for an item given the auction's unique ID number
+         * and the item
+         * @param item the item up for bid
+         * @param auctionID the auction's unique ID number
+         */
+        private Auction(String item, int auctionID) {
+            this.item = item; // the item
+            this.auctionID = auctionID; // the auction's ID
+
+            Random random = new Random();
+
+            int min = 20;
+            int max = 50;
+
+            winningBid = random.nextInt(max - min + 1) + min; // all auctions should start at $20
+
+            winningAgent = "no bidder"; // the auction was just created, so there's no winning bidder yet
+
+            expired = false; // the auction was just created, so it hasn't expired yet
+            pending = new HashMap<>(); // pending bids
+
+            // the 30 second timer starts with the first bid
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Auction Registry
+ */
+package auctionHouse;
+
+import java.util.Arrays;
+
+/**
+ * An auction house's open auctions by auction id. The auctions sit in a dense array, so walking
+ * every open auction touches only live entries, and an open addressing table of primitive ints
+ * maps each id to its place in that array, so a lookup does not box the id or scan. Removing an
+ * auction moves the last one into its place, and replacing an auction keeps its place, so the
+ * list agents see stays in the same order. Not thread safe, callers lock the registry.
+ * @param <T> the auction type
+ */
+public class AuctionRegistry<T> {
+    private static final int EMPTY = 0; // auction ids start at 1
+
+    private int[] keys; // auction id, or EMPTY
+    private int[] slots; // place of the auction in ids and values
+    private int[] ids;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Constructor
+     * @param capacity the number of auctions expected, the registry grows past it
+     */
+    protected AuctionRegistry(int capacity) {
+        int length = Integer.highestOneBit(Math.max(4, capacity * 2 - 1)) << 1;
+        keys = new int[length];
+        slots = new int[length];
+        ids = new int[Math.max(4, capacity)];
+        values = new Object[ids.length];
+    }
+
+    /**
+     * @return the number of open auctions
+     */
+    protected int size() {
+        return size;
+    }
+
+    /**
+     * Looks up an auction
+     * @param id auction id
+     * @return the auction, or null if it is not open
+     */
+    @SuppressWarnings("unchecked")
+    protected T get(int id) {
+        int i = find(id);
+        return i < 0 ? null : (T) values[slots[i]];
+    }
+
+    /**
+     * @param index 0 to size() - 1
+     * @return the auction at that place in the list
+     */
+    @SuppressWarnings("unchecked")
+    protected T at(int index) {
+        return (T) values[index];
+    }
+
+    /**
+     * Adds an auction at the end of the list
+     * @param id auction id, above zero and not already open
+     * @param auction the auction
+     */
+    protected void add(int id, T auction) {
+        if (id == EMPTY) throw new IllegalArgumentException("Auction ids start at 1");
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        ids[size] = id;
+        values[size] = auction;
+        insert(id, size++);
+        if (size * 4 > keys.length * 3) grow();
+    }
+
+    /**
+     * Closes an auction and opens another in its place in the list
+     * @param id auction id of the open auction
+     * @param newId auction id of the new auction
+     * @param auction the new auction
+     * @return false if no auction with that id was open
+     */
+    protected boolean replace(int id, int newId, T auction) {
+        if (newId == EMPTY) throw new IllegalArgumentException("Auction ids start at 1");
+        int i = find(id);
+        if (i < 0) return false;
+        int slot = slots[i];
+        delete(i);
+        ids[slot] = newId;
+        values[slot] = auction;
+        insert(newId, slot);
+        return true;
+    }
+
+    /**
+     * Closes an auction. The last auction in the list takes its place.
+     * @param id auction id
+     * @return the auction, or null if it was not open
+     */
+    @SuppressWarnings("unchecked")
+    protected T remove(int id) {
+        int i = find(id);
+        if (i < 0) return null;
+        int slot = slots[i];
+        T old = (T) values[slot];
+        delete(i);
+        int last = --size;
+        if (slot != last) {
+            ids[slot] = ids[last];
+            values[slot] = values[last];
+            slots[find(ids[slot])] = slot;
+        }
+        values[last] = null;
+        return old;
+    }
+
+    private int find(int id) {
+        int mask = keys.length - 1;
+        int i = hash(id) & mask;
+        while (keys[i] != EMPTY) {
+            if (keys[i] == id) return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(int id, int slot) {
+        int mask = keys.length - 1;
+        int i = hash(id) & mask;
+        while (keys[i] != EMPTY) i = (i + 1) & mask;
+        keys[i] = id;
+        slots[i] = slot;
+    }
+
+    /**
+     * Empties a table entry, shifting later entries back so lookups never need tombstones
+     */
+    private void delete(int i) {
+        int mask = keys.length - 1;
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (keys[j] != EMPTY) {
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                slots[gap] = slots[j];
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void grow() {
+        keys = new int[keys.length * 2];
+        slots = new int[keys.length];
+        for (int i = 0; i < size; i++) insert(ids[i], i);
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Auction House Channel Parser
+ */
+package auctionHouse;
+
+import general.Message;
+import general.Message.*;
+import general.MessageWriter;
+import general.NioServer;
+import javafx.util.Pair;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Takes messages from the NioServer's I/O threads. Agent registrations are handled the way the
+ * SocketParser does, and every later message goes on the auction engine's message queue.
+ */
+public class ChannelParser implements NioServer.Handler {
+    private final AuctionEngine engine;
+    private final BlockingQueue<Pair<Message, MessageWriter>> messages;
+
+    /**
+     * Constructor
+     * @param engine the auction engine we're parsing connections for
+     * @param messages the blockingqueue the message parser reads from
+     */
+    protected ChannelParser(AuctionEngine engine, BlockingQueue<Pair<Message, MessageWriter>> messages) {
+        this.engine = engine;
+        this.messages = messages;
+    }
+
+    @Override
+    public void opened(MessageWriter connection, Message first, InetSocketAddress peer) {
+        if (first instanceof RegisterAgent newAgent) {
+            engine.addNewAgent(newAgent, connection, null);
+        } else {
+            System.out.println("Invalid message from new connection");
+            connection.close();
+        }
+    }
+
+    @Override
+    public void received(MessageWriter connection, Message m) {
+        try {
+            messages.put(new Pair<>(m, connection));
+        } catch (InterruptedException e) {
+            System.out.println("Channel parser interrupted : " + e.getMessage());
+        }
+    }
+}
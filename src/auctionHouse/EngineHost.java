@@ -0,0 +1,161 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Auction Engine Host
+ */
+package auctionHouse;
+
+import general.Metrics;
+import general.NioServer;
+import general.Transport;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs any number of AuctionEngines in one JVM on shared threads. A pool of workers handles
+ * every engine's messages, one ticker thread drives a TimingWheel with every auction's bid
+ * timer, and with the nio transport one NioServer serves every engine's port. An auction whose
+ * timer runs out has its engine scheduled on the workers right away to close it. The pool has
+ * -Dauction.engine.threads workers (default one per processor), each house keeps -Dauction.lots
+ * auctions open (default 3), and the wheel has -Dauction.wheel.tickMillis ticks (default 20) and
+ * -Dauction.wheel.buckets buckets (default 2048).
+ * Run on its own it starts many houses without windows:
+ * java auctionHouse.EngineHost bankHost bankPort firstPort count
+ */
+public class EngineHost {
+    private final List<AuctionEngine> engines = new CopyOnWriteArrayList<>();
+    private final ExecutorService workers;
+    private final ScheduledExecutorService ticker;
+    private final TimingWheel wheel; // every engine's auction timers
+    private final NioServer nio;
+    private final int lots = Integer.getInteger("auction.lots", 3); // auctions open at once per house
+
+    /**
+     * Constructor
+     * @param threads workers that handle the engines' messages
+     * @throws IOException if the NioServer cannot be opened
+     */
+    public EngineHost(int threads) throws IOException {
+        workers = Executors.newFixedThreadPool(threads, r -> new Thread(r, "auction-engine"));
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "auction-ticker"));
+        long wheelTick = Long.getLong("auction.wheel.tickMillis", 20);
+        wheel = new TimingWheel(wheelTick, Integer.getInteger("auction.wheel.buckets", 2048));
+        ticker.scheduleAtFixedRate(() -> wheel.advance(System.nanoTime()), wheelTick, wheelTick, TimeUnit.MILLISECONDS);
+        if (Transport.NIO) {
+            nio = new NioServer(Integer.getInteger("auction.nio.threads", 2));
+            new Thread(nio).start();
+        } else {
+            nio = null;
+        }
+        Metrics.gauge("auction_houses", engines::size);
+        Metrics.gauge("auction_agents", () -> {
+            long agents = 0;
+            for (AuctionEngine engine : engines) agents += engine.agentCount();
+            return agents;
+        });
+        Metrics.gauge("queue_depth{queue=\"auctionHouse.messages\"}", () -> {
+            long waiting = 0;
+            for (AuctionEngine engine : engines) waiting += engine.waiting();
+            return waiting;
+        });
+    }
+
+    /**
+     * Main used to run many auction houses without windows
+     * @param args bank host, bank port, first port and number of houses
+     */
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Usage: java auctionHouse.EngineHost bankHost bankPort firstPort count");
+            return;
+        }
+        try {
+            int bankPort = Integer.parseInt(args[1]);
+            int firstPort = Integer.parseInt(args[2]);
+            int count = Integer.parseInt(args[3]);
+            Metrics.serve("Auction houses");
+            EngineHost host = new EngineHost(
+                    Integer.getInteger("auction.engine.threads", Runtime.getRuntime().availableProcessors()));
+            for (int i = 0; i < count; i++) {
+                host.start("House " + (firstPort + i), firstPort + i, args[0], bankPort);
+            }
+            System.out.println(count + " auction houses running");
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid port number : " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error creating connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts an auction house on this host
+     * @param name the auction house's name
+     * @param port port agents connect to
+     * @param bankHost host name of the bank
+     * @param bankPort port of the bank
+     * @return the running engine
+     * @throws IOException if the bank cannot be reached or the port cannot be opened
+     */
+    public AuctionEngine start(String name, int port, String bankHost, int bankPort) throws IOException {
+        AuctionEngine engine = new AuctionEngine(name, port, lots, this);
+        engine.start(bankHost, bankPort);
+        engines.add(engine);
+        return engine;
+    }
+
+    /**
+     * @return the engines that have not closed
+     */
+    public List<AuctionEngine> engines() {
+        return List.copyOf(engines);
+    }
+
+    /**
+     * Stops the host's threads. Engines still open are dropped without telling the bank.
+     */
+    public void stop() {
+        ticker.shutdownNow();
+        workers.shutdownNow();
+        if (nio != null) nio.stop();
+    }
+
+    /**
+     * @return the NioServer every engine listens on, or null with the stream transport
+     */
+    protected NioServer nio() {
+        return nio;
+    }
+
+    /**
+     * @return the timing wheel every engine's auction timers run on
+     */
+    protected TimingWheel wheel() {
+        return wheel;
+    }
+
+    /**
+     * Runs a parser task on the workers
+     * @param task the task
+     */
+    protected void execute(Runnable task) {
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException ignored) {
+            // the host has stopped
+        }
+    }
+
+    /**
+     * Called by an engine once it has closed down
+     * @param engine the engine
+     */
+    protected void closed(AuctionEngine engine) {
+        engines.remove(engine);
+    }
+}
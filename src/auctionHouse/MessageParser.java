@@ -7,61 +7,66 @@ package auctionHouse;
 import javafx.util.Pair;
 import general.Message;
 import general.Message.*;
-import java.io.ObjectOutputStream;
+import general.MessageWriter;
 import java.util.concurrent.BlockingQueue;
 
 /**
- * reads messages  and calls the appropriate method in the bank class based
- * on the type of message received.
+ * Handles the messages waiting for one AuctionEngine and calls the appropriate method based on
+ * the type of message received. It runs as a task on the EngineHost's workers: each run handles
+ * up to BATCH messages, sends the bank the best new bid on each auction, closes the auctions
+ * whose timers ran out, sends agents what changed, and hands the worker back so one busy house
+ * cannot hold it.
  */
 public class MessageParser implements Runnable {
-    private final AuctionHouse auctionHouse;
-    private final BlockingQueue<Pair<Message, ObjectOutputStream>> messages;
-    private boolean loop;
+    private static final int BATCH = 64; // messages handled per run
+    private final AuctionEngine engine;
+    private final BlockingQueue<Pair<Message, MessageWriter>> messages;
 
     /**
      * Constructor
-     * @param ahObj the auction house object we're parsing messages for
+     * @param engine the auction engine we're parsing messages for
      * @param messages a blockingqueue to read messages from
      */
-    protected MessageParser(AuctionHouse ahObj, BlockingQueue<Pair<Message, ObjectOutputStream>> messages) {
-        this.auctionHouse = ahObj;
+    protected MessageParser(AuctionEngine engine, BlockingQueue<Pair<Message, MessageWriter>> messages) {
+        this.engine = engine;
         this.messages = messages;
-        loop = true;
     }
 
     /**
-     * sets the loop flag to false. stop the thread
-     */
-    protected void stop() {
-        loop = false;
-    }
-
-    /**
-     * Run method overrides the runnable interface and is executed when the thread is started.
-     * Reads messages from the messages and processes them accordingly
+     * Run method overrides the runnable interface and is executed by the host's workers.
+     * Reads the waiting messages and processes them accordingly
      */
     @Override
     public void run() {
-        while (loop) {
-            try {
-
-                Pair<Message, ObjectOutputStream> data = messages.take();
+        try {
+            Pair<Message, MessageWriter> data;
+            for (int i = 0; i < BATCH && (data = messages.poll()) != null; i++) {
                 Message m = data.getKey();
                 if (m instanceof AuctionHouseMade ahMade) {
-                    auctionHouse.updateAccountNumber(ahMade.accountNumber());
+                    engine.updateAccountNumber(ahMade.accountNumber());
                 } else if (m instanceof CloseAgent closeAgent) {
-                    auctionHouse.disconnectAgent(closeAgent.accountNumber());
-                }else if (m instanceof ConfirmHold confirmHold) {
-                    auctionHouse.bidConfirmation(confirmHold);
+                    engine.disconnectAgent(closeAgent.accountNumber());
+                } else if (m instanceof ConfirmHold confirmHold) {
+                    engine.bidConfirmation(confirmHold);
                 } else if (m instanceof NewBid newBid) {
-                    auctionHouse.bidReceived(newBid);
+                    engine.bidReceived(newBid);
+                } else if (m instanceof ResyncAuctions resync) {
+                    engine.resyncAuctions(resync);
+                } else if (m instanceof LeaseGranted leaseGranted) {
+                    engine.leaseGranted(leaseGranted);
+                } else if (m instanceof LeaseRevoked leaseRevoked) {
+                    engine.leaseRevoked(leaseRevoked);
                 } else if (m instanceof  UpdateMoney updateMoney) {
-                    auctionHouse.updateAHBankAccount(updateMoney.amount());
+                    engine.updateAHBankAccount(updateMoney.amount());
                 }
-            } catch (InterruptedException e) {
-                System.out.println("Error: Message parser interrupted: " + e.getMessage());
             }
+            engine.forwardBids();
+            if (engine.takeCheck()) engine.checkAndUpdateAuctions();
+            engine.publish();
+        } catch (RuntimeException e) {
+            System.out.println("Error: Message parser failed: " + e);
+        } finally {
+            engine.parsed();
         }
     }
-}
\ No newline at end of file
+}
@@ -6,11 +6,10 @@ package auctionHouse;
 
 import general.Message;
 import general.Message.*;
+import general.Transport;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.concurrent.BlockingQueue;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 /**
  * reads messages from the sockets and calls the appropriate method in the bank class based
@@ -18,16 +17,16 @@ import java.io.ObjectOutputStream;
  */
 public class SocketParser implements Runnable {
     private boolean loop;
-    private final AuctionHouse auctionHouse;
+    private final AuctionEngine engine;
     private final BlockingQueue<Socket> sockets;
 
     /**
      * Constructor
-     * @param ahObj the auction house object we're parsing sockets for
+     * @param engine the auction engine we're parsing sockets for
      * @param sockObj a blockingqueue of sockets to read messages from
      */
-    protected SocketParser(AuctionHouse ahObj, BlockingQueue<Socket> sockObj) {
-        this.auctionHouse = ahObj;
+    protected SocketParser(AuctionEngine engine, BlockingQueue<Socket> sockObj) {
+        this.engine = engine;
         this.sockets = sockObj;
         loop = true;
     }
@@ -48,15 +47,13 @@ public class SocketParser implements Runnable {
         while (loop) {
             try {
                 Socket socket = sockets.take();
-                ObjectOutputStream out =
-                        new ObjectOutputStream(socket.getOutputStream());
-                out.flush();
-                ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
-                Message msg = (Message) in.readObject();
+                Transport.Streams streams = Transport.open(socket);
+                Message msg = streams.in().read();
                 if (msg instanceof RegisterAgent newAgent) {
-                    auctionHouse.addNewAgent(newAgent, out, in);
+                    engine.addNewAgent(newAgent, streams.out(), streams.in());
                 } else {
                     System.out.println("Invalid message from new socket.");
+                    streams.out().close();
                 }
             } catch (InterruptedException e) {
                 System.out.println("Reader interrupted waiting for socket: " + e.getMessage());
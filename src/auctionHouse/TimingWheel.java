@@ -0,0 +1,136 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Timing Wheel
+ */
+package auctionHouse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel that runs the auction timers of every house on an EngineHost. Time is cut
+ * into ticks, and each timer sits in a doubly linked list in the bucket its deadline tick hashes
+ * to, so scheduling and cancelling are constant time and take no thread. The thread that drives
+ * the wheel calls advance, which walks only the buckets of the ticks that have passed and runs
+ * the timers due in them. A timer can fire up to two ticks late. Scheduling and cancelling may be
+ * called from any thread; timers run on the driving thread and must be short.
+ */
+public class TimingWheel {
+    /**
+     * A scheduled timer
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline; // tick the timer is due on
+        private Timeout prev;
+        private Timeout next;
+        private boolean queued; // still in a bucket
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long tickNanos;
+    private final long start = System.nanoTime();
+    private final Timeout[] buckets;
+    private final int mask;
+    private long tick; // last tick that has been run
+    private int size;
+
+    /**
+     * Constructor
+     * @param tickMillis length of a tick, the timers' resolution
+     * @param buckets number of buckets, rounded up to a power of two
+     */
+    public TimingWheel(long tickMillis, int buckets) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        this.buckets = new Timeout[Integer.highestOneBit(Math.max(2, buckets) * 2 - 1)];
+        this.mask = this.buckets.length - 1;
+    }
+
+    /**
+     * @return the number of timers waiting
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Schedules a task
+     * @param task runs on the driving thread once the delay has passed
+     * @param delay how long to wait
+     * @param unit unit of the delay
+     * @return the timer, for cancel
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long due = System.nanoTime() - start + unit.toNanos(delay);
+        long deadline = (due + tickNanos - 1) / tickNanos;
+        synchronized (this) {
+            Timeout timeout = new Timeout(task, Math.max(deadline, tick + 1));
+            int b = (int) (timeout.deadline & mask);
+            timeout.next = buckets[b];
+            if (timeout.next != null) timeout.next.prev = timeout;
+            buckets[b] = timeout;
+            timeout.queued = true;
+            size++;
+            return timeout;
+        }
+    }
+
+    /**
+     * Cancels a timer
+     * @param timeout the timer, or null
+     * @return true if it was waiting and will not run
+     */
+    public synchronized boolean cancel(Timeout timeout) {
+        if (timeout == null || !timeout.queued) return false;
+        unlink(timeout);
+        return true;
+    }
+
+    /**
+     * Runs every timer that is due. Called by the driving thread, at least once a tick.
+     * @param now the current System.nanoTime()
+     */
+    public void advance(long now) {
+        List<Runnable> due = new ArrayList<>();
+        synchronized (this) {
+            long target = (now - start) / tickNanos;
+            // one turn of the wheel visits every bucket, however many ticks were missed
+            long last = Math.min(target, tick + buckets.length);
+            for (long t = tick + 1; t <= last; t++) {
+                Timeout timeout = buckets[(int) (t & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.deadline <= target) {
+                        unlink(timeout);
+                        due.add(timeout.task);
+                    }
+                    timeout = next;
+                }
+            }
+            if (target > tick) tick = target;
+        }
+        for (Runnable task : due) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.out.println("Error: Timer task failed: " + e);
+            }
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        int b = (int) (timeout.deadline & mask);
+        if (timeout.prev != null) timeout.prev.next = timeout.next;
+        else buckets[b] = timeout.next;
+        if (timeout.next != null) timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.queued = false;
+        size--;
+    }
+}
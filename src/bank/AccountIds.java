@@ -0,0 +1,87 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Account Ids
+ */
+package bank;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates account numbers. An id is a 64-bit number whose top 16 bits name the partition,
+ * the bank instance that issued it, and whose low 48 bits are that instance's sequence, so
+ * several banks can hand out ids without talking to each other. Allocation is a single atomic
+ * increment. Account numbers are written as a two letter prefix ("CL" or "AH") followed by the
+ * id in base 36, e.g. "CL1Z" or "AH2RRVTHNXTT".
+ */
+class AccountIds {
+    static final int SEQUENCE_BITS = 48;
+    static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    static final int MAX_PARTITION = (1 << (64 - SEQUENCE_BITS - 1)) - 1;
+
+    private final long base;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param partition this bank's partition, 0 to MAX_PARTITION
+     */
+    AccountIds(int partition) {
+        if (partition < 0 || partition > MAX_PARTITION) {
+            throw new IllegalArgumentException("Partition must be between 0 and " + MAX_PARTITION);
+        }
+        this.base = (long) partition << SEQUENCE_BITS;
+    }
+
+    /**
+     * @return a new id in this partition
+     */
+    long next() {
+        long seq = sequence.incrementAndGet();
+        if (seq > SEQUENCE_MASK) throw new IllegalStateException("Account id space exhausted");
+        return base | seq;
+    }
+
+    /**
+     * Makes sure ids already in use, such as those recovered from the journal, are not issued again
+     * @param id an id that exists
+     */
+    void advancePast(long id) {
+        if ((id & ~SEQUENCE_MASK) != base) return;
+        long seq = id & SEQUENCE_MASK;
+        sequence.accumulateAndGet(seq, Math::max);
+    }
+
+    /**
+     * @param id an account id
+     * @return the partition that issued it
+     */
+    static int partitionOf(long id) {
+        return (int) (id >>> SEQUENCE_BITS);
+    }
+
+    /**
+     * Writes an account number
+     * @param prefix "CL" for agents, "AH" for auction houses
+     * @param id the account id
+     * @return the account number
+     */
+    static String format(String prefix, long id) {
+        return prefix + Long.toString(id, 36).toUpperCase();
+    }
+
+    /**
+     * Reads the id out of an account number, or out of the account part of a hold string such
+     * as "AH1Z:12", without allocating
+     * @param accNum the account number or hold string
+     * @return the id
+     */
+    static long parse(String accNum) {
+        long id = 0;
+        for (int i = 2; i < accNum.length(); i++) {
+            char c = accNum.charAt(i);
+            if (c == ':') break;
+            id = id * 36 + Character.digit(c, 36);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Balance Publisher
+ */
+package bank;
+
+import general.Message;
+import general.MessageWriter;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Conflates balance updates to agents. An agent only needs its latest balance and hold, so
+ * while an update is waiting to go out, further changes are folded into it instead of queueing
+ * more UpdateMoney messages. If the agent's outbound queue is empty the update is sent at once;
+ * otherwise it is sent after a short window (-Dbank.balanceWindowMillis, default 5, 0 to send
+ * every update), built from the account as it is at that moment.
+ */
+class BalancePublisher {
+    private final long windowMillis;
+    private final ScheduledExecutorService timer;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong saved = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param windowMillis longest an update waits behind a busy connection, 0 to never conflate
+     */
+    BalancePublisher(long windowMillis) {
+        this.windowMillis = windowMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "balance-publisher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Publishes the current balance of one account
+     * @param due the account's flag for an update waiting to be sent
+     * @param out the account's connection
+     * @param snapshot builds the update from the account's current state
+     */
+    void publish(AtomicBoolean due, MessageWriter out, Supplier<Message> snapshot) {
+        if (windowMillis <= 0) {
+            send(out, snapshot);
+            return;
+        }
+        if (!due.compareAndSet(false, true)) {
+            // the waiting update is built after this change, so it already carries it
+            saved.incrementAndGet();
+            return;
+        }
+        if (out.pending() == 0) {
+            due.set(false);
+            send(out, snapshot);
+        } else {
+            timer.schedule(() -> {
+                due.set(false);
+                send(out, snapshot);
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void send(MessageWriter out, Supplier<Message> snapshot) {
+        if (out.send(snapshot.get())) sent.incrementAndGet();
+    }
+
+    /**
+     * @return balance updates sent
+     */
+    long sent() {
+        return sent.get();
+    }
+
+    /**
+     * @return balance updates folded into a later one instead of being sent
+     */
+    long saved() {
+        return saved.get();
+    }
+}
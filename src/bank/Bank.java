@@ -6,42 +6,117 @@ package bank;
 
 import general.Message;
 import general.Message.*;
+import general.MessageQueue;
+import general.MessageWriter;
+import general.Metrics;
+import general.NioServer;
+import general.Transport;
 import general.SocketData;
+import general.Threads;
 import javafx.util.Pair;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Bank {
     /**
      * Definition of the Account class with all required variables.
+     * Money is kept in whole cents, and held is the running total of holds
+     * so the available balance never has to be recomputed.
      */
     private static class Account {
         private String name;
-        private double balance;
-        private Map<String, Double> holds;
+        private long balance;
+        private long held;
+        private HoldTable holds;
         private SocketData socketData;
-        private ObjectInputStream in;
-        private ObjectOutputStream out;
+        private Transport.Input in;
+        private MessageWriter out;
         private Thread listenerThread;
+        private final AtomicBoolean balanceDue = new AtomicBoolean();
+        private Map<Long, Lease> leases; // credit leased to auction houses, by house id
+        private Set<Integer> credited; // auctions another bank credited this house for, houses only
+    }
+
+    /**
+     * Credit an agent has leased to one Auction House. What is left of it is kept as a hold on
+     * auction LEASE of that house, so the journal and standbys carry it like any other hold.
+     */
+    private static class Lease {
+        private final String ahNum;
+        private long expires; // System.nanoTime() after which the credit goes back to the agent
+        private boolean revoked;
+
+        private Lease(String ahNum) {
+            this.ahNum = ahNum;
+        }
     }
 
     /**
      * Definition of global variables
      */
     private final int port;
-    private final int accountDifference = 4;
+    private final int lanes;
     private final Map<String, Account> agents;
     private final Map<String, Account> auctionHouses;
-    BlockingQueue<Pair<Message,ObjectOutputStream>> messages;
+    private final Map<String, Account> remoteHouses;
+    BlockingQueue<Pair<Message, MessageWriter>> messages;
     BlockingQueue<Socket> sockets;
-    private Integer current = 0;
+    private final AccountIds ids;
+    private final Cluster cluster;
+    private final Journal journal;
+    private final Replicator replicator;
+    private final Ledger ledger;
+    private final Standby standby;
+    private final ReentrantReadWriteLock ledgerLock = new ReentrantReadWriteLock();
+    private final RequestCache requests = new RequestCache(Integer.getInteger("bank.dedupe.capacity", 65536));
+    private final Map<String, HouseCredit> owed = new ConcurrentHashMap<>(); // HouseCredits not yet acknowledged, by hold string
+    private final long creditRetry = Long.getLong("bank.credit.retryMillis", 1_000);
+    private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "bank-timers");
+        t.setDaemon(true);
+        return t;
+    });
+    private final BalancePublisher balances = new BalancePublisher(Long.getLong("bank.balanceWindowMillis", 5));
+    private static final LongAdder HOLDS_PLACED = Metrics.counter("bank_holds{result=\"placed\"}");
+    private static final LongAdder HOLDS_REFUSED = Metrics.counter("bank_holds{result=\"refused\"}");
+    private static final LongAdder SETTLED = Metrics.counter("bank_settled_auctions");
+    private static final LongAdder HOLDS_ON_LEASE = Metrics.counter("bank_holds{result=\"placed_on_lease\"}");
+    private static final LongAdder LEASES_GRANTED = Metrics.counter("bank_leases{event=\"granted\"}");
+    private static final LongAdder LEASES_REFUSED = Metrics.counter("bank_leases{event=\"refused\"}");
+    private static final LongAdder LEASES_ENDED = Metrics.counter("bank_leases{event=\"ended\"}");
+    private static final LongAdder LEASES_EXPIRED = Metrics.counter("bank_leases{event=\"expired\"}");
+    private static final LongAdder LEASES_REVOKED = Metrics.counter("bank_leases{event=\"revoked\"}");
+    private static final int LEASE = 0; // auction id a lease's unused credit is held under, auction ids start at 1
+    private final long leaseMillis = Long.getLong("bank.lease.millis", 10_000);
+    private final long leaseGrace = TimeUnit.MILLISECONDS.toNanos(Long.getLong("bank.lease.graceMillis", 2_000));
+    private final double leaseShare = Double.parseDouble(System.getProperty("bank.lease.share", "0.5"));
+    private final long leaseSweep = Long.getLong("bank.lease.sweepMillis", 1_000);
+    private final Set<String> leasing = ConcurrentHashMap.newKeySet(); // agents that may have a live lease
+    private final AtomicBoolean sweeping = new AtomicBoolean(); // is the lease sweep scheduled?
 
     /**
      * main method for Bank, used to initialize the port and bank
@@ -51,43 +126,172 @@ public class Bank {
         int port;
         try {
             port = Integer.parseInt(args[0]);
-            Bank bank = new Bank(port);
+            String journalDir = System.getProperty("bank.journal");
+            Journal journal = null;
+            if (journalDir != null) {
+                journal = new Journal(Path.of(journalDir),
+                        Long.getLong("bank.journal.segmentBytes", 64L << 20),
+                        Long.getLong("bank.journal.commitMillis", 5),
+                        Long.getLong("bank.journal.snapshotEvery", 100_000));
+            }
+            Cluster cluster = Cluster.fromProperties();
+            String primary = System.getProperty("bank.standby");
+            Bank bank = new Bank(port, Integer.getInteger("bank.lanes", 1),
+                    Integer.getInteger("bank.partition", cluster == null ? 0 : cluster.self()), cluster, journal,
+                    Boolean.getBoolean("bank.replicate"),
+                    primary == null ? null : new SocketData(primary.split(":")[0], Integer.parseInt(primary.split(":")[1])));
+            Metrics.serve("Bank");
             bank.start();
         } catch (NumberFormatException e) {
             System.out.println("Invalid port number : " + e.getMessage());
-        } catch (IOException e) {
+        } catch (IllegalArgumentException | IOException e) {
             System.out.println("Cannot start bank : " + e.getMessage());
         }
     }
 
     /**
      * Definition of the bank class with variables.
+     * Package-private so the benchmarks can drive a bank without a socket.
      * @param port number ID used to represent the port
+     * @param lanes number of message parser lanes, 1 for a single parser
+     * @param partition account id partition, so several banks never issue the same account number
+     * @param cluster links to the other banks sharing the accounts, or null for a single bank
+     * @param journal write-ahead journal for the ledger, or null to keep it in memory only
+     * @param replicate true to ship ledger changes to standby banks that connect
+     * @param primary the primary bank to follow as a standby, or null to serve straight away
      */
-    private Bank(int port) {
+    Bank(int port, int lanes, int partition, Cluster cluster, Journal journal,
+                 boolean replicate, SocketData primary) {
         this.port = port;
-        auctionHouses = new HashMap<>();
-        agents = new HashMap<>();
+        this.lanes = Math.max(1, lanes);
+        this.ids = new AccountIds(partition);
+        this.cluster = cluster;
+        this.journal = journal;
+        this.replicator = replicate ? new Replicator(journal, Long.getLong("bank.replication.heartbeatMillis", 50)) : null;
+        this.ledger = replicator != null ? replicator : journal;
+        this.standby = primary == null ? null
+                : new Standby(this, primary, Integer.getInteger("bank.standby.timeoutMillis", 250));
+        auctionHouses = new ConcurrentHashMap<>();
+        agents = new ConcurrentHashMap<>();
+        remoteHouses = new ConcurrentHashMap<>();
         sockets = new LinkedBlockingQueue<>();
-        messages = new LinkedBlockingQueue<>();
+        messages = new MessageQueue("bank.messages");
+        registerMetrics();
     }
 
     /**
-     * Starts the parser and message threads.
-     * @throws IOException in case any destination obj is not found
+     * Publishes the bank's queue depths and ledger figures as metrics
+     */
+    private void registerMetrics() {
+        Metrics.gauge("queue_depth{queue=\"bank.sockets\"}", sockets::size);
+        Metrics.gauge("bank_agents", agents::size);
+        Metrics.gauge("bank_auction_houses", auctionHouses::size);
+        Metrics.gauge("bank_balance_updates_sent", balances::sent);
+        Metrics.gauge("bank_balance_updates_saved", balances::saved);
+        Metrics.gauge("bank_duplicate_requests", requests::duplicates);
+        if (replicator != null) Metrics.gauge("bank_replication_lag", replicator::lag);
+    }
+
+    /**
+     * Recovers the journal and starts serving, or when this bank is a standby, starts
+     * following the primary and serves only once it takes over.
+     * @throws IOException if the journal cannot be read or the port cannot be opened
      */
     private void start() throws IOException {
-        SocketParser socketParser = new SocketParser(this, sockets);
-        SocketListener socketListener = new SocketListener(port, sockets);
-        MessageParser messageParser = new MessageParser(this, messages);
+        if (journal != null) recoverJournal();
+        if (replicator != null) {
+            Thread shipper = new Thread(replicator);
+            shipper.setDaemon(true);
+            shipper.start();
+        }
+        if (standby != null) {
+            new Thread(standby).start();
+        } else {
+            serve();
+        }
+    }
 
-        Thread sParserThread = new Thread(socketParser);
-        Thread sListenerThread = new Thread(socketListener);
-        Thread mParserThread = new Thread(messageParser);
+    /**
+     * Replays the journal into this bank and starts the journal's commit thread
+     * @throws IOException if the journal cannot be read
+     */
+    void recoverJournal() throws IOException {
+        long replayed = journal.recover(new Recovery());
+        System.out.println("Recovered " + agents.size() + " agents and " + auctionHouses.size() +
+                " auction houses from " + replayed + " journal records");
+        journal.setSnapshotter(this::snapshot);
+        new Thread(journal).start();
+    }
 
-        sParserThread.start();
-        mParserThread.start();
-        sListenerThread.start();
+    /**
+     * Starts the parser and message threads.
+     * The listening port is opened first, so a standby taking over can retry until it is free.
+     * With the nio transport a NioServer with a few I/O threads replaces the socket
+     * listener, socket parser and per-connection message listeners.
+     * With more than one lane, a router splits incoming messages by account
+     * number onto one parser per lane.
+     * In a cluster, a thread keeps the links to the other banks open, and credits owed to auction
+     * houses on other banks are sent again every -Dbank.credit.retryMillis (default 1000) until
+     * they are acknowledged.
+     * Lease credit recovered from the journal or the primary is given back to the agents first.
+     * @throws IOException if the port cannot be opened
+     */
+    private void serve() throws IOException {
+        dropRecoveredLeases();
+        NioServer server = null;
+        SocketListener socketListener = null;
+        if (Transport.NIO) {
+            server = new NioServer(port, Integer.getInteger("auction.nio.threads", 2),
+                    new ChannelParser(this, messages));
+        } else {
+            socketListener = new SocketListener(port, sockets);
+        }
+        if (cluster != null) {
+            cluster.setLinked(this::sendHousesTo);
+            new Thread(cluster).start();
+            timers.scheduleWithFixedDelay(this::sendOwedCredits, creditRetry, creditRetry, TimeUnit.MILLISECONDS);
+            System.out.println("Bank node " + cluster.self() + " of " + cluster.size());
+        }
+        if (lanes == 1) {
+            Threads.newThread(new MessageParser(this, messages)).start();
+        } else {
+            List<BlockingQueue<Pair<Message, MessageWriter>>> laneQueues = new ArrayList<>();
+            for (int i = 0; i < lanes; i++) {
+                BlockingQueue<Pair<Message, MessageWriter>> lane = new MessageQueue("bank.lane" + i);
+                laneQueues.add(lane);
+                Threads.newThread(new MessageParser(this, lane)).start();
+            }
+            Threads.newThread(new MessageRouter(messages, laneQueues)).start();
+            System.out.println("Processing messages on " + lanes + " lanes");
+        }
+        if (server != null) {
+            new Thread(server).start();
+        } else {
+            SocketParser socketParser = new SocketParser(this, sockets);
+
+            Thread sParserThread = Threads.newThread(socketParser);
+            // stays a platform thread: virtual threads are daemons and would let the bank exit
+            Thread sListenerThread = new Thread(socketListener);
+
+            sParserThread.start();
+            sListenerThread.start();
+        }
+    }
+
+    /**
+     * Collects the name and address of every Auction House, including those on other banks
+     * of the cluster. Caller must hold the auctionHouses lock.
+     * @return auction house addresses by name
+     */
+    private Map<String, SocketData> houseList() {
+        Map<String, SocketData> auctionHouseData = new HashMap<>();
+        for (Account ah : auctionHouses.values()) {
+            if (ah.socketData != null) auctionHouseData.put(ah.name, ah.socketData);
+        }
+        for (Account ah : remoteHouses.values()) {
+            auctionHouseData.put(ah.name, ah.socketData);
+        }
+        return auctionHouseData;
     }
 
     /**
@@ -95,19 +299,12 @@ public class Bank {
      */
     protected void sendAuctionHouseList() {
         synchronized (auctionHouses) {
-            Map<String, SocketData> auctionHouseData = new HashMap<>();
-            for (String accNum : auctionHouses.keySet()) {
-                Account ah = auctionHouses.get(accNum);
-                auctionHouseData.put(ah.name, ah.socketData);
-            }
+            Map<String, SocketData> auctionHouseData = houseList();
             if(!agents.isEmpty()) {
                 for (String accNum : agents.keySet()) {
                     Account account = agents.get(accNum);
-                    try {
-                        account.out.writeObject(new AuctionList(auctionHouseData));
-                    } catch (IOException e) {
-                        System.out.println("Cannot send auctionHouse data: " + e.getMessage());
-                    }
+                    if (account.out == null) continue;
+                    account.out.send(new AuctionList(auctionHouseData));
                 }
             }
         }
@@ -115,22 +312,18 @@ public class Bank {
 
     /**
      * gathers the list of holds for given Agent
-     * gathers the Agent's current balance, sends both to Agent
+     * gathers the Agent's current balance, sends both to Agent.
+     * Goes through the balance publisher, so back-to-back changes may reach the agent as one update.
      * @param accNum string used to represent target Agent
      */
     protected void sendAgentBalance(String accNum) {
         Account account = agents.get(accNum);
-        try {
-            synchronized (agents.get(accNum)) {
-                double holds = 0;
-                for (String s : account.holds.keySet()) {
-                    holds = holds + account.holds.get(s);
-                }
-                account.out.writeObject(new UpdateMoney(account.balance, holds));
+        if (account == null || account.out == null) return;
+        balances.publish(account.balanceDue, account.out, () -> {
+            synchronized (account) {
+                return new UpdateMoney(dollars(account.balance), dollars(account.held));
             }
-        } catch (IOException e) {
-            System.out.println("Error in writing balance to client: " + e.getMessage());
-        }
+        });
     }
 
     /**
@@ -139,59 +332,669 @@ public class Bank {
      */
     protected void sendAHBalance(String accountNum) {
         Account account = auctionHouses.get(accountNum);
-        try {
-            synchronized (auctionHouses.get(accountNum)) {
-                account.out.writeObject(new UpdateMoney(account.balance, 0));
-            }
-        } catch (IOException e) {
-            System.out.println("Cannot write balance to auction house: " + e.getMessage());
+        if (account == null || account.out == null) return;
+        UpdateMoney update;
+        synchronized (account) {
+            update = new UpdateMoney(dollars(account.balance), 0);
         }
+        account.out.send(update);
     }
 
     /**
      * Method to close the Auction House and remove the current hold on the wining Agent
+     * Locks the agent before the auction house, the same order every lane uses.
+     * When the Auction House belongs to another bank of the cluster, only the agent's side is
+     * settled here and that bank is sent a HouseCredit for the rest. The credit is recorded as owed
+     * in the same ledger change as the debit, and sent until that bank acknowledges it.
      * @param auctionHouseAccount Auction House balance before close
      * @param agentAccount target Agent
      * @param item hold to be removed from the Agent
      * @param amount to be added to the Auction House's balance after close
+     * @param requestId the auction house's id for the request, so a repeat is not settled twice
+     */
+    protected void auctionEnded(String auctionHouseAccount, String agentAccount, String item, double amount,
+                                long requestId) {
+        Account agent = agents.get(agentAccount);
+        Account house = auctionHouses.get(auctionHouseAccount);
+        boolean remoteHouse = house == null && cluster != null && !cluster.owns(auctionHouseAccount);
+        if (agent == null || (house == null && !remoteHouse)) {
+            System.out.println("Error: Could not settle " + item + ": Account not found.");
+            return;
+        }
+        if (!requests.firstTime(HoldTable.houseOf(item), requestId)) {
+            System.out.println("Repeated settlement request " + requestId + " for " + item);
+            return;
+        }
+        long cents = cents(amount);
+        HouseCredit credit = null;
+        beginChange();
+        try {
+            synchronized (agent) {
+                releaseHold(agent, item);
+                agent.balance -= cents;
+                if (house != null) {
+                    synchronized (house) {
+                        house.balance += cents;
+                    }
+                }
+                if (ledger != null) {
+                    ledger.settle(auctionHouseAccount, agentAccount,
+                            HoldTable.houseOf(item), HoldTable.auctionOf(item), cents);
+                }
+                if (remoteHouse) credit = owe(auctionHouseAccount, agentAccount, HoldTable.auctionOf(item), cents);
+                SETTLED.increment();
+            }
+        } finally {
+            endChange();
+        }
+        if (credit != null) sendCredit(credit);
+    }
+
+    /**
+     * Settles several auctions of one Auction House as a unit. Every account is checked first,
+     * then all outcomes are applied while the agents, in account number order, and the Auction
+     * House are locked, so no one sees part of a batch. The batch is one ledger record.
+     * The batch runs on the Auction House's lane, not on its agents', so each outcome is checked
+     * as it is applied: one the agent has neither a hold for nor the free funds to cover is
+     * rejected and forgotten, so it can be sent again, rather than leave the balance negative.
+     * In a cluster, outcomes whose agent belongs to another bank are forwarded to it as a
+     * smaller batch, and each bank settles its part on its own. When the Auction House belongs to
+     * another bank, its credits are owed and sent as in auctionEnded.
+     * @param batch outcomes from one Auction House
+     * @return the agents whose balances changed, to be sent one update each
+     */
+    protected Collection<String> settleBatch(SettleBatch batch) {
+        String houseAcc = batch.ahNum();
+        List<AuctionOver> local = new ArrayList<>(batch.outcomes().size());
+        Map<Integer, List<AuctionOver>> remote = new HashMap<>();
+        for (AuctionOver outcome : batch.outcomes()) {
+            if (cluster != null && !cluster.owns(outcome.agentNum())) {
+                remote.computeIfAbsent(cluster.ownerOf(outcome.agentNum()), k -> new ArrayList<>()).add(outcome);
+            } else {
+                local.add(outcome);
+            }
+        }
+        for (Map.Entry<Integer, List<AuctionOver>> e : remote.entrySet()) {
+            if (!cluster.send(e.getKey(), new Forwarded(cluster.self(), null, new SettleBatch(houseAcc, e.getValue())))) {
+                System.out.println("Error: Bank node " + e.getKey() + " unreachable, " + e.getValue().size() +
+                        " settlements for #" + houseAcc + " not made.");
+            }
+        }
+        if (local.isEmpty()) return List.of();
+
+        Account house = auctionHouses.get(houseAcc);
+        boolean remoteHouse = house == null && cluster != null && !cluster.owns(houseAcc);
+        if (house == null && !remoteHouse) {
+            System.out.println("Error: Could not settle batch for #" + houseAcc + ": Account not found.");
+            return List.of();
+        }
+        for (AuctionOver outcome : local) {
+            if (!agents.containsKey(outcome.agentNum())) {
+                System.out.println("Error: Could not settle batch for #" + houseAcc + ": Account #" +
+                        outcome.agentNum() + " not found.");
+                return List.of();
+            }
+        }
+        List<AuctionOver> fresh = new ArrayList<>(local.size());
+        for (AuctionOver outcome : local) {
+            if (requests.firstTime(HoldTable.houseOf(outcome.item()), outcome.requestId())) {
+                fresh.add(outcome);
+            } else {
+                System.out.println("Repeated settlement request " + outcome.requestId() + " for " + outcome.item());
+            }
+        }
+        if (fresh.isEmpty()) return List.of();
+
+        TreeMap<String, Account> winners = new TreeMap<>();
+        for (AuctionOver outcome : fresh) winners.put(outcome.agentNum(), agents.get(outcome.agentNum()));
+        List<HouseCredit> houseCredits = new ArrayList<>();
+        Set<String> settled = new TreeSet<>();
+        List<Object> locks = new ArrayList<>(winners.values());
+        if (house != null) locks.add(house);
+        beginChange();
+        try {
+            lockAll(locks, 0, () -> {
+                String[] agentAccs = new String[fresh.size()];
+                int[] auctions = new int[fresh.size()];
+                long[] cents = new long[fresh.size()];
+                int n = 0;
+                for (AuctionOver outcome : fresh) {
+                    Account agent = winners.get(outcome.agentNum());
+                    long houseId = HoldTable.houseOf(outcome.item());
+                    int auction = HoldTable.auctionOf(outcome.item());
+                    long amount = cents(outcome.amount());
+                    long hold = agent.holds.get(houseId, auction);
+                    long free = agent.balance - agent.held + (hold == HoldTable.NONE ? 0 : hold);
+                    if (amount > free) {
+                        requests.forget(houseId, outcome.requestId());
+                        System.out.println("Error: Could not settle " + outcome.item() + ": Account #" +
+                                outcome.agentNum() + " has no hold or funds for $" + outcome.amount());
+                        continue;
+                    }
+                    releaseHold(agent, outcome.item());
+                    agent.balance -= amount;
+                    if (house != null) house.balance += amount;
+                    agentAccs[n] = outcome.agentNum();
+                    auctions[n] = auction;
+                    cents[n] = amount;
+                    settled.add(outcome.agentNum());
+                    n++;
+                }
+                if (n == 0) return;
+                if (n < fresh.size()) {
+                    agentAccs = Arrays.copyOf(agentAccs, n);
+                    auctions = Arrays.copyOf(auctions, n);
+                    cents = Arrays.copyOf(cents, n);
+                }
+                if (ledger != null) {
+                    ledger.settleBatch(houseAcc, HoldTable.houseOf(fresh.get(0).item()), agentAccs, auctions, cents);
+                }
+                if (remoteHouse) {
+                    for (int i = 0; i < n; i++) houseCredits.add(owe(houseAcc, agentAccs[i], auctions[i], cents[i]));
+                }
+                SETTLED.add(n);
+            });
+        } finally {
+            endChange();
+        }
+        for (HouseCredit credit : houseCredits) sendCredit(credit);
+        return settled;
+    }
+
+    /**
+     * Runs an action while holding the monitor of every object in a list, taken in list order
+     * @param locks objects to lock
+     * @param from index of the first one not yet locked
+     * @param action what to run once all are locked
+     */
+    private static void lockAll(List<Object> locks, int from, Runnable action) {
+        if (from == locks.size()) {
+            action.run();
+            return;
+        }
+        synchronized (locks.get(from)) {
+            lockAll(locks, from + 1, action);
+        }
+    }
+
+    /**
+     * Records a credit owed to an Auction House on another bank, to be sent until it is
+     * acknowledged. Caller must be inside a ledger change.
+     * @param houseAcc the Auction House's account number
+     * @param agentAcc the agent's account number
+     * @param auction auction id
+     * @param cents amount owed
+     * @return the credit to send
+     */
+    private HouseCredit owe(String houseAcc, String agentAcc, int auction, long cents) {
+        HouseCredit credit = new HouseCredit(houseAcc, agentAcc, houseAcc + ":" + auction, dollars(cents), cluster.self());
+        owed.put(credit.item(), credit);
+        if (ledger != null) ledger.owe(houseAcc, agentAcc, HoldTable.houseOf(houseAcc), auction, cents);
+        return credit;
+    }
+
+    /**
+     * Sends a credit to the bank that owns its Auction House. If the bank is unreachable the
+     * credit stays owed and is sent again later.
+     * @param credit the credit
+     */
+    private void sendCredit(HouseCredit credit) {
+        if (!cluster.send(cluster.ownerOf(credit.ahNum()), credit)) {
+            System.out.println("Error: Could not credit #" + credit.ahNum() + " for " + credit.item() +
+                    ": Bank node unreachable, will retry.");
+        }
+    }
+
+    /**
+     * Sends again every credit that has not been acknowledged
+     */
+    private void sendOwedCredits() {
+        for (HouseCredit credit : owed.values()) cluster.send(cluster.ownerOf(credit.ahNum()), credit);
+    }
+
+    /**
+     * Credits an Auction House for an auction whose winning agent is settled on another bank,
+     * and acknowledges the credit. A credit sent again is acknowledged but not applied twice: the
+     * house keeps the auctions it was credited for, which are journaled as settlements and kept
+     * in snapshots, so a credit resent after a long outage or a restart is still recognized.
+     * A credit for a house this bank does not have is not acknowledged, so it stays owed.
+     * @param credit the other bank's share of the settlement
+     */
+    protected void creditHouse(HouseCredit credit) {
+        Account house = auctionHouses.get(credit.ahNum());
+        if (house == null) {
+            System.out.println("Error: Could not credit #" + credit.ahNum() + " for " + credit.item() +
+                    ": Account not found.");
+            return;
+        }
+        long houseId = HoldTable.houseOf(credit.item());
+        int auction = HoldTable.auctionOf(credit.item());
+        long cents = cents(credit.amount());
+        boolean applied;
+        beginChange();
+        try {
+            synchronized (house) {
+                if (house.credited == null) house.credited = new HashSet<>();
+                applied = house.credited.add(auction);
+                if (applied) {
+                    house.balance += cents;
+                    if (ledger != null) ledger.settle(credit.ahNum(), credit.agentNum(), houseId, auction, cents);
+                }
+            }
+        } finally {
+            endChange();
+        }
+        if (!applied) System.out.println("Repeated credit for " + credit.item());
+        cluster.send(credit.from(), new CreditAck(credit.item()));
+    }
+
+    /**
+     * Stops sending a credit the Auction House's bank has acknowledged
+     * @param ack the acknowledgement
+     */
+    protected void creditAcked(CreditAck ack) {
+        beginChange();
+        try {
+            HouseCredit credit = owed.remove(ack.item());
+            if (credit != null && ledger != null) ledger.credited(credit.ahNum(), HoldTable.auctionOf(credit.item()));
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Sends a hold, hold release, settlement or lease request to the bank that owns the agent's
+     * account, if that is not this bank
+     * @param m message from an Auction House
+     * @param out the Auction House's connection
+     * @return true if the message was handed to another bank and needs no more work here
+     */
+    protected boolean forward(Message m, MessageWriter out) {
+        if (cluster == null) return false;
+        if (!(m instanceof NewHold || m instanceof EndHold || m instanceof AuctionOver
+                || m instanceof NewLease || m instanceof LeaseHold || m instanceof EndLease)) return false;
+        String accNum = MessageRouter.routingKey(m);
+        if (cluster.owns(accNum)) return false;
+        int owner = cluster.ownerOf(accNum);
+        String replyTo = null;
+        if (m instanceof NewHold newHold) {
+            replyTo = houseAccount(newHold.accAndID());
+        } else if (m instanceof LeaseHold leaseHold) {
+            replyTo = houseAccount(leaseHold.accAndID());
+        } else if (m instanceof NewLease newLease) {
+            replyTo = newLease.ahNum();
+        }
+        if (!cluster.send(owner, new Forwarded(cluster.self(), replyTo, m))) {
+            System.out.println("Error: Bank node " + owner + " unreachable for account #" + accNum);
+            if (m instanceof NewHold newHold) {
+                out.send(new ConfirmHold(false, newHold.accAndID(), newHold.accountNumber(), newHold.idNum(),
+                        newHold.requestId(), newHold.trace()));
+            } else if (m instanceof LeaseHold leaseHold) {
+                out.send(new ConfirmHold(false, leaseHold.accAndID(), leaseHold.accountNumber(), leaseHold.idNum(),
+                        leaseHold.requestId(), null));
+            } else if (m instanceof NewLease newLease) {
+                out.send(new LeaseGranted(newLease.accountNumber(), 0, 0, newLease.requestId()));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param accAndID hold string such as "AH1Z:12"
+     * @return the auction house account number before the colon
+     */
+    private static String houseAccount(String accAndID) {
+        return accAndID.substring(0, Math.max(0, accAndID.indexOf(':')));
+    }
+
+    /**
+     * @param forwarded a message another bank forwarded here
+     * @return outbound queue that carries replies back to that bank
+     */
+    protected MessageWriter replyWriter(Forwarded forwarded) {
+        return cluster.replyTo(forwarded);
+    }
+
+    /**
+     * Passes a reply from another bank on to the local connection it is addressed to
+     * @param deliver the reply
+     */
+    protected void deliver(Deliver deliver) {
+        if (deliver.accountNumber() == null) return;
+        Account account = auctionHouses.get(deliver.accountNumber());
+        if (account == null) account = agents.get(deliver.accountNumber());
+        if (account != null && account.out != null) account.out.send(deliver.message());
+    }
+
+    /**
+     * Records an Auction House opened or closed on another bank and tells the local agents.
+     * An open house without an address is ignored, since agents could not reach it.
+     * @param peerHouse the Auction House
      */
-    protected void auctionEnded(String auctionHouseAccount, String agentAccount, String item, double amount) {
-        removeHold(agentAccount, item);
-        auctionHouses.get(auctionHouseAccount).balance += amount;
-        agents.get(agentAccount).balance -= amount;
+    protected void peerHouse(PeerHouse peerHouse) {
+        if (peerHouse.open()) {
+            if (peerHouse.socketData() == null) return;
+            Account account = new Account();
+            account.name = peerHouse.name();
+            account.socketData = peerHouse.socketData();
+            remoteHouses.put(peerHouse.accountNumber(), account);
+        } else if (remoteHouses.remove(peerHouse.accountNumber()) == null) {
+            return;
+        }
+        sendAuctionHouseList();
+    }
+
+    /**
+     * Tells another bank about every local Auction House, after a link to it comes up.
+     * Houses recovered from the journal or the primary have no address and are left out, as
+     * in houseList().
+     * @param node the bank's node number
+     */
+    private void sendHousesTo(int node) {
+        synchronized (auctionHouses) {
+            for (Map.Entry<String, Account> e : auctionHouses.entrySet()) {
+                Account ah = e.getValue();
+                if (ah.socketData == null) continue;
+                cluster.send(node, new PeerHouse(e.getKey(), ah.name, ah.socketData, true));
+            }
+        }
+    }
+
+    /**
+     * Starts reading messages from another bank of the cluster
+     * @param hello the bank's first message
+     * @param in input stream
+     * @param out the bank's connection, unused since replies go over this bank's own link
+     */
+    protected void addPeer(PeerHello hello, Transport.Input in, MessageWriter out) {
+        System.out.println("Bank node " + hello.node() + " connected");
+        if (in != null) Threads.newThread(new MessageListener(messages, in, out)).start();
+    }
+
+    /**
+     * @param prefix "CL" or "AH"
+     * @return a new account number, one this bank owns when in a cluster
+     */
+    private String newAccountNumber(String prefix) {
+        while (true) {
+            String accNum = AccountIds.format(prefix, ids.next());
+            if (cluster == null || cluster.owns(accNum)) return accNum;
+        }
     }
 
     /**
      * Removes the specified hold from the given Agent
      * @param accountNum string used to ID the specific Agent
      * @param item string used to ID the hold to be removed
+     * @param requestId the auction house's id for the request, so a repeat is ignored
      */
-    protected void removeHold(String accountNum, String item) {
+    protected void removeHold(String accountNum, String item, long requestId) {
         Account account = agents.get(accountNum);
-        synchronized (agents.get(accountNum)) {
-            account.holds.remove(item);
+        if (account == null) return;
+        if (!requests.firstTime(HoldTable.houseOf(item), requestId)) return;
+        beginChange();
+        try {
+            synchronized (account) {
+                if (releaseHold(account, item) && ledger != null) {
+                    ledger.release(accountNum, HoldTable.houseOf(item), HoldTable.auctionOf(item));
+                }
+            }
+        } finally {
+            endChange();
         }
     }
 
     /**
-     * Method to add a hold to an Agent's current holds
+     * Drops a hold and takes it off the account's running hold total.
+     * Caller must hold the account's lock.
+     * @param account the agent's account
+     * @param item hold string naming the auction house and auction
+     * @return true if there was a hold to drop
+     */
+    private static boolean releaseHold(Account account, String item) {
+        long released = account.holds.remove(HoldTable.houseOf(item), HoldTable.auctionOf(item));
+        if (released == HoldTable.NONE) return false;
+        account.held -= released;
+        return true;
+    }
+
+    /**
+     * Enters a ledger change. With journaling or replication on, a snapshot waits until
+     * no change is half done.
+     */
+    private void beginChange() {
+        if (ledger != null) ledgerLock.readLock().lock();
+    }
+
+    /**
+     * Leaves a ledger change started with beginChange()
+     */
+    private void endChange() {
+        if (ledger != null) ledgerLock.readLock().unlock();
+    }
+
+    /**
+     * Takes a snapshot of every account and hold. Changes are paused only while the journal
+     * moves to a new segment and the state is copied; the file is written afterwards.
+     */
+    private void snapshot() {
+        ByteBuffer state;
+        int segment;
+        ledgerLock.writeLock().lock();
+        try {
+            segment = journal.roll();
+            state = encodeState();
+        } catch (IOException e) {
+            System.out.println("Cannot roll journal for snapshot: " + e.getMessage());
+            return;
+        } finally {
+            ledgerLock.writeLock().unlock();
+        }
+        try {
+            journal.writeSnapshot(segment, state);
+        } catch (IOException e) {
+            System.out.println("Cannot write snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes every account, hold and owed credit as journal records. Caller must hold the ledger write lock.
+     * @return the records, ready to read
+     */
+    private ByteBuffer encodeState() {
+        ByteBuffer[] state = {ByteBuffer.allocate(1 << 16)};
+        for (Map.Entry<String, Account> e : auctionHouses.entrySet()) {
+            Account house = e.getValue();
+            state[0] = room(state[0]);
+            Journal.putOpen(state[0], false, e.getKey(), house.name, house.balance);
+            if (house.credited == null) continue;
+            // credits from other banks, as settlements of nothing with no local agent, so repeats are still caught
+            long houseId = HoldTable.houseOf(e.getKey());
+            for (int auction : house.credited) {
+                state[0] = room(state[0]);
+                Journal.putSettle(state[0], e.getKey(), "", houseId, auction, 0);
+            }
+        }
+        for (Map.Entry<String, Account> e : agents.entrySet()) {
+            String accNum = e.getKey();
+            Account account = e.getValue();
+            state[0] = room(state[0]);
+            Journal.putOpen(state[0], true, accNum, account.name, account.balance);
+            account.holds.forEach((house, auction, cents) -> {
+                state[0] = room(state[0]);
+                Journal.putHold(state[0], accNum, house, auction, cents);
+            });
+        }
+        for (HouseCredit credit : owed.values()) {
+            state[0] = room(state[0]);
+            Journal.putOwe(state[0], credit.ahNum(), credit.agentNum(), HoldTable.houseOf(credit.item()),
+                    HoldTable.auctionOf(credit.item()), cents(credit.amount()));
+        }
+        return state[0].flip();
+    }
+
+    /**
+     * Starts shipping ledger changes to a standby bank
+     * @param in input stream, or null when a NioServer reads the connection
+     * @param out the standby's connection
+     */
+    protected void addStandby(Transport.Input in, MessageWriter out) {
+        if (replicator == null) {
+            System.out.println("Standby refused: replication is off (-Dbank.replicate=true)");
+            out.close();
+            return;
+        }
+        ledgerLock.writeLock().lock();
+        try {
+            replicator.addStandby(out, encodeState());
+        } finally {
+            ledgerLock.writeLock().unlock();
+        }
+        System.out.println("Standby connected, " + replicator.standbys() + " following");
+        if (in != null) Threads.newThread(new MessageListener(messages, in, out)).start();
+    }
+
+    /**
+     * @param out the standby's connection
+     * @param ack the last update the standby applied
+     */
+    protected void standbyAck(MessageWriter out, ReplicaAck ack) {
+        if (replicator != null) replicator.acked(out, ack);
+    }
+
+    /**
+     * Applies ledger changes shipped from the primary while this bank is a standby.
+     * A snapshot replaces the whole ledger.
+     * @param update records from the primary
+     */
+    protected void applyReplicated(LedgerUpdate update) {
+        if (update.records().length == 0) return;
+        ByteBuffer records = ByteBuffer.wrap(update.records());
+        beginChange();
+        try {
+            if (update.snapshot()) {
+                agents.clear();
+                auctionHouses.clear();
+                owed.clear();
+            }
+            Journal.replay(records.duplicate(), new Recovery());
+            if (ledger != null && !update.snapshot()) Journal.replay(records, ledger);
+        } finally {
+            endChange();
+        }
+        if (update.snapshot()) {
+            System.out.println("Standby loaded " + agents.size() + " agents and " + auctionHouses.size() +
+                    " auction houses from the primary");
+            if (journal != null) snapshot();
+        }
+    }
+
+    /**
+     * @return true if nothing listens on the bank's port, so a primary that held it is gone
+     */
+    protected boolean portFree() {
+        try {
+            new ServerSocket(port).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts serving on the bank's port after the primary failed, retrying until the port is free
+     */
+    protected void takeOver() {
+        long start = System.nanoTime();
+        while (true) {
+            try {
+                serve();
+                break;
+            } catch (IOException e) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+        System.out.printf("Took over port %d in %.1f ms%n", port, (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * @param b snapshot buffer
+     * @return b, or a copy twice the size if another record might not fit
+     */
+    private static ByteBuffer room(ByteBuffer b) {
+        if (b.remaining() >= Journal.maxRecord()) return b;
+        ByteBuffer bigger = ByteBuffer.allocate(b.capacity() * 2);
+        return bigger.put(b.flip());
+    }
+
+    /**
+     * @param amount a dollar amount from a message
+     * @return the amount in whole cents
+     */
+    private static long cents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    /**
+     * @param cents an amount in whole cents
+     * @return the amount in dollars, for messages
+     */
+    private static double dollars(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * Method to add a hold to an Agent's current holds.
+     * A repeated request gets the answer the first one got and changes nothing.
+     * When the agent is short of funds, credit it has leased to Auction Houses is revoked, so a
+     * later bid can be held.
      * @param newHold type NewHold to be added
      * @return returns true if Agent can support current holds, false otherwise
      */
     protected boolean addNewHold(NewHold newHold) {
-        if (agents.containsKey(newHold.accountNumber())) {
-            Account account = agents.get(newHold.accountNumber());
-            synchronized (agents.get(newHold.accountNumber())) {
-                account.holds.remove(newHold.accAndID());
-                double holds = 0;
-                for (String s : account.holds.keySet()) {
-                    holds = account.holds.get(s) + holds;
-                }
-                if ((holds + newHold.amount()) > account.balance) {
-                    System.out.println("Could not apply hold to account #" + newHold.accountNumber() + ": Insufficient funds.");
-                    return false;
+        Account account = agents.get(newHold.accountNumber());
+        if (account != null) {
+            long house = HoldTable.houseOf(newHold.accAndID());
+            int auction = HoldTable.auctionOf(newHold.accAndID());
+            long amount = cents(newHold.amount());
+            Boolean earlier = requests.result(house, newHold.requestId());
+            if (earlier != null) {
+                System.out.println("Repeated hold request " + newHold.requestId() + " for account #" + newHold.accountNumber());
+                return earlier;
+            }
+            List<String> revoked = null; // set when the hold is refused
+            beginChange();
+            try {
+                synchronized (account) {
+                    expireLeases(newHold.accountNumber(), account, System.nanoTime());
+                    long previous = account.holds.remove(house, auction);
+                    if (previous != HoldTable.NONE) account.held -= previous;
+                    if ((account.held + amount) > account.balance) {
+                        if (previous != HoldTable.NONE && ledger != null) {
+                            ledger.release(newHold.accountNumber(), house, auction);
+                        }
+                        requests.record(house, newHold.requestId(), false);
+                        HOLDS_REFUSED.increment();
+                        revoked = revokeLeases(account);
+                    } else {
+                        account.holds.put(house, auction, amount);
+                        account.held += amount;
+                        if (ledger != null) ledger.hold(newHold.accountNumber(), house, auction, amount);
+                        requests.record(house, newHold.requestId(), true);
+                        HOLDS_PLACED.increment();
+                    }
                 }
-                account.holds.put(newHold.accAndID(), newHold.amount());
+            } finally {
+                endChange();
+            }
+            if (revoked != null) {
+                for (String ahNum : revoked) sendToHouse(ahNum, new LeaseRevoked(newHold.accountNumber(), ahNum));
+                System.out.println("Could not apply hold to account #" + newHold.accountNumber() + ": Insufficient funds.");
+                return false;
             }
             System.out.println("Hold for $" + newHold.accAndID() + " to account #" + newHold.accountNumber());
             return true;
@@ -202,16 +1005,304 @@ public class Bank {
     }
 
     /**
-     * kills the thread currently running the given Auction House
+     * Leases part of an agent's available balance to an Auction House, or renews its lease.
+     * The credit is what the house asks for, but at most -Dbank.lease.share (default half) of what
+     * the agent has free counting what is left of this lease, and it runs for -Dbank.lease.millis
+     * (default 10 s). The bank keeps it -Dbank.lease.graceMillis (default 2 s) past what it tells
+     * the house, so a bid accepted just before the end still finds the credit.
+     * @param newLease the house's request
+     * @return the reply, with an amount of 0 when nothing could be leased
+     */
+    protected LeaseGranted grantLease(NewLease newLease) {
+        String accNum = newLease.accountNumber();
+        Account account = agents.get(accNum);
+        if (account == null) {
+            System.out.println("Error: Could not lease credit of account #" + accNum + ": Account not found.");
+            return new LeaseGranted(accNum, 0, 0, newLease.requestId());
+        }
+        long house = HoldTable.houseOf(newLease.ahNum());
+        long granted;
+        beginChange();
+        try {
+            synchronized (account) {
+                long now = System.nanoTime();
+                expireLeases(accNum, account, now);
+                long free = account.balance - account.held + leaseCredit(account, house);
+                granted = Math.min(cents(newLease.amount()), (long) (free * leaseShare));
+                if (granted <= 0) {
+                    dropLease(accNum, account, house);
+                } else {
+                    setLeaseCredit(accNum, account, house, granted);
+                    if (account.leases == null) account.leases = new HashMap<>();
+                    Lease lease = account.leases.computeIfAbsent(house, k -> new Lease(newLease.ahNum()));
+                    lease.expires = now + TimeUnit.MILLISECONDS.toNanos(leaseMillis) + leaseGrace;
+                    lease.revoked = false;
+                    leasing.add(accNum);
+                }
+            }
+        } finally {
+            endChange();
+        }
+        if (granted <= 0) {
+            LEASES_REFUSED.increment();
+            return new LeaseGranted(accNum, 0, 0, newLease.requestId());
+        }
+        LEASES_GRANTED.increment();
+        if (sweeping.compareAndSet(false, true)) {
+            timers.scheduleWithFixedDelay(this::sweepLeases, leaseSweep, leaseSweep, TimeUnit.MILLISECONDS);
+        }
+        return new LeaseGranted(accNum, dollars(granted), leaseMillis, newLease.requestId());
+    }
+
+    /**
+     * Places the hold for a bid an Auction House already accepted on a lease. When the agent was
+     * already holding the auction, only the raise is new credit. It comes out of what is left of
+     * the lease first and out of the agent's free balance for the rest, so a bid the house
+     * accepted within its lease is always held. A repeated request gets the answer
+     * the first one got and changes nothing.
+     * @param leaseHold the hold
+     * @return true if the hold was placed
+     */
+    protected boolean addLeaseHold(LeaseHold leaseHold) {
+        String accNum = leaseHold.accountNumber();
+        Account account = agents.get(accNum);
+        if (account == null) {
+            System.out.println("Error: Could not apply hold to account #" + accNum + ": Account not found.");
+            return false;
+        }
+        long house = HoldTable.houseOf(leaseHold.accAndID());
+        int auction = HoldTable.auctionOf(leaseHold.accAndID());
+        long amount = cents(leaseHold.amount());
+        Boolean earlier = requests.result(house, leaseHold.requestId());
+        if (earlier != null) {
+            System.out.println("Repeated hold request " + leaseHold.requestId() + " for account #" + accNum);
+            return earlier;
+        }
+        beginChange();
+        try {
+            synchronized (account) {
+                expireLeases(accNum, account, System.nanoTime());
+                long previous = account.holds.remove(house, auction);
+                if (previous != HoldTable.NONE) account.held -= previous;
+                long credit = leaseCredit(account, house);
+                long drawn = Math.min(credit, amount - (previous == HoldTable.NONE ? 0 : Math.min(previous, amount)));
+                if (account.held - drawn + amount > account.balance) {
+                    if (previous != HoldTable.NONE && ledger != null) ledger.release(accNum, house, auction);
+                    requests.record(house, leaseHold.requestId(), false);
+                    HOLDS_REFUSED.increment();
+                    System.out.println("Error: Lease of account #" + accNum + " did not cover " + leaseHold.accAndID());
+                    return false;
+                }
+                if (drawn > 0) setLeaseCredit(accNum, account, house, credit - drawn);
+                account.holds.put(house, auction, amount);
+                account.held += amount;
+                if (ledger != null) ledger.hold(accNum, house, auction, amount);
+                requests.record(house, leaseHold.requestId(), true);
+                HOLDS_ON_LEASE.increment();
+            }
+        } finally {
+            endChange();
+        }
+        return true;
+    }
+
+    /**
+     * Ends an agent's lease at an Auction House and gives what is left of it back to the agent
+     * @param endLease the house's request
+     */
+    protected void endLease(EndLease endLease) {
+        Account account = agents.get(endLease.accountNumber());
+        if (account == null) return;
+        beginChange();
+        try {
+            synchronized (account) {
+                if (account.leases != null && account.leases.containsKey(HoldTable.houseOf(endLease.ahNum()))) {
+                    LEASES_ENDED.increment();
+                }
+                dropLease(endLease.accountNumber(), account, HoldTable.houseOf(endLease.ahNum()));
+            }
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Gives back the credit of leases that have run out.
+     * Caller must hold the account's lock and be inside a ledger change.
+     * @param accNum the agent's account number
+     * @param account the agent's account
+     * @param now the current System.nanoTime()
+     * @return true if any lease ran out
+     */
+    private boolean expireLeases(String accNum, Account account, long now) {
+        if (account.leases == null || account.leases.isEmpty()) return false;
+        boolean expired = false;
+        Iterator<Map.Entry<Long, Lease>> it = account.leases.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Lease> e = it.next();
+            if (now - e.getValue().expires < 0) continue;
+            it.remove();
+            setLeaseCredit(accNum, account, e.getKey(), 0);
+            LEASES_EXPIRED.increment();
+            expired = true;
+        }
+        return expired;
+    }
+
+    /**
+     * Gives back the credit of every lease that has run out, so an agent whose account is not
+     * touched again gets it back too, and sends those agents their balance. Only agents that
+     * were granted a lease are looked at, and each is dropped once it has none left. Runs every
+     * -Dbank.lease.sweepMillis (default 1000) from the first lease granted on.
+     */
+    private void sweepLeases() {
+        long now = System.nanoTime();
+        for (String accNum : leasing) {
+            Account account = agents.get(accNum);
+            if (account == null) {
+                leasing.remove(accNum);
+                continue;
+            }
+            boolean expired;
+            beginChange();
+            try {
+                synchronized (account) {
+                    expired = expireLeases(accNum, account, now);
+                    // a lease granted meanwhile adds the agent back under this lock
+                    if (account.leases == null || account.leases.isEmpty()) leasing.remove(accNum);
+                }
+            } finally {
+                endChange();
+            }
+            if (expired) sendAgentBalance(accNum);
+        }
+    }
+
+    /**
+     * Marks an agent's leases revoked. Their credit stays put until the house gives it back with
+     * an EndLease, or at most a grace period, since bids the house took on it may still be on
+     * their way. Caller must hold the account's lock.
+     * @param account the agent's account
+     * @return the account numbers of the houses to tell
+     */
+    private List<String> revokeLeases(Account account) {
+        if (account.leases == null || account.leases.isEmpty()) return List.of();
+        List<String> revoked = new ArrayList<>();
+        long end = System.nanoTime() + leaseGrace;
+        for (Map.Entry<Long, Lease> e : account.leases.entrySet()) {
+            Lease lease = e.getValue();
+            if (lease.revoked || leaseCredit(account, e.getKey()) == 0) continue;
+            lease.revoked = true;
+            if (end - lease.expires < 0) lease.expires = end;
+            revoked.add(lease.ahNum);
+            LEASES_REVOKED.increment();
+        }
+        return revoked;
+    }
+
+    /**
+     * Drops an agent's lease at an Auction House and gives back its credit.
+     * Caller must hold the account's lock and be inside a ledger change.
+     * @param accNum the agent's account number
+     * @param account the agent's account
+     * @param house house id of the Auction House
+     */
+    private void dropLease(String accNum, Account account, long house) {
+        if (account.leases != null) account.leases.remove(house);
+        setLeaseCredit(accNum, account, house, 0);
+    }
+
+    /**
+     * Sets what is left of an agent's lease at an Auction House.
+     * Caller must hold the account's lock and be inside a ledger change.
+     * @param accNum the agent's account number
+     * @param account the agent's account
+     * @param house house id of the Auction House
+     * @param cents the credit, 0 to give it all back
+     */
+    private void setLeaseCredit(String accNum, Account account, long house, long cents) {
+        long previous = cents > 0 ? account.holds.put(house, LEASE, cents) : account.holds.remove(house, LEASE);
+        if (previous != HoldTable.NONE) account.held -= previous;
+        if (cents > 0) {
+            account.held += cents;
+            if (ledger != null) ledger.hold(accNum, house, LEASE, cents);
+        } else if (previous != HoldTable.NONE && ledger != null) {
+            ledger.release(accNum, house, LEASE);
+        }
+    }
+
+    /**
+     * Caller must hold the account's lock
+     * @param account the agent's account
+     * @param house house id of the Auction House
+     * @return what is left of the agent's lease at that house, in cents
+     */
+    private static long leaseCredit(Account account, long house) {
+        long credit = account.holds.get(house, LEASE);
+        return credit == HoldTable.NONE ? 0 : credit;
+    }
+
+    /**
+     * Gives back the credit of leases made before a restart or a takeover. Leases are not
+     * journaled, only their credit is, so the houses have to ask for new ones.
+     */
+    private void dropRecoveredLeases() {
+        for (Map.Entry<String, Account> e : agents.entrySet()) {
+            Account account = e.getValue();
+            List<Long> houses = new ArrayList<>();
+            beginChange();
+            try {
+                synchronized (account) {
+                    account.holds.forEach((house, auction, cents) -> {
+                        if (auction == LEASE) houses.add(house);
+                    });
+                    for (long house : houses) setLeaseCredit(e.getKey(), account, house, 0);
+                }
+            } finally {
+                endChange();
+            }
+        }
+    }
+
+    /**
+     * Sends a message to an Auction House, through the bank it is connected to when that is
+     * another bank of the cluster
+     * @param ahNum the house's account number
+     * @param m the message
+     */
+    private void sendToHouse(String ahNum, Message m) {
+        Account house = auctionHouses.get(ahNum);
+        if (house != null) {
+            if (house.out != null) house.out.send(m);
+        } else if (cluster != null && !cluster.owns(ahNum)) {
+            cluster.send(cluster.ownerOf(ahNum), new Deliver(ahNum, m));
+        }
+    }
+
+    /**
+     * kills the thread currently running the given Auction House.
+     * Enters the ledger change before locking the map, the same order addAH uses.
      * @param accNum string to ID given Auction House
      */
     protected void closeAuctionHouseAcc(String accNum) {
-        synchronized (auctionHouses) {
-            Account account = auctionHouses.remove(accNum);
-            if (account != null) {
-                account.listenerThread.interrupt();
-                System.out.println("Removed auction house \"" + account.name + "\"");
+        beginChange();
+        try {
+            synchronized (auctionHouses) {
+                Account account = auctionHouses.remove(accNum);
+                if (account != null) {
+                    if (ledger != null) ledger.close(accNum);
+                    if (account.listenerThread != null) account.listenerThread.interrupt();
+                    if (account.out != null) account.out.close();
+                    if (cluster != null) {
+                        // a recovered house has no address, and other banks only need the account number
+                        SocketData address = account.socketData != null ? account.socketData : new SocketData("", 0);
+                        cluster.broadcast(new PeerHouse(accNum, account.name, address, false));
+                    }
+                    System.out.println("Removed auction house \"" + account.name + "\"");
+                }
             }
+        } finally {
+            endChange();
         }
         sendAuctionHouseList();
     }
@@ -219,94 +1310,191 @@ public class Bank {
     /**
      * Creates and adds a new Agent to the list of Auction Houses and the Bank
      * @param msg NewAgent type used to name the account
-     * @param input input stream
-     * @param output output stream
-     * @throws IOException in case the Bank or an Auction House object is not found
+     * @param input input stream, or null when a NioServer reads the connection
+     * @param output outbound queue for the agent's connection
      */
-    protected void addAgent (NewAgent msg, ObjectInputStream input, ObjectOutputStream output)
-            throws IOException {
-        String accNum;
-
-        synchronized (current) {
-            current += accountDifference;
-            accNum = "CL" + String.format("%04d", current);
-        }
+    protected void addAgent (NewAgent msg, Transport.Input input, MessageWriter output) {
+        String accNum = newAccountNumber("CL");
 
         Account account = new Account();
         account.name = msg.name();
-        account.balance = msg.startBal();
-        account.holds = new HashMap<>();
+        account.balance = cents(msg.startBal());
+        account.holds = new HoldTable(16);
         account.in = input;
         account.out = output;
 
-        synchronized (agents) {agents.put(accNum, account);}
+        beginChange();
+        try {
+            if (ledger != null) ledger.openAgent(accNum, account.name, account.balance);
+            synchronized (agents) {agents.put(accNum, account);}
+        } finally {
+            endChange();
+        }
 
         System.out.println("Added new client \"" + account.name +
                 "\", #" + accNum);
 
-        account.listenerThread = new Thread(new MessageListener(messages, account.in, account.out));
-        account.listenerThread.start();
+        if (input != null) {
+            account.listenerThread = Threads.newThread(new MessageListener(messages, account.in, account.out));
+            account.listenerThread.start();
+        }
 
-        output.writeObject(new AgentMade(accNum));
+        output.send(new AgentMade(accNum));
         sendAgentBalance(accNum);
 
         synchronized (auctionHouses) {
-            if (!auctionHouses.isEmpty()) {
-                Map<String, SocketData> ahList = new HashMap<>();
-                for (String s : auctionHouses.keySet()) {
-                    ahList.put(auctionHouses.get(s).name,
-                            auctionHouses.get(s).socketData);
-                }
-                output.writeObject(new AuctionList(ahList));
+            if (!auctionHouses.isEmpty() || !remoteHouses.isEmpty()) {
+                output.send(new AuctionList(houseList()));
             }
         }
     }
 
     /**
      * Method to initialize a new Auction House and add it to the current active list
-     * @param socket socket
+     * @param host host name agents use to reach the auction house
      * @param msg NewAuctionHouse type message
-     * @param in input stream
-     * @param out output stream
-     * @throws IOException in case listener thread is not found
+     * @param in input stream, or null when a NioServer reads the connection
+     * @param out outbound queue for the auction house's connection
      */
-    protected void addAH(Socket socket, NewAuctionHouse msg, ObjectInputStream in, ObjectOutputStream out) throws IOException {
-        String accNum;
-
-        synchronized (current) {
-            current += accountDifference;
-            accNum = "AH" + String.format("%04d", current);
-        }
+    protected void addAH(String host, NewAuctionHouse msg, Transport.Input in, MessageWriter out) {
+        String accNum = newAccountNumber("AH");
 
         Account account = new Account();
         account.name = msg.name();
         account.balance = 0;
         account.holds = null;
-        account.socketData = new SocketData(socket.getInetAddress().getHostName(), msg.port());
+        account.socketData = new SocketData(host, msg.port());
         account.in = in;
         account.out = out;
 
-        synchronized (auctionHouses) {auctionHouses.put(accNum, account);}
+        beginChange();
+        try {
+            if (ledger != null) ledger.openHouse(accNum, account.name, account.balance);
+            synchronized (auctionHouses) {auctionHouses.put(accNum, account);}
+        } finally {
+            endChange();
+        }
 
         System.out.println("Added new auction house \"" + account.name +
                 "\", #" + accNum);
 
-        account.listenerThread = new Thread(new MessageListener(messages, account.in, account.out));
-        account.listenerThread.start();
+        if (in != null) {
+            account.listenerThread = Threads.newThread(new MessageListener(messages, account.in, account.out));
+            account.listenerThread.start();
+        }
 
-        out.writeObject(new AuctionHouseMade(accNum));
+        out.send(new AuctionHouseMade(accNum));
+        if (cluster != null) cluster.broadcast(new PeerHouse(accNum, account.name, account.socketData, true));
         sendAuctionHouseList();
     }
 
     /**
-     * kills the specified Agent
+     * kills the specified Agent.
+     * Enters the ledger change before locking the map, the same order addAgent uses.
      * @param accNum string to identify desired Agent
      */
     protected void closeAgentAccount(String accNum) {
-        synchronized (agents) {
-            Account account = agents.remove(accNum);
-            System.out.println("Removed agent account for \"" + account.name + "\"");
-            account.listenerThread.interrupt();
+        List<String> leased = new ArrayList<>();
+        beginChange();
+        try {
+            synchronized (agents) {
+                Account account = agents.remove(accNum);
+                if (account == null) return;
+                if (ledger != null) ledger.close(accNum);
+                System.out.println("Removed agent account for \"" + account.name + "\"");
+                if (account.listenerThread != null) account.listenerThread.interrupt();
+                if (account.out != null) account.out.close();
+                synchronized (account) {
+                    if (account.leases != null) {
+                        for (Lease lease : account.leases.values()) leased.add(lease.ahNum);
+                    }
+                }
+            }
+        } finally {
+            endChange();
+        }
+        // houses holding a lease stop bidding on it
+        for (String ahNum : leased) sendToHouse(ahNum, new LeaseRevoked(accNum, ahNum));
+    }
+
+    /**
+     * Rebuilds accounts from the journal on startup. Recovered accounts have no connection
+     * until their owner reconnects, so nothing is sent to them.
+     */
+    private class Recovery implements Ledger {
+        @Override
+        public void openAgent(String accNum, String name, long balance) {
+            Account account = new Account();
+            account.name = name;
+            account.balance = balance;
+            account.holds = new HoldTable(16);
+            agents.put(accNum, account);
+            seen(accNum);
+        }
+
+        @Override
+        public void openHouse(String accNum, String name, long balance) {
+            Account account = new Account();
+            account.name = name;
+            account.balance = balance;
+            auctionHouses.put(accNum, account);
+            seen(accNum);
+        }
+
+        @Override
+        public void hold(String accNum, long house, int auction, long cents) {
+            Account account = agents.get(accNum);
+            if (account == null) return;
+            long previous = account.holds.put(house, auction, cents);
+            if (previous != HoldTable.NONE) account.held -= previous;
+            account.held += cents;
+        }
+
+        @Override
+        public void release(String accNum, long house, int auction) {
+            Account account = agents.get(accNum);
+            if (account == null) return;
+            long released = account.holds.remove(house, auction);
+            if (released != HoldTable.NONE) account.held -= released;
+        }
+
+        @Override
+        public void settle(String houseAcc, String agentAcc, long house, int auction, long cents) {
+            release(agentAcc, house, auction);
+            Account agent = agents.get(agentAcc);
+            Account ah = auctionHouses.get(houseAcc);
+            if (agent != null) agent.balance -= cents;
+            if (ah != null) ah.balance += cents;
+            if (agent == null && ah != null) { // a credit from another bank
+                if (ah.credited == null) ah.credited = new HashSet<>();
+                ah.credited.add(auction);
+            }
+        }
+
+        @Override
+        public void settleBatch(String houseAcc, long house, String[] agentAccs, int[] auctions, long[] cents) {
+            for (int i = 0; i < agentAccs.length; i++) settle(houseAcc, agentAccs[i], house, auctions[i], cents[i]);
+        }
+
+        @Override
+        public void close(String accNum) {
+            agents.remove(accNum);
+            auctionHouses.remove(accNum);
+        }
+
+        @Override
+        public void owe(String houseAcc, String agentAcc, long house, int auction, long cents) {
+            String item = houseAcc + ":" + auction;
+            owed.put(item, new HouseCredit(houseAcc, agentAcc, item, dollars(cents), cluster == null ? 0 : cluster.self()));
+        }
+
+        @Override
+        public void credited(String houseAcc, int auction) {
+            owed.remove(houseAcc + ":" + auction);
+        }
+
+        private void seen(String accNum) {
+            ids.advancePast(AccountIds.parse(accNum));
         }
     }
 }
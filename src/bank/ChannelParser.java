@@ -0,0 +1,58 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Bank Channel Parser
+ */
+package bank;
+
+import general.Message;
+import general.Message.*;
+import general.MessageWriter;
+import general.NioServer;
+import javafx.util.Pair;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Takes messages from the NioServer's I/O threads. Registrations open accounts the way the
+ * SocketParser does, and every later message goes on the bank's message queue.
+ */
+public class ChannelParser implements NioServer.Handler {
+    private final Bank bank;
+    private final BlockingQueue<Pair<Message, MessageWriter>> messages;
+
+    /**
+     * Constructor
+     * @param bankObj the bank object we're parsing connections for
+     * @param messages the blockingqueue the message parsers read from
+     */
+    protected ChannelParser(Bank bankObj, BlockingQueue<Pair<Message, MessageWriter>> messages) {
+        this.bank = bankObj;
+        this.messages = messages;
+    }
+
+    @Override
+    public void opened(MessageWriter connection, Message first, InetSocketAddress peer) {
+        if (first instanceof NewAgent newAgent) {
+            bank.addAgent(newAgent, null, connection);
+        } else if (first instanceof NewAuctionHouse newAuctionHouse) {
+            bank.addAH(peer.getHostString(), newAuctionHouse, null, connection);
+        } else if (first instanceof PeerHello hello) {
+            bank.addPeer(hello, null, connection);
+        } else if (first instanceof ReplicaHello) {
+            bank.addStandby(null, connection);
+        } else {
+            System.out.println("Invalid message from new connection");
+            connection.close();
+        }
+    }
+
+    @Override
+    public void received(MessageWriter connection, Message m) {
+        try {
+            messages.put(new Pair<>(m, connection));
+        } catch (InterruptedException e) {
+            System.out.println("Channel parser interrupted : " + e.getMessage());
+        }
+    }
+}
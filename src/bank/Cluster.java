@@ -0,0 +1,191 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Bank Cluster
+ */
+package bank;
+
+import general.Message;
+import general.Message.*;
+import general.MessageWriter;
+import general.SocketData;
+import general.Transport;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Links this bank to the other banks of a cluster. Accounts are spread over the banks by a
+ * consistent hash of the account number, and each bank only opens accounts that hash to itself,
+ * so an agent or auction house is always connected to the bank that owns its account.
+ * Messages for an account owned elsewhere are forwarded over a link to the owner, and the
+ * owner's replies come back the same way.
+ * The cluster is given as -Dbank.cluster=host:port,host:port,... with -Dbank.node set to this
+ * bank's position in that list, counting from 0.
+ */
+public class Cluster implements Runnable {
+    private static final long RETRY_MILLIS = 500;
+
+    private final int self;
+    private final List<SocketData> nodes;
+    private final HashRing ring;
+    private final AtomicReferenceArray<MessageWriter> links;
+    private IntConsumer linked = node -> {};
+    private volatile boolean loop;
+
+    /**
+     * Constructor
+     * @param self this bank's node number
+     * @param nodes address of every bank in the cluster, by node number
+     */
+    protected Cluster(int self, List<SocketData> nodes) {
+        if (self < 0 || self >= nodes.size()) {
+            throw new IllegalArgumentException("Node " + self + " is not in a cluster of " + nodes.size());
+        }
+        this.self = self;
+        this.nodes = nodes;
+        this.ring = new HashRing(nodes.size());
+        this.links = new AtomicReferenceArray<>(nodes.size());
+        loop = true;
+    }
+
+    /**
+     * Reads the cluster from the bank.cluster and bank.node properties
+     * @return the cluster, or null when the bank runs on its own
+     */
+    protected static Cluster fromProperties() {
+        String spec = System.getProperty("bank.cluster");
+        if (spec == null || spec.isBlank()) return null;
+        List<SocketData> nodes = new ArrayList<>();
+        for (String node : spec.split(",")) {
+            String[] hostPort = node.trim().split(":");
+            nodes.add(new SocketData(hostPort[0], Integer.parseInt(hostPort[1])));
+        }
+        return new Cluster(Integer.getInteger("bank.node", 0), nodes);
+    }
+
+    /**
+     * @param linked called with a node's number each time a link to it comes up
+     */
+    protected void setLinked(IntConsumer linked) {
+        this.linked = linked;
+    }
+
+    /**
+     * @return this bank's node number
+     */
+    protected int self() {
+        return self;
+    }
+
+    /**
+     * @return number of banks in the cluster
+     */
+    protected int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @param accNum an account number
+     * @return the node that owns the account
+     */
+    protected int ownerOf(String accNum) {
+        return ring.ownerOf(accNum);
+    }
+
+    /**
+     * @param accNum an account number
+     * @return true if this bank owns the account
+     */
+    protected boolean owns(String accNum) {
+        return ring.ownerOf(accNum) == self;
+    }
+
+    /**
+     * Sends a message to another bank
+     * @param node the bank's node number
+     * @param m the message
+     * @return false if there is no working link to that bank
+     */
+    protected boolean send(int node, Message m) {
+        MessageWriter link = links.get(node);
+        if (link == null) return false;
+        if (link.send(m)) return true;
+        links.compareAndSet(node, link, null);
+        return false;
+    }
+
+    /**
+     * Sends a message to every other bank that is linked
+     * @param m the message
+     */
+    protected void broadcast(Message m) {
+        for (int node = 0; node < nodes.size(); node++) {
+            if (node != self) send(node, m);
+        }
+    }
+
+    /**
+     * An outbound queue that hands replies to the bank a forwarded message came from,
+     * addressed to the account that should receive them there
+     * @param forwarded the forwarded message
+     * @return writer for the replies
+     */
+    protected MessageWriter replyTo(Forwarded forwarded) {
+        return new MessageWriter() {
+            @Override
+            public boolean send(Message m) {
+                return Cluster.this.send(forwarded.from(), new Deliver(forwarded.replyTo(), m));
+            }
+
+            @Override
+            public int pending() {
+                return 0;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * sets the loop flag to false. stop the thread
+     */
+    protected void stop() {
+        loop = false;
+    }
+
+    /**
+     * Keeps a link open to every other bank, reconnecting when one drops
+     */
+    @Override
+    public void run() {
+        boolean[] waiting = new boolean[nodes.size()];
+        while (loop) {
+            for (int node = 0; node < nodes.size(); node++) {
+                if (node == self || links.get(node) != null) continue;
+                SocketData address = nodes.get(node);
+                try {
+                    Transport.Streams streams = Transport.open(new Socket(address.hostname(), address.port()));
+                    streams.out().send(new PeerHello(self));
+                    links.set(node, streams.out());
+                    waiting[node] = false;
+                    System.out.println("Linked to bank node " + node + " at " + address.hostname() + ":" + address.port());
+                    linked.accept(node);
+                } catch (IOException e) {
+                    if (!waiting[node]) System.out.println("Waiting for bank node " + node + ": " + e.getMessage());
+                    waiting[node] = true;
+                }
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                loop = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Hash Ring
+ */
+package bank;
+
+import java.util.Arrays;
+
+/**
+ * Consistent hash ring mapping account numbers to bank nodes. Every node is placed on the ring
+ * at a number of points, and an account belongs to the node at the first point at or after the
+ * account's hash, so adding a node only moves the accounts that land just before its points.
+ */
+class HashRing {
+    private static final int POINTS_PER_NODE = 128;
+
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * Constructor
+     * @param nodes number of nodes, numbered from 0
+     */
+    HashRing(int nodes) {
+        long[][] placed = new long[nodes * POINTS_PER_NODE][];
+        for (int node = 0; node < nodes; node++) {
+            for (int i = 0; i < POINTS_PER_NODE; i++) {
+                placed[node * POINTS_PER_NODE + i] = new long[]{hash("node-" + node + "#" + i), node};
+            }
+        }
+        Arrays.sort(placed, (a, b) -> Long.compare(a[0], b[0]));
+        points = new long[placed.length];
+        owners = new int[placed.length];
+        for (int i = 0; i < placed.length; i++) {
+            points[i] = placed[i][0];
+            owners[i] = (int) placed[i][1];
+        }
+    }
+
+    /**
+     * @param accNum an account number
+     * @return the node that owns the account
+     */
+    int ownerOf(String accNum) {
+        int i = Arrays.binarySearch(points, hash(accNum));
+        if (i < 0) i = -i - 1;
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, finished with a mixing step so similar account numbers
+     * land far apart on the ring
+     */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Bank Hold Table
+ */
+package bank;
+
+/**
+ * Open addressing table of an agent's holds, keyed by auction house account id and auction id
+ * and storing the held amount in cents. Keys and values live in primitive arrays, so placing or
+ * releasing a hold does not box anything. Not thread safe, callers lock the owning account.
+ */
+public class HoldTable {
+    /**
+     * Receives each hold when the table is walked.
+     */
+    protected interface Visitor {
+        void hold(long house, int auction, long cents);
+    }
+
+    /** returned by get and remove when there is no hold for the key */
+    protected static final long NONE = -1L;
+
+    private long[] houses;
+    private int[] auctions;
+    private long[] amounts;
+    private boolean[] used;
+    private int size;
+
+    /**
+     * Constructor
+     * @param capacity the number of holds expected, the table grows past it
+     */
+    protected HoldTable(int capacity) {
+        int length = Integer.highestOneBit(Math.max(4, capacity * 2 - 1)) << 1;
+        houses = new long[length];
+        auctions = new int[length];
+        amounts = new long[length];
+        used = new boolean[length];
+    }
+
+    /**
+     * @return the number of holds in the table
+     */
+    protected int size() {
+        return size;
+    }
+
+    /**
+     * Looks up a hold
+     * @param house auction house account id
+     * @param auction auction id
+     * @return the held amount in cents, or NONE
+     */
+    protected long get(long house, int auction) {
+        int i = find(house, auction);
+        return i < 0 ? NONE : amounts[i];
+    }
+
+    /**
+     * Places or replaces a hold
+     * @param house auction house account id
+     * @param auction auction id
+     * @param cents the amount to hold
+     * @return the amount previously held for the key, or NONE
+     */
+    protected long put(long house, int auction, long cents) {
+        int mask = used.length - 1;
+        int i = slot(house, auction, mask);
+        while (used[i]) {
+            if (houses[i] == house && auctions[i] == auction) {
+                long old = amounts[i];
+                amounts[i] = cents;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        houses[i] = house;
+        auctions[i] = auction;
+        amounts[i] = cents;
+        if (++size * 4 > used.length * 3) grow();
+        return NONE;
+    }
+
+    /**
+     * Releases a hold, shifting later entries back so lookups never need tombstones
+     * @param house auction house account id
+     * @param auction auction id
+     * @return the amount that was held, or NONE
+     */
+    protected long remove(long house, int auction) {
+        int i = find(house, auction);
+        if (i < 0) return NONE;
+        long old = amounts[i];
+        int mask = used.length - 1;
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (used[j]) {
+            int home = slot(houses[j], auctions[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                houses[gap] = houses[j];
+                auctions[gap] = auctions[j];
+                amounts[gap] = amounts[j];
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        used[gap] = false;
+        size--;
+        return old;
+    }
+
+    /**
+     * Calls the visitor once for every hold in the table
+     * @param visitor receives each hold
+     */
+    protected void forEach(Visitor visitor) {
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) visitor.hold(houses[i], auctions[i], amounts[i]);
+        }
+    }
+
+    /**
+     * Reads the auction house account id out of a hold string such as "AH1Z:12"
+     * without allocating
+     * @param holdKey the hold string sent by the auction house
+     * @return the auction house's account id
+     */
+    protected static long houseOf(String holdKey) {
+        return AccountIds.parse(holdKey);
+    }
+
+    /**
+     * Reads the auction id out of a hold string such as "AH1Z:12" without allocating
+     * @param holdKey the hold string sent by the auction house
+     * @return the digits after the colon as a number
+     */
+    protected static int auctionOf(String holdKey) {
+        int auction = 0;
+        for (int i = holdKey.indexOf(':') + 1; i < holdKey.length(); i++) {
+            char c = holdKey.charAt(i);
+            if (c >= '0' && c <= '9') auction = auction * 10 + (c - '0');
+        }
+        return auction;
+    }
+
+    private int find(long house, int auction) {
+        int mask = used.length - 1;
+        int i = slot(house, auction, mask);
+        while (used[i]) {
+            if (houses[i] == house && auctions[i] == auction) return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int slot(long house, int auction, int mask) {
+        long h = house * 0x9E3779B97F4A7C15L + auction;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldHouses = houses;
+        int[] oldAuctions = auctions;
+        long[] oldAmounts = amounts;
+        boolean[] oldUsed = used;
+        houses = new long[oldUsed.length * 2];
+        auctions = new int[oldUsed.length * 2];
+        amounts = new long[oldUsed.length * 2];
+        used = new boolean[oldUsed.length * 2];
+        size = 0;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) put(oldHouses[i], oldAuctions[i], oldAmounts[i]);
+        }
+    }
+}
@@ -0,0 +1,630 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Bank Journal
+ */
+package bank;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped log of ledger changes with periodic snapshots.
+ * Appends are copied straight into a mapped segment file, and a background thread forces
+ * the segment to disk every commit interval, so one fsync covers every change made in that
+ * window and the message parsers never wait on the disk.
+ * Every snapshotEvery records the bank is asked for a snapshot, the journal moves to a new
+ * segment and older segments are deleted, so a restart only replays the tail.
+ * Records are framed as [length][crc32][type][fields], the same framing is used in snapshots.
+ * A settled batch is one record however many auctions it covers, so after a crash either the
+ * whole batch is replayed or none of it is.
+ * Appends use a ReentrantLock rather than a monitor because rolling a segment blocks on the disk,
+ * which would pin a virtual thread's carrier.
+ */
+public class Journal implements Runnable, Ledger {
+    private static final byte OPEN_AGENT = 1;
+    private static final byte OPEN_HOUSE = 2;
+    private static final byte HOLD = 3;
+    private static final byte RELEASE = 4;
+    private static final byte SETTLE = 5;
+    private static final byte CLOSE = 6;
+    private static final byte SETTLE_BATCH = 7;
+    private static final byte OWE = 8;
+    private static final byte CREDITED = 9;
+    private static final int HEADER = 8;
+    private static final int MAX_STRING = 256;
+    private static final int MAX_RECORD = HEADER + 1 + 8 + 4 + 16 + 2 * (2 + 2 * MAX_STRING);
+
+    private final Path dir;
+    private final long segmentSize;
+    private final long commitMillis;
+    private final long snapshotEvery;
+    private final CRC32 crc = new CRC32();
+    private final ReentrantLock lock = new ReentrantLock();
+    private Runnable snapshotter;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int segmentNum;
+    private long appended;
+    private long committed;
+    private long sinceSnapshot;
+    private boolean loop;
+
+    /**
+     * Constructor
+     * @param dir directory that holds the segment and snapshot files
+     * @param segmentSize size in bytes of each mapped segment file
+     * @param commitMillis how often appended records are forced to disk
+     * @param snapshotEvery number of records between snapshots
+     */
+    protected Journal(Path dir, long segmentSize, long commitMillis, long snapshotEvery) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.commitMillis = commitMillis;
+        this.snapshotEvery = snapshotEvery;
+        Files.createDirectories(dir);
+        loop = true;
+    }
+
+    /**
+     * sets the callback run by the commit thread when a snapshot is due
+     * @param snapshotter normally Bank.snapshot
+     */
+    protected void setSnapshotter(Runnable snapshotter) {
+        this.snapshotter = snapshotter;
+    }
+
+    /**
+     * Loads the newest snapshot and replays every segment written after it, then opens
+     * a fresh segment for new records.
+     * @param replayer receives the recovered records in order
+     * @return the number of records replayed
+     * @throws IOException if a file cannot be read
+     */
+    protected long recover(Ledger replayer) throws IOException {
+        lock.lock();
+        try {
+            long count = 0;
+            int first = 0;
+            List<Integer> snapshots = numbered("snapshot-", ".snap");
+            if (!snapshots.isEmpty()) {
+                first = snapshots.get(snapshots.size() - 1);
+                count += replay(ByteBuffer.wrap(Files.readAllBytes(snapshotPath(first))), replayer);
+            }
+            int last = first - 1;
+            for (int num : numbered("journal-", ".log")) {
+                if (num < first) continue;
+                try (FileChannel in = FileChannel.open(segmentPath(num), StandardOpenOption.READ)) {
+                    count += replay(in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()), replayer);
+                }
+                last = num;
+            }
+            openSegment(last + 1);
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * sets the loop flag to false. stop the thread
+     */
+    protected void stop() {
+        loop = false;
+    }
+
+    /**
+     * Commit thread. Forces new records to disk once per interval and takes snapshots.
+     */
+    @Override
+    public void run() {
+        while (loop) {
+            try {
+                Thread.sleep(commitMillis);
+                commit();
+                if (snapshotter != null && sinceSnapshot >= snapshotEvery) {
+                    snapshotter.run();
+                }
+            } catch (InterruptedException e) {
+                System.out.println("Journal commit thread interrupted : " + e.getMessage());
+            }
+        }
+        commit();
+    }
+
+    /**
+     * Forces any records appended since the last commit onto disk.
+     */
+    protected void commit() {
+        MappedByteBuffer toForce;
+        long upTo;
+        lock.lock();
+        try {
+            if (appended == committed) return;
+            toForce = segment;
+            upTo = appended;
+        } finally {
+            lock.unlock();
+        }
+        toForce.force();
+        lock.lock();
+        try {
+            committed = Math.max(committed, upTo);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new segment. Called by the bank while no ledger change is in progress,
+     * so everything before the returned segment is covered by the snapshot it is about to write.
+     * @return the number of the new segment
+     * @throws IOException if the segment file cannot be created
+     */
+    protected int roll() throws IOException {
+        lock.lock();
+        try {
+            segment.force();
+            committed = appended;
+            openSegment(segmentNum + 1);
+            sinceSnapshot = 0;
+            return segmentNum;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot taken at the start of the given segment and deletes the files it replaces.
+     * @param num segment number returned by roll
+     * @param state snapshot records, flipped for reading
+     * @throws IOException if the snapshot cannot be written
+     */
+    protected void writeSnapshot(int num, ByteBuffer state) throws IOException {
+        Path tmp = dir.resolve("snapshot.tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (state.hasRemaining()) out.write(state);
+            out.force(true);
+        }
+        Files.move(tmp, snapshotPath(num), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (int old : numbered("snapshot-", ".snap")) {
+            if (old < num) Files.deleteIfExists(snapshotPath(old));
+        }
+        for (int old : numbered("journal-", ".log")) {
+            if (old < num) Files.deleteIfExists(segmentPath(old));
+        }
+    }
+
+    @Override
+    public void openAgent(String accNum, String name, long balance) {
+        lock.lock();
+        try {
+            putOpen(reserve(), crc, OPEN_AGENT, accNum, name, balance);
+            published();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void openHouse(String accNum, String name, long balance) {
+        lock.lock();
+        try {
+            putOpen(reserve(), crc, OPEN_HOUSE, accNum, name, balance);
+            published();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void hold(String accNum, long house, int auction, long cents) {
+        lock.lock();
+        try {
+            putHold(reserve(), crc, accNum, house, auction, cents);
+            published();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void release(String accNum, long house, int auction) {
+        lock.lock();
+        try {
+            putRelease(reserve(), crc, accNum, house, auction);
+            published();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void settle(String houseAcc, String agentAcc, long house, int auction, long cents) {
+        lock.lock();
+        try {
+            putSettle(reserve(), crc, houseAcc, agentAcc, house, auction, cents);
+            published();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void settleBatch(String houseAcc, long house, String[] agentAccs, int[] auctions, long[] cents) {
+        lock.lock();
+        try {
+            putSettleBatch(reserve(maxBatchRecord(agentAccs.length)), crc, houseAcc, house, agentAccs, auctions, cents);
+            published();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close(String accNum) {
+        lock.lock();
+        try {
+            putClose(reserve(), crc, accNum);
+            published();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void owe(String houseAcc, String agentAcc, long house, int auction, long cents) {
+        lock.lock();
+        try {
+            putOwe(reserve(), crc, houseAcc, agentAcc, house, auction, cents);
+            published();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void credited(String houseAcc, int auction) {
+        lock.lock();
+        try {
+            putCredited(reserve(), crc, houseAcc, auction);
+            published();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds an account record to a snapshot buffer
+     * @param b snapshot buffer
+     * @param agent true for an agent, false for an auction house
+     * @param accNum account number
+     * @param name account name
+     * @param balance balance in cents
+     */
+    protected static void putOpen(ByteBuffer b, boolean agent, String accNum, String name, long balance) {
+        putOpen(b, new CRC32(), agent ? OPEN_AGENT : OPEN_HOUSE, accNum, name, balance);
+    }
+
+    /**
+     * Adds a hold record to a journal segment or snapshot buffer
+     * @param b target buffer
+     * @param accNum agent account number
+     * @param house auction house account id
+     * @param auction auction id
+     * @param cents amount held
+     */
+    protected static void putHold(ByteBuffer b, String accNum, long house, int auction, long cents) {
+        putHold(b, new CRC32(), accNum, house, auction, cents);
+    }
+
+    /**
+     * Adds a hold record to a buffer
+     * @param b target buffer
+     * @param crc checksum to reuse
+     * @param accNum agent account number
+     * @param house auction house account id
+     * @param auction auction id
+     * @param cents amount held
+     */
+    protected static void putHold(ByteBuffer b, CRC32 crc, String accNum, long house, int auction, long cents) {
+        int start = begin(b, HOLD);
+        putString(b, accNum);
+        b.putLong(house).putInt(auction).putLong(cents);
+        end(b, start, crc);
+    }
+
+    /**
+     * Adds a hold release record to a buffer
+     * @param b target buffer
+     * @param crc checksum to reuse
+     * @param accNum agent account number
+     * @param house auction house account id
+     * @param auction auction id
+     */
+    protected static void putRelease(ByteBuffer b, CRC32 crc, String accNum, long house, int auction) {
+        int start = begin(b, RELEASE);
+        putString(b, accNum);
+        b.putLong(house).putInt(auction);
+        end(b, start, crc);
+    }
+
+    /**
+     * Adds a settlement record to a snapshot buffer
+     * @param b snapshot buffer
+     * @param houseAcc auction house account number
+     * @param agentAcc agent account number
+     * @param house auction house account id
+     * @param auction auction id
+     * @param cents amount paid
+     */
+    protected static void putSettle(ByteBuffer b, String houseAcc, String agentAcc, long house, int auction, long cents) {
+        putSettle(b, new CRC32(), houseAcc, agentAcc, house, auction, cents);
+    }
+
+    /**
+     * Adds a settlement record to a buffer
+     * @param b target buffer
+     * @param crc checksum to reuse
+     * @param houseAcc auction house account number
+     * @param agentAcc agent account number
+     * @param house auction house account id
+     * @param auction auction id
+     * @param cents amount paid
+     */
+    protected static void putSettle(ByteBuffer b, CRC32 crc, String houseAcc, String agentAcc,
+                                    long house, int auction, long cents) {
+        int start = begin(b, SETTLE);
+        putString(b, houseAcc);
+        putString(b, agentAcc);
+        b.putLong(house).putInt(auction).putLong(cents);
+        end(b, start, crc);
+    }
+
+    /**
+     * Adds a record settling several auctions of one auction house to a buffer
+     * @param b target buffer, with at least maxBatchRecord(agentAccs.length) bytes left
+     * @param crc checksum to reuse
+     * @param houseAcc auction house account number
+     * @param house auction house account id
+     * @param agentAccs winning agent of each auction
+     * @param auctions auction ids
+     * @param cents amount paid for each auction
+     */
+    protected static void putSettleBatch(ByteBuffer b, CRC32 crc, String houseAcc, long house,
+                                         String[] agentAccs, int[] auctions, long[] cents) {
+        int start = begin(b, SETTLE_BATCH);
+        putString(b, houseAcc);
+        b.putLong(house).putInt(agentAccs.length);
+        for (int i = 0; i < agentAccs.length; i++) {
+            putString(b, agentAccs[i]);
+            b.putInt(auctions[i]).putLong(cents[i]);
+        }
+        end(b, start, crc);
+    }
+
+    /**
+     * Adds a record of a credit owed to an auction house on another bank to a snapshot buffer
+     * @param b snapshot buffer
+     * @param houseAcc auction house account number
+     * @param agentAcc agent account number
+     * @param house auction house account id
+     * @param auction auction id
+     * @param cents amount owed
+     */
+    protected static void putOwe(ByteBuffer b, String houseAcc, String agentAcc, long house, int auction, long cents) {
+        putOwe(b, new CRC32(), houseAcc, agentAcc, house, auction, cents);
+    }
+
+    /**
+     * Adds a record of a credit owed to an auction house on another bank to a buffer
+     * @param b target buffer
+     * @param crc checksum to reuse
+     * @param houseAcc auction house account number
+     * @param agentAcc agent account number
+     * @param house auction house account id
+     * @param auction auction id
+     * @param cents amount owed
+     */
+    protected static void putOwe(ByteBuffer b, CRC32 crc, String houseAcc, String agentAcc,
+                                 long house, int auction, long cents) {
+        int start = begin(b, OWE);
+        putString(b, houseAcc);
+        putString(b, agentAcc);
+        b.putLong(house).putInt(auction).putLong(cents);
+        end(b, start, crc);
+    }
+
+    /**
+     * Adds a record of an owed credit the other bank acknowledged to a buffer
+     * @param b target buffer
+     * @param crc checksum to reuse
+     * @param houseAcc auction house account number
+     * @param auction auction id
+     */
+    protected static void putCredited(ByteBuffer b, CRC32 crc, String houseAcc, int auction) {
+        int start = begin(b, CREDITED);
+        putString(b, houseAcc);
+        b.putInt(auction);
+        end(b, start, crc);
+    }
+
+    /**
+     * Adds an account closing record to a buffer
+     * @param b target buffer
+     * @param crc checksum to reuse
+     * @param accNum account number
+     */
+    protected static void putClose(ByteBuffer b, CRC32 crc, String accNum) {
+        int start = begin(b, CLOSE);
+        putString(b, accNum);
+        end(b, start, crc);
+    }
+
+    /**
+     * @return the largest number of bytes one record can take
+     */
+    protected static int maxRecord() {
+        return MAX_RECORD;
+    }
+
+    /**
+     * @param count number of auctions in a batch
+     * @return the largest number of bytes a batch settlement record can take
+     */
+    protected static int maxBatchRecord(int count) {
+        return HEADER + 1 + 2 + 2 * MAX_STRING + 8 + 4 + count * (2 + 2 * MAX_STRING + 4 + 8);
+    }
+
+    private static void putOpen(ByteBuffer b, CRC32 crc, byte type, String accNum, String name, long balance) {
+        int start = begin(b, type);
+        putString(b, accNum);
+        putString(b, name);
+        b.putLong(balance);
+        end(b, start, crc);
+    }
+
+    private static int begin(ByteBuffer b, byte type) {
+        int start = b.position();
+        b.position(start + HEADER);
+        b.put(type);
+        return start;
+    }
+
+    private static void end(ByteBuffer b, int start, CRC32 crc) {
+        int length = b.position() - start - HEADER;
+        crc.reset();
+        crc.update(b.slice(start + HEADER, length));
+        b.putInt(start + 4, (int) crc.getValue());
+        b.putInt(start, length);
+    }
+
+    private static void putString(ByteBuffer b, String s) {
+        int length = Math.min(s.length(), MAX_STRING);
+        b.putShort((short) length);
+        for (int i = 0; i < length; i++) b.putChar(s.charAt(i));
+    }
+
+    private static String getString(ByteBuffer b) {
+        char[] chars = new char[b.getShort()];
+        for (int i = 0; i < chars.length; i++) chars[i] = b.getChar();
+        return new String(chars);
+    }
+
+    /**
+     * Replays records until the end of the buffer, an empty slot or a torn record.
+     * @param b records in journal framing
+     * @param replayer receives each record
+     * @return the number of records replayed
+     */
+    protected static long replay(ByteBuffer b, Ledger replayer) {
+        long count = 0;
+        CRC32 check = new CRC32();
+        while (b.remaining() >= HEADER) {
+            int start = b.position();
+            int length = b.getInt();
+            int sum = b.getInt();
+            if (length <= 0 || length > b.remaining()) break;
+            check.reset();
+            check.update(b.slice(start + HEADER, length));
+            if ((int) check.getValue() != sum) {
+                System.out.println("Journal: stopping replay at torn record");
+                break;
+            }
+            switch (b.get()) {
+                case OPEN_AGENT -> replayer.openAgent(getString(b), getString(b), b.getLong());
+                case OPEN_HOUSE -> replayer.openHouse(getString(b), getString(b), b.getLong());
+                case HOLD -> replayer.hold(getString(b), b.getLong(), b.getInt(), b.getLong());
+                case RELEASE -> replayer.release(getString(b), b.getLong(), b.getInt());
+                case SETTLE -> replayer.settle(getString(b), getString(b), b.getLong(), b.getInt(), b.getLong());
+                case SETTLE_BATCH -> replayBatch(b, replayer);
+                case CLOSE -> replayer.close(getString(b));
+                case OWE -> replayer.owe(getString(b), getString(b), b.getLong(), b.getInt(), b.getLong());
+                case CREDITED -> replayer.credited(getString(b), b.getInt());
+                default -> System.out.println("Journal: unknown record type");
+            }
+            b.position(start + HEADER + length);
+            count++;
+        }
+        return count;
+    }
+
+    private static void replayBatch(ByteBuffer b, Ledger replayer) {
+        String houseAcc = getString(b);
+        long house = b.getLong();
+        int count = b.getInt();
+        String[] agentAccs = new String[count];
+        int[] auctions = new int[count];
+        long[] cents = new long[count];
+        for (int i = 0; i < count; i++) {
+            agentAccs[i] = getString(b);
+            auctions[i] = b.getInt();
+            cents[i] = b.getLong();
+        }
+        replayer.settleBatch(houseAcc, house, agentAccs, auctions, cents);
+    }
+
+    private ByteBuffer reserve() {
+        return reserve(MAX_RECORD);
+    }
+
+    /**
+     * @param bytes room the next record needs
+     * @return the current segment, or a new one if the record might not fit
+     */
+    private ByteBuffer reserve(int bytes) {
+        if (bytes > segmentSize) {
+            throw new IllegalStateException("Journal record of " + bytes + " bytes does not fit in a segment");
+        }
+        if (segment.remaining() < bytes) {
+            try {
+                segment.force();
+                committed = appended;
+                openSegment(segmentNum + 1);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open journal segment: " + e.getMessage(), e);
+            }
+        }
+        return segment;
+    }
+
+    private void published() {
+        appended++;
+        sinceSnapshot++;
+    }
+
+    private void openSegment(int num) throws IOException {
+        if (channel != null) channel.close();
+        segmentNum = num;
+        channel = FileChannel.open(segmentPath(num), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    private Path segmentPath(int num) {
+        return dir.resolve(String.format("journal-%08d.log", num));
+    }
+
+    private Path snapshotPath(int num) {
+        return dir.resolve(String.format("snapshot-%08d.snap", num));
+    }
+
+    private List<Integer> numbered(String prefix, String suffix) throws IOException {
+        List<Integer> nums = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(prefix) && n.endsWith(suffix))
+                    .forEach(n -> nums.add(Integer.parseInt(n.substring(prefix.length(), n.length() - suffix.length()))));
+        }
+        nums.sort(null);
+        return nums;
+    }
+}
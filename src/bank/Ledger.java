@@ -0,0 +1,24 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Ledger
+ */
+package bank;
+
+/**
+ * Receives ledger changes. The journal and replicator record them as they are made, and
+ * recovery applies them when a snapshot, journal segment or shipped update is replayed.
+ * A settled batch arrives as one call, so it is recorded and replayed as a single unit.
+ * A credit owed to an auction house on another bank is recorded until that bank acknowledges it,
+ * so it is still sent after a restart or a takeover.
+ */
+public interface Ledger {
+    void openAgent(String accNum, String name, long balance);
+    void openHouse(String accNum, String name, long balance);
+    void hold(String accNum, long house, int auction, long cents);
+    void release(String accNum, long house, int auction);
+    void settle(String houseAcc, String agentAcc, long house, int auction, long cents);
+    void settleBatch(String houseAcc, long house, String[] agentAccs, int[] auctions, long[] cents);
+    void close(String accNum);
+    void owe(String houseAcc, String agentAcc, long house, int auction, long cents);
+    void credited(String houseAcc, int auction);
+}
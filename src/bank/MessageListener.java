@@ -4,6 +4,8 @@
  */
 package bank;
 import general.Message;
+import general.MessageWriter;
+import general.Transport;
 import javafx.util.Pair;
 import java.io.*;
 import java.util.concurrent.BlockingQueue;
@@ -13,9 +15,9 @@ import java.util.concurrent.BlockingQueue;
  */
 public class MessageListener implements Runnable {
     private boolean loop;
-    private final BlockingQueue<Pair<Message, ObjectOutputStream>> messages;
-    private final ObjectInputStream in;
-    private final ObjectOutputStream out;
+    private final BlockingQueue<Pair<Message, MessageWriter>> messages;
+    private final Transport.Input in;
+    private final MessageWriter out;
 
     /**
      * sets the loop flag to false. stop the thread
@@ -33,7 +35,7 @@ public class MessageListener implements Runnable {
     public void run() {
         while (loop) {
             try {
-                Message m = (Message)in.readObject();
+                Message m = in.read();
                 messages.put(new Pair<>(m, out));
             } catch (InterruptedException e) {
                 System.out.println("Message listener interrupted: " +
@@ -54,9 +56,9 @@ public class MessageListener implements Runnable {
      * Creates a new MessageListener with the specified queue of messages
      * @param messages the queue of messages to be listened to
      * @param in input stream
-     * @param out output stream
+     * @param out outbound queue for replies to the sender
      */
-    protected MessageListener(BlockingQueue<Pair<Message, ObjectOutputStream>> messages, ObjectInputStream in, ObjectOutputStream out) {
+    protected MessageListener(BlockingQueue<Pair<Message, MessageWriter>> messages, Transport.Input in, MessageWriter out) {
         this.messages = messages;
         this.in = in;
         this.out = out;
@@ -5,21 +5,21 @@
 package bank;
 
 import general.Message;
+import general.MessageWriter;
 import javafx.util.Pair;
 import general.Message.*;
 
-import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.concurrent.BlockingQueue;
 
 
 /**
  * reads messages and calls the appropriate method in the bank class based
  * on the type of message received.
+ * In a cluster, messages for accounts owned by another bank are forwarded to it first.
  */
 public class MessageParser implements Runnable {
     private final Bank bank;
-    private final BlockingQueue<Pair<Message, ObjectOutputStream>> messages;
+    private final BlockingQueue<Pair<Message, MessageWriter>> messages;
     private boolean loop;
 
     /**
@@ -27,7 +27,7 @@ public class MessageParser implements Runnable {
      * @param bankObj the bank object we're parsing messages for
      * @param messages a blockingqueue to read messages from
      */
-    protected MessageParser(Bank bankObj, BlockingQueue<Pair<Message, ObjectOutputStream>> messages) {
+    protected MessageParser(Bank bankObj, BlockingQueue<Pair<Message, MessageWriter>> messages) {
         this.bank = bankObj;
         this.messages = messages;
         loop = true;
@@ -48,32 +48,64 @@ public class MessageParser implements Runnable {
     public void run() {
         while (loop) {
             try {
-                Pair<Message, ObjectOutputStream> data = messages.take();
-                ObjectOutputStream out = data.getValue();
+                Pair<Message, MessageWriter> data = messages.take();
+                MessageWriter out = data.getValue();
                 Message m = data.getKey();
 
+                if (m instanceof Forwarded forwarded) {
+                    out = bank.replyWriter(forwarded);
+                    m = forwarded.message();
+                } else if (bank.forward(m, out)) {
+                    continue;
+                }
+
                 if (m instanceof AuctionOver auctionOver) {
-                    bank.auctionEnded(auctionOver.ahNum(), auctionOver.agentNum(), auctionOver.item(), auctionOver.amount());
+                    bank.auctionEnded(auctionOver.ahNum(), auctionOver.agentNum(), auctionOver.item(), auctionOver.amount(),
+                            auctionOver.requestId());
                     bank.sendAgentBalance(auctionOver.agentNum());
                     bank.sendAHBalance(auctionOver.ahNum());
+                } else if (m instanceof SettleBatch batch) {
+                    for (String agentNum : bank.settleBatch(batch)) bank.sendAgentBalance(agentNum);
+                    bank.sendAHBalance(batch.ahNum());
                 } else if (m instanceof AuctionHouseClosed closeAH) {
                     bank.closeAuctionHouseAcc(closeAH.accountNumber());
                 } else if (m instanceof CloseAgent closeAgent) {
                     bank.closeAgentAccount(closeAgent.accountNumber());
                 } else if (m instanceof EndHold endHold) {
-                    bank.removeHold(endHold.accNum(), endHold.item());
+                    bank.removeHold(endHold.accNum(), endHold.item(), endHold.requestId());
                     bank.sendAgentBalance(endHold.accNum());
                 } else if (m instanceof NewHold newHold) {
                     boolean holdPlaced = bank.addNewHold(newHold);
                     bank.sendAgentBalance(newHold.accountNumber());
-                    out.writeObject(new ConfirmHold(holdPlaced, newHold.accAndID(), newHold.accountNumber(), newHold.idNum()));
+                    out.send(new ConfirmHold(holdPlaced, newHold.accAndID(), newHold.accountNumber(), newHold.idNum(),
+                            newHold.requestId(), newHold.trace()));
+                } else if (m instanceof LeaseHold leaseHold) {
+                    boolean holdPlaced = bank.addLeaseHold(leaseHold);
+                    bank.sendAgentBalance(leaseHold.accountNumber());
+                    out.send(new ConfirmHold(holdPlaced, leaseHold.accAndID(), leaseHold.accountNumber(),
+                            leaseHold.idNum(), leaseHold.requestId(), null));
+                } else if (m instanceof NewLease newLease) {
+                    out.send(bank.grantLease(newLease));
+                    bank.sendAgentBalance(newLease.accountNumber());
+                } else if (m instanceof EndLease endLease) {
+                    bank.endLease(endLease);
+                    bank.sendAgentBalance(endLease.accountNumber());
+                } else if (m instanceof HouseCredit credit) {
+                    bank.creditHouse(credit);
+                    bank.sendAHBalance(credit.ahNum());
+                } else if (m instanceof CreditAck ack) {
+                    bank.creditAcked(ack);
+                } else if (m instanceof Deliver deliver) {
+                    bank.deliver(deliver);
+                } else if (m instanceof PeerHouse peerHouse) {
+                    bank.peerHouse(peerHouse);
+                } else if (m instanceof ReplicaAck ack) {
+                    bank.standbyAck(out, ack);
                 } else {
                     System.out.println("Error: Invalid message on existing stream.");
                 }
             } catch (InterruptedException e) {
                 System.out.println("Message parser interrupted : " + e.getMessage());
-            } catch (IOException e) {
-                System.out.println("Error sending hold confirmation : " + e.getMessage());
             }
         }
     }
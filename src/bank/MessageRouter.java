@@ -0,0 +1,85 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Bank Message Router
+ */
+package bank;
+
+import general.Message;
+import general.Message.*;
+import general.MessageWriter;
+import javafx.util.Pair;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * reads messages from the shared queue and hands each one to a parser lane chosen by
+ * account number, so one account's messages stay in order while different accounts
+ * are processed in parallel.
+ * A settlement batch touches many agents, so it goes to its auction house's lane instead, and
+ * may be handled before a change on an agent's lane; the bank checks each of its outcomes.
+ */
+public class MessageRouter implements Runnable {
+    private final BlockingQueue<Pair<Message, MessageWriter>> messages;
+    private final List<BlockingQueue<Pair<Message, MessageWriter>>> lanes;
+    private boolean loop;
+
+    /**
+     * Constructor
+     * @param messages the blockingqueue the message listeners write to
+     * @param lanes one blockingqueue per message parser
+     */
+    protected MessageRouter(BlockingQueue<Pair<Message, MessageWriter>> messages,
+                            List<BlockingQueue<Pair<Message, MessageWriter>>> lanes) {
+        this.messages = messages;
+        this.lanes = lanes;
+        loop = true;
+    }
+
+    /**
+     * sets the loop flag to false. stop the thread
+     */
+    protected void stop() {
+        loop = false;
+    }
+
+    /**
+     * Picks the account a message belongs to. Agent accounts are used for anything that
+     * touches an agent's holds, so every change to one agent lands on the same lane.
+     * @param m the message to route
+     * @return the account number used as the routing key
+     */
+    protected static String routingKey(Message m) {
+        if (m instanceof NewHold newHold) return newHold.accountNumber();
+        if (m instanceof EndHold endHold) return endHold.accNum();
+        if (m instanceof LeaseHold leaseHold) return leaseHold.accountNumber();
+        if (m instanceof NewLease newLease) return newLease.accountNumber();
+        if (m instanceof EndLease endLease) return endLease.accountNumber();
+        if (m instanceof AuctionOver auctionOver) return auctionOver.agentNum();
+        if (m instanceof SettleBatch batch) return batch.ahNum();
+        if (m instanceof CloseAgent closeAgent) return closeAgent.accountNumber();
+        if (m instanceof AuctionHouseClosed closeAH) return closeAH.accountNumber();
+        if (m instanceof Forwarded forwarded) return routingKey(forwarded.message());
+        if (m instanceof HouseCredit credit) return credit.ahNum();
+        if (m instanceof Deliver deliver && deliver.accountNumber() != null) return deliver.accountNumber();
+        if (m instanceof PeerHouse peerHouse) return peerHouse.accountNumber();
+        return "";
+    }
+
+    /**
+     * Run method overrides the runnable interface and is executed when the thread is started.
+     * Moves each message onto the lane for its account
+     */
+    @Override
+    public void run() {
+        while (loop) {
+            try {
+                Pair<Message, MessageWriter> data = messages.take();
+                String key = routingKey(data.getKey());
+                lanes.get(Math.floorMod(key.hashCode(), lanes.size())).put(data);
+            } catch (InterruptedException e) {
+                System.out.println("Message router interrupted : " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Bank Replicator
+ */
+package bank;
+
+import general.Message.*;
+import general.MessageWriter;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Ships ledger changes from a primary bank to its standbys. Every change is encoded as a
+ * journal record and sent at once as a numbered LedgerUpdate, in the order the changes were
+ * made. A standby starts from a snapshot of the whole ledger taken while changes are paused.
+ * When nothing has changed for a heartbeat interval an empty update is sent, so a standby can
+ * tell a quiet primary from a dead one. Standbys acknowledge the last update they applied,
+ * and the gap to the newest update is the replication lag.
+ * Changes are passed on to the journal, if there is one, before they are shipped.
+ */
+public class Replicator implements Ledger, Runnable {
+    private final Ledger next;
+    private final long heartbeatMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer record = ByteBuffer.allocate(Journal.maxRecord());
+    private final List<MessageWriter> standbys = new CopyOnWriteArrayList<>();
+    private final Map<MessageWriter, Long> acked = new ConcurrentHashMap<>();
+    private volatile long sequence;
+    private volatile long lastSent;
+    private volatile boolean loop;
+
+    /**
+     * Constructor
+     * @param next the journal, or null when the primary keeps the ledger in memory only
+     * @param heartbeatMillis longest time between two updates
+     */
+    protected Replicator(Ledger next, long heartbeatMillis) {
+        this.next = next;
+        this.heartbeatMillis = heartbeatMillis;
+        loop = true;
+    }
+
+    /**
+     * Starts shipping to a new standby. Caller must make sure no change is in progress.
+     * @param out the standby's connection
+     * @param state snapshot of the whole ledger, in journal framing
+     */
+    protected void addStandby(MessageWriter out, ByteBuffer state) {
+        lock.lock();
+        try {
+            byte[] records = new byte[state.remaining()];
+            state.get(records);
+            if (!out.send(new LedgerUpdate(sequence, System.currentTimeMillis(), true, records))) return;
+            standbys.add(out);
+            acked.put(out, sequence);
+            lastSent = System.currentTimeMillis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a standby's acknowledgement
+     * @param out the standby's connection
+     * @param ack the last update it applied
+     */
+    protected void acked(MessageWriter out, ReplicaAck ack) {
+        acked.computeIfPresent(out, (k, v) -> Math.max(v, ack.sequence()));
+    }
+
+    /**
+     * @return number of standbys being shipped to
+     */
+    protected int standbys() {
+        return standbys.size();
+    }
+
+    /**
+     * @return updates sent but not yet acknowledged by the slowest standby
+     */
+    protected long lag() {
+        long newest = sequence;
+        long lag = 0;
+        for (long ack : acked.values()) lag = Math.max(lag, newest - ack);
+        return lag;
+    }
+
+    @Override
+    public void openAgent(String accNum, String name, long balance) {
+        if (next != null) next.openAgent(accNum, name, balance);
+        lock.lock();
+        try {
+            record.clear();
+            Journal.putOpen(record, true, accNum, name, balance);
+            ship();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void openHouse(String accNum, String name, long balance) {
+        if (next != null) next.openHouse(accNum, name, balance);
+        lock.lock();
+        try {
+            record.clear();
+            Journal.putOpen(record, false, accNum, name, balance);
+            ship();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void hold(String accNum, long house, int auction, long cents) {
+        if (next != null) next.hold(accNum, house, auction, cents);
+        lock.lock();
+        try {
+            record.clear();
+            Journal.putHold(record, crc, accNum, house, auction, cents);
+            ship();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void release(String accNum, long house, int auction) {
+        if (next != null) next.release(accNum, house, auction);
+        lock.lock();
+        try {
+            record.clear();
+            Journal.putRelease(record, crc, accNum, house, auction);
+            ship();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void settle(String houseAcc, String agentAcc, long house, int auction, long cents) {
+        if (next != null) next.settle(houseAcc, agentAcc, house, auction, cents);
+        lock.lock();
+        try {
+            record.clear();
+            Journal.putSettle(record, crc, houseAcc, agentAcc, house, auction, cents);
+            ship();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void settleBatch(String houseAcc, long house, String[] agentAccs, int[] auctions, long[] cents) {
+        if (next != null) next.settleBatch(houseAcc, house, agentAccs, auctions, cents);
+        lock.lock();
+        try {
+            int size = Journal.maxBatchRecord(agentAccs.length);
+            ByteBuffer batch = size <= record.capacity() ? record.clear() : ByteBuffer.allocate(size);
+            Journal.putSettleBatch(batch, crc, houseAcc, house, agentAccs, auctions, cents);
+            ship(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close(String accNum) {
+        if (next != null) next.close(accNum);
+        lock.lock();
+        try {
+            record.clear();
+            Journal.putClose(record, crc, accNum);
+            ship();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void owe(String houseAcc, String agentAcc, long house, int auction, long cents) {
+        if (next != null) next.owe(houseAcc, agentAcc, house, auction, cents);
+        lock.lock();
+        try {
+            record.clear();
+            Journal.putOwe(record, crc, houseAcc, agentAcc, house, auction, cents);
+            ship();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void credited(String houseAcc, int auction) {
+        if (next != null) next.credited(houseAcc, auction);
+        lock.lock();
+        try {
+            record.clear();
+            Journal.putCredited(record, crc, houseAcc, auction);
+            ship();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the record in the buffer to every standby. Caller must hold the lock.
+     */
+    private void ship() {
+        ship(record);
+    }
+
+    /**
+     * Sends the records in a buffer to every standby as one update. Caller must hold the lock.
+     * @param records records written from position 0
+     */
+    private void ship(ByteBuffer records) {
+        sequence++;
+        if (standbys.isEmpty()) return;
+        send(new LedgerUpdate(sequence, System.currentTimeMillis(), false, Arrays.copyOf(records.array(), records.position())));
+    }
+
+    private void send(LedgerUpdate update) {
+        for (MessageWriter standby : standbys) {
+            if (!standby.send(update)) {
+                System.out.println("Standby lost, replication to it stopped");
+                standbys.remove(standby);
+                acked.remove(standby);
+            }
+        }
+        lastSent = update.sentMillis();
+    }
+
+    /**
+     * sets the loop flag to false. stop the thread
+     */
+    protected void stop() {
+        loop = false;
+    }
+
+    /**
+     * Sends an empty update whenever a heartbeat interval passes without one
+     */
+    @Override
+    public void run() {
+        while (loop) {
+            try {
+                Thread.sleep(heartbeatMillis);
+            } catch (InterruptedException e) {
+                loop = false;
+            }
+            if (standbys.isEmpty() || System.currentTimeMillis() - lastSent < heartbeatMillis) continue;
+            lock.lock();
+            try {
+                send(new LedgerUpdate(sequence, System.currentTimeMillis(), false, new byte[0]));
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Request Cache
+ */
+package bank;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the outcome of recent hold, release and settlement requests by the auction house
+ * that sent them and the request id, so a request that is sent again is answered with the
+ * first outcome instead of being applied twice. The cache holds a bounded number of requests
+ * (-Dbank.dedupe.capacity, default 65536) and forgets the oldest first. It is split into
+ * stripes with their own lock so parser lanes rarely wait on each other.
+ * Request id 0 means the sender did not number the request, and it is never deduplicated.
+ */
+class RequestCache {
+    private static final int STRIPES = 16;
+
+    private record Key(long house, long requestId) {}
+
+    private final List<Map<Key, Boolean>> stripes = new ArrayList<>(STRIPES);
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param capacity number of requests remembered
+     */
+    RequestCache(int capacity) {
+        int perStripe = Math.max(1, capacity / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.add(new LinkedHashMap<>(perStripe * 4 / 3 + 1) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+                    return size() > perStripe;
+                }
+            });
+        }
+    }
+
+    /**
+     * Looks up an earlier outcome
+     * @param house account id of the auction house that sent the request
+     * @param requestId the request's id
+     * @return the outcome of the first time the request was seen, or null if it is new
+     */
+    Boolean result(long house, long requestId) {
+        if (requestId == 0) return null;
+        Key key = new Key(house, requestId);
+        Map<Key, Boolean> stripe = stripe(key);
+        Boolean result;
+        synchronized (stripe) {
+            result = stripe.get(key);
+        }
+        if (result != null) duplicates.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Remembers the outcome of a new request
+     * @param house account id of the auction house that sent the request
+     * @param requestId the request's id
+     * @param result the outcome
+     */
+    void record(long house, long requestId, boolean result) {
+        if (requestId == 0) return;
+        Key key = new Key(house, requestId);
+        Map<Key, Boolean> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, result);
+        }
+    }
+
+    /**
+     * Checks and remembers a request in one step, for requests without an outcome to repeat
+     * @param house account id of the auction house that sent the request
+     * @param requestId the request's id
+     * @return true the first time the request is seen
+     */
+    boolean firstTime(long house, long requestId) {
+        if (requestId == 0) return true;
+        Key key = new Key(house, requestId);
+        Map<Key, Boolean> stripe = stripe(key);
+        boolean first;
+        synchronized (stripe) {
+            first = stripe.putIfAbsent(key, Boolean.TRUE) == null;
+        }
+        if (!first) duplicates.incrementAndGet();
+        return first;
+    }
+
+    /**
+     * Forgets a request that was not applied after all, so it can be sent again
+     * @param house account id of the auction house that sent the request
+     * @param requestId the request's id
+     */
+    void forget(long house, long requestId) {
+        if (requestId == 0) return;
+        Key key = new Key(house, requestId);
+        Map<Key, Boolean> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.remove(key);
+        }
+    }
+
+    /**
+     * @return number of repeated requests caught
+     */
+    long duplicates() {
+        return duplicates.get();
+    }
+
+    private Map<Key, Boolean> stripe(Key key) {
+        return stripes.get(Math.floorMod(key.hashCode(), STRIPES));
+    }
+}
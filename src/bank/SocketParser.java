@@ -6,12 +6,11 @@ package bank;
 
 import general.Message;
 import general.Message.*;
+import general.Transport;
 
 import java.net.Socket;
 import java.util.concurrent.BlockingQueue;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 /**
  * reads messages from the sockets and calls the appropriate method in the bank class based
@@ -49,16 +48,19 @@ public class SocketParser implements Runnable {
         while (loop) {
             try {
                 Socket socket = sockets.take();
-                ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-                out.flush();
-                ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
-                Message m = (Message) in.readObject();
+                Transport.Streams streams = Transport.open(socket);
+                Message m = streams.in().read();
                 if (m instanceof NewAgent newAgent) {
-                    bank.addAgent(newAgent, in, out);
+                    bank.addAgent(newAgent, streams.in(), streams.out());
                 } else if (m instanceof NewAuctionHouse newAuctionHouse) {
-                    bank.addAH(socket, newAuctionHouse, in, out);
+                    bank.addAH(socket.getInetAddress().getHostName(), newAuctionHouse, streams.in(), streams.out());
+                } else if (m instanceof PeerHello hello) {
+                    bank.addPeer(hello, streams.in(), streams.out());
+                } else if (m instanceof ReplicaHello) {
+                    bank.addStandby(streams.in(), streams.out());
                 } else {
                     System.out.println("Invalid message from new socket");
+                    streams.out().close();
                 }
             } catch (InterruptedException e) {
                 System.out.println("Reader interrupted waiting for socket: " + e.getMessage());
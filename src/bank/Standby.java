@@ -0,0 +1,182 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Bank Standby
+ */
+package bank;
+
+import general.Message;
+import general.Message.*;
+import general.SocketData;
+import general.Transport;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a bank as a hot standby of a primary bank. It connects to the primary, receives a
+ * snapshot of the ledger followed by every change, and applies them as they arrive. The standby
+ * only takes over the bank's listening port once the primary is gone, which it tells by being
+ * able to bind that port itself: a primary that is only paused, by a long collection for
+ * instance, still holds it. When the connection drops while the primary holds the port, or
+ * updates arrive out of order, the standby connects again and starts from a new snapshot. When
+ * nothing arrives for the timeout (the primary sends heartbeats) the port is checked, and the
+ * connection is dropped if it is free.
+ * Started with -Dbank.standby=host:port naming the primary.
+ */
+public class Standby implements Runnable {
+    private static final long RETRY_MILLIS = 500;
+    private static final long ACK_MILLIS = 10;
+
+    private final Bank bank;
+    private final SocketData primary;
+    private final int timeoutMillis;
+    private volatile long applied = -1;
+    private volatile long lagMillis;
+    private volatile long lastHeard; // System.nanoTime() the last update arrived
+    private volatile Socket socket; // the connection being followed, or null
+
+    /**
+     * Constructor
+     * @param bank the bank to keep up to date
+     * @param primary address of the primary bank
+     * @param timeoutMillis silence after which the standby checks whether the primary still holds its port
+     */
+    protected Standby(Bank bank, SocketData primary, int timeoutMillis) {
+        this.bank = bank;
+        this.primary = primary;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return sequence number of the last update applied, -1 before the first snapshot
+     */
+    protected long applied() {
+        return applied;
+    }
+
+    /**
+     * @return milliseconds between the primary sending the last update and it being applied here
+     */
+    protected long lagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * Follows the primary, connecting again as long as it holds its port, then has the bank take over
+     */
+    @Override
+    public void run() {
+        Thread watchdog = new Thread(this::watch, "standby-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+        Transport.Streams streams = connect(false);
+        while (streams != null) {
+            follow(streams);
+            socket = null;
+            streams.out().close();
+            if (bank.portFree()) break;
+            System.out.println("Primary still holds port " + primary.port() + ", following it again");
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            streams = connect(true);
+        }
+        watchdog.interrupt();
+        bank.takeOver();
+    }
+
+    /**
+     * Applies the primary's updates until the connection drops or an update is missing
+     * @param streams the connection to the primary
+     */
+    private void follow(Transport.Streams streams) {
+        long lastAck = 0;
+        try {
+            while (true) {
+                Message m = streams.in().read();
+                lastHeard = System.nanoTime();
+                if (!(m instanceof LedgerUpdate update)) continue;
+                if (!update.snapshot() && update.sequence() != applied + (update.records().length > 0 ? 1 : 0)) {
+                    System.out.println("Error: Replication gap at update " + update.sequence() + ", reconnecting");
+                    return;
+                }
+                bank.applyReplicated(update);
+                applied = update.sequence();
+                lagMillis = System.currentTimeMillis() - update.sentMillis();
+                long now = System.currentTimeMillis();
+                if (now - lastAck >= ACK_MILLIS) {
+                    streams.out().send(new ReplicaAck(applied));
+                    lastAck = now;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Primary connection lost (" + e.getMessage() + ") after update " + applied +
+                    ", last lag " + lagMillis + " ms");
+        } catch (ClassNotFoundException e) {
+            System.out.println("Error: Invalid message from primary: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks on a quiet primary. If its port is free the primary is gone, and the connection is
+     * closed so the standby stops waiting on it; otherwise the standby keeps following.
+     */
+    private void watch() {
+        boolean quiet = false;
+        while (true) {
+            try {
+                Thread.sleep(timeoutMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            Socket following = socket;
+            if (following == null || System.nanoTime() - lastHeard < TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+                quiet = false;
+                continue;
+            }
+            if (bank.portFree()) {
+                System.out.println("Primary quiet and its port is free");
+                try {
+                    following.close();
+                } catch (IOException ignored) {
+                    // the reader sees the connection closed either way
+                }
+            } else if (!quiet) {
+                System.out.println("Primary quiet for " + timeoutMillis + " ms but still holds its port");
+                quiet = true;
+            }
+        }
+    }
+
+    /**
+     * Connects to the primary, waiting for it to come up
+     * @param again true after following it before, so the wait ends if its port is free
+     * @return the connection, or null if interrupted or the primary is gone
+     */
+    private Transport.Streams connect(boolean again) {
+        boolean waiting = false;
+        while (true) {
+            try {
+                Socket s = new Socket(primary.hostname(), primary.port());
+                Transport.Streams streams = Transport.open(s);
+                lastHeard = System.nanoTime();
+                socket = s;
+                streams.out().send(new ReplicaHello());
+                System.out.println("Standby of bank at " + primary.hostname() + ":" + primary.port());
+                return streams;
+            } catch (IOException e) {
+                if (again && bank.portFree()) return null;
+                if (!waiting) System.out.println("Waiting for primary bank: " + e.getMessage());
+                waiting = true;
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+    }
+}
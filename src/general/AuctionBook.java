@@ -0,0 +1,78 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Auction Book
+ */
+package general;
+
+import general.Message.AuctionUpdate;
+import general.Message.NewAuctions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An agent's copy of one auction house's open auctions. A NewAuctions snapshot sets the whole list
+ * and the sequence number it is as of, and each AuctionUpdate after it is applied only if it has
+ * the next number. Updates that arrive before the first snapshot are ignored, since the snapshot
+ * already covers them. A missing number means a change was lost: the book is dropped until a new
+ * snapshot comes, and apply returns false so the agent can ask for one with ResyncAuctions.
+ */
+public class AuctionBook {
+    private static final LongAdder GAPS = Metrics.counter("agent_auction_update_gaps");
+
+    private final List<AuctionData> auctions = new ArrayList<>();
+    private long sequence = -1; // number of the last change applied, -1 while waiting for a snapshot
+    private List<AuctionData> view = List.of(); // read-only copy, null when out of date
+
+    /**
+     * Replaces the whole list
+     * @param snapshot the auction house's list and its sequence number
+     */
+    public synchronized void snapshot(NewAuctions snapshot) {
+        auctions.clear();
+        auctions.addAll(snapshot.auctionListings());
+        sequence = snapshot.sequence();
+        view = null;
+    }
+
+    /**
+     * Applies one change
+     * @param update the change
+     * @return false if changes were missed and a new snapshot is needed
+     */
+    public synchronized boolean apply(AuctionUpdate update) {
+        if (sequence < 0 || update.sequence() <= sequence) return true;
+        if (update.sequence() != sequence + 1) {
+            GAPS.increment();
+            sequence = -1;
+            return false;
+        }
+        sequence = update.sequence();
+        int index = indexOf(update.replaces());
+        if (update.auction() == null) {
+            if (index >= 0) auctions.remove(index);
+        } else if (index >= 0) {
+            auctions.set(index, update.auction());
+        } else {
+            auctions.add(update.auction());
+        }
+        view = null;
+        return true;
+    }
+
+    /**
+     * @return the open auctions, a read-only list that later changes do not touch
+     */
+    public synchronized List<AuctionData> auctions() {
+        if (view == null) view = List.copyOf(auctions);
+        return view;
+    }
+
+    private int indexOf(int id) {
+        for (int i = 0; i < auctions.size(); i++) {
+            if (auctions.get(i).ID() == id) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,365 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Binary Codec
+ */
+package general;
+
+import general.Message.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written binary encoding of the Message records, used for frames when the binary codec
+ * is chosen. Every frame body starts with a one byte tag naming the record, followed by its
+ * fields: ints and lengths as varints, doubles as 8 bytes, strings as a varint of length + 1
+ * (0 for null) plus UTF-8 bytes. A bid's trace is a varint of hops + 1 (0 for none), its id, then
+ * each hop's name and stamp. Records without a tag are written with tag 0 followed by Java serialization,
+ * so new message types work before they are given a tag here.
+ */
+public final class BinaryCodec {
+    private static final byte SERIALIZED = 0;
+    private static final byte AGENT_MADE = 1;
+    private static final byte NEW_AGENT = 2;
+    private static final byte REGISTER_AGENT = 3;
+    private static final byte NEW_BID = 4;
+    private static final byte NEW_HOLD = 5;
+    private static final byte CONFIRM_HOLD = 6;
+    private static final byte END_HOLD = 7;
+    private static final byte CLOSE_AGENT = 8;
+    private static final byte AUCTION_LIST = 9;
+    private static final byte AUCTION_HOUSE_MADE = 10;
+    private static final byte NEW_AUCTION_HOUSE = 11;
+    private static final byte NEW_AUCTIONS = 12;
+    private static final byte AUCTION_OVER = 13;
+    private static final byte AUCTION_WON = 14;
+    private static final byte AUCTION_HOUSE_CLOSED = 15;
+    private static final byte CONFIRM_BID = 16;
+    private static final byte UPDATE_MONEY = 17;
+    private static final byte PEER_HELLO = 18;
+    private static final byte FORWARDED = 19;
+    private static final byte DELIVER = 20;
+    private static final byte HOUSE_CREDIT = 21;
+    private static final byte PEER_HOUSE = 22;
+    private static final byte REPLICA_HELLO = 23;
+    private static final byte LEDGER_UPDATE = 24;
+    private static final byte REPLICA_ACK = 25;
+    private static final byte SETTLE_BATCH = 26;
+    private static final byte NEW_LEASE = 27;
+    private static final byte LEASE_GRANTED = 28;
+    private static final byte LEASE_HOLD = 29;
+    private static final byte END_LEASE = 30;
+    private static final byte LEASE_REVOKED = 31;
+    private static final byte AUCTION_UPDATE = 32;
+    private static final byte RESYNC_AUCTIONS = 33;
+    private static final byte CREDIT_ACK = 34;
+
+    private static final ThreadLocal<Out> SCRATCH = ThreadLocal.withInitial(Out::new);
+
+    private BinaryCodec() {}
+
+    /**
+     * Encodes one message
+     * @param m the message
+     * @return the frame body
+     * @throws IOException if an untagged message cannot be serialized
+     */
+    public static byte[] encode(Message m) throws IOException {
+        Out out = SCRATCH.get();
+        out.pos = 0;
+        write(out, m);
+        return Arrays.copyOf(out.buf, out.pos);
+    }
+
+    private static void write(Out out, Message m) throws IOException {
+        if (m instanceof AgentMade r) {
+            out.tag(AGENT_MADE).string(r.accountNumber());
+        } else if (m instanceof NewAgent r) {
+            out.tag(NEW_AGENT).string(r.name()).putDouble(r.startBal());
+        } else if (m instanceof RegisterAgent r) {
+            out.tag(REGISTER_AGENT).string(r.accountNumber()).string(r.name());
+        } else if (m instanceof NewBid r) {
+            out.tag(NEW_BID).string(r.item()).varint(r.id()).putDouble(r.bid()).string(r.accountNumber()).trace(r.trace());
+        } else if (m instanceof NewHold r) {
+            out.tag(NEW_HOLD).string(r.accountNumber()).putDouble(r.amount()).string(r.accAndID()).varint(r.idNum())
+                    .putLong(r.requestId()).trace(r.trace());
+        } else if (m instanceof ConfirmHold r) {
+            out.tag(CONFIRM_HOLD).bool(r.success()).string(r.item()).string(r.accountNumber()).varint(r.id())
+                    .putLong(r.requestId()).trace(r.trace());
+        } else if (m instanceof EndHold r) {
+            out.tag(END_HOLD).string(r.accNum()).putDouble(r.amount()).string(r.item()).putLong(r.requestId());
+        } else if (m instanceof CloseAgent r) {
+            out.tag(CLOSE_AGENT).string(r.accountNumber());
+        } else if (m instanceof AuctionList r) {
+            out.tag(AUCTION_LIST).varint(r.houses().size());
+            for (Map.Entry<String, SocketData> e : r.houses().entrySet()) {
+                out.string(e.getKey()).string(e.getValue().hostname()).varint(e.getValue().port());
+            }
+        } else if (m instanceof AuctionHouseMade r) {
+            out.tag(AUCTION_HOUSE_MADE).string(r.accountNumber());
+        } else if (m instanceof NewAuctionHouse r) {
+            out.tag(NEW_AUCTION_HOUSE).string(r.name()).varint(r.port());
+        } else if (m instanceof NewAuctions r) {
+            out.tag(NEW_AUCTIONS).string(r.name()).putLong(r.sequence()).varint(r.auctionListings().size());
+            for (AuctionData d : r.auctionListings()) out.auction(d);
+        } else if (m instanceof AuctionUpdate r) {
+            out.tag(AUCTION_UPDATE).string(r.name()).putLong(r.sequence()).varint(r.replaces()).bool(r.auction() != null);
+            if (r.auction() != null) out.auction(r.auction());
+        } else if (m instanceof ResyncAuctions r) {
+            out.tag(RESYNC_AUCTIONS).string(r.accountNumber());
+        } else if (m instanceof AuctionOver r) {
+            out.tag(AUCTION_OVER).string(r.ahNum()).string(r.agentNum()).string(r.item()).putDouble(r.amount())
+                    .putLong(r.requestId());
+        } else if (m instanceof SettleBatch r) {
+            out.tag(SETTLE_BATCH).string(r.ahNum()).varint(r.outcomes().size());
+            for (AuctionOver o : r.outcomes()) {
+                out.string(o.agentNum()).string(o.item()).putDouble(o.amount()).putLong(o.requestId());
+            }
+        } else if (m instanceof NewLease r) {
+            out.tag(NEW_LEASE).string(r.accountNumber()).string(r.ahNum()).putDouble(r.amount()).putLong(r.requestId());
+        } else if (m instanceof LeaseGranted r) {
+            out.tag(LEASE_GRANTED).string(r.accountNumber()).putDouble(r.amount()).putLong(r.millis())
+                    .putLong(r.requestId());
+        } else if (m instanceof LeaseHold r) {
+            out.tag(LEASE_HOLD).string(r.accountNumber()).putDouble(r.amount()).string(r.accAndID()).varint(r.idNum())
+                    .putLong(r.requestId());
+        } else if (m instanceof EndLease r) {
+            out.tag(END_LEASE).string(r.accountNumber()).string(r.ahNum()).putLong(r.requestId());
+        } else if (m instanceof LeaseRevoked r) {
+            out.tag(LEASE_REVOKED).string(r.accountNumber()).string(r.ahNum());
+        } else if (m instanceof AuctionWon r) {
+            out.tag(AUCTION_WON).string(r.item()).putDouble(r.amount());
+        } else if (m instanceof AuctionHouseClosed r) {
+            out.tag(AUCTION_HOUSE_CLOSED).string(r.accountNumber());
+        } else if (m instanceof ConfirmBid r) {
+            out.tag(CONFIRM_BID).bool(r.success()).string(r.item()).string(r.name()).trace(r.trace());
+        } else if (m instanceof UpdateMoney r) {
+            out.tag(UPDATE_MONEY).putDouble(r.amount()).putDouble(r.hold());
+        } else if (m instanceof PeerHello r) {
+            out.tag(PEER_HELLO).varint(r.node());
+        } else if (m instanceof Forwarded r) {
+            out.tag(FORWARDED).varint(r.from()).string(r.replyTo());
+            write(out, r.message());
+        } else if (m instanceof Deliver r) {
+            out.tag(DELIVER).string(r.accountNumber());
+            write(out, r.message());
+        } else if (m instanceof HouseCredit r) {
+            out.tag(HOUSE_CREDIT).string(r.ahNum()).string(r.agentNum()).string(r.item()).putDouble(r.amount())
+                    .varint(r.from());
+        } else if (m instanceof CreditAck r) {
+            out.tag(CREDIT_ACK).string(r.item());
+        } else if (m instanceof PeerHouse r) {
+            out.tag(PEER_HOUSE).string(r.accountNumber()).string(r.name())
+                    .string(r.socketData().hostname()).varint(r.socketData().port()).bool(r.open());
+        } else if (m instanceof ReplicaHello) {
+            out.tag(REPLICA_HELLO);
+        } else if (m instanceof LedgerUpdate r) {
+            out.tag(LEDGER_UPDATE).putLong(r.sequence()).putLong(r.sentMillis()).bool(r.snapshot())
+                    .varint(r.records().length).bytes(r.records(), r.records().length);
+        } else if (m instanceof ReplicaAck r) {
+            out.tag(REPLICA_ACK).putLong(r.sequence());
+        } else {
+            byte[] serialized = Transport.serialize(m);
+            out.tag(SERIALIZED).bytes(serialized, serialized.length);
+        }
+    }
+
+    /**
+     * Decodes one message
+     * @param in buffer positioned at the start of the frame body, limited to its end
+     * @return the message
+     * @throws IOException if the frame is malformed
+     * @throws ClassNotFoundException if a serialized message class is unknown
+     */
+    public static Message decode(ByteBuffer in) throws IOException, ClassNotFoundException {
+        try {
+            return read(in);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed binary message: " + e, e);
+        }
+    }
+
+    private static Message read(ByteBuffer in) throws IOException, ClassNotFoundException {
+        byte tag = in.get();
+        return switch (tag) {
+            case SERIALIZED -> Transport.deserialize(in);
+            case AGENT_MADE -> new AgentMade(string(in));
+            case NEW_AGENT -> new NewAgent(string(in), in.getDouble());
+            case REGISTER_AGENT -> new RegisterAgent(string(in), string(in));
+            case NEW_BID -> new NewBid(string(in), varint(in), in.getDouble(), string(in), trace(in));
+            case NEW_HOLD -> new NewHold(string(in), in.getDouble(), string(in), varint(in), in.getLong(), trace(in));
+            case CONFIRM_HOLD -> new ConfirmHold(in.get() != 0, string(in), string(in), varint(in), in.getLong(), trace(in));
+            case END_HOLD -> new EndHold(string(in), in.getDouble(), string(in), in.getLong());
+            case CLOSE_AGENT -> new CloseAgent(string(in));
+            case AUCTION_LIST -> {
+                int count = varint(in);
+                Map<String, SocketData> houses = new HashMap<>();
+                for (int i = 0; i < count; i++) {
+                    houses.put(string(in), new SocketData(string(in), varint(in)));
+                }
+                yield new AuctionList(houses);
+            }
+            case AUCTION_HOUSE_MADE -> new AuctionHouseMade(string(in));
+            case NEW_AUCTION_HOUSE -> new NewAuctionHouse(string(in), varint(in));
+            case NEW_AUCTIONS -> {
+                String name = string(in);
+                long sequence = in.getLong();
+                int count = varint(in);
+                List<AuctionData> listings = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) listings.add(auction(in));
+                yield new NewAuctions(name, sequence, listings);
+            }
+            case AUCTION_UPDATE -> new AuctionUpdate(string(in), in.getLong(), varint(in),
+                    in.get() != 0 ? auction(in) : null);
+            case RESYNC_AUCTIONS -> new ResyncAuctions(string(in));
+            case AUCTION_OVER -> new AuctionOver(string(in), string(in), string(in), in.getDouble(), in.getLong());
+            case SETTLE_BATCH -> {
+                String ahNum = string(in);
+                int count = varint(in);
+                List<AuctionOver> outcomes = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    outcomes.add(new AuctionOver(ahNum, string(in), string(in), in.getDouble(), in.getLong()));
+                }
+                yield new SettleBatch(ahNum, outcomes);
+            }
+            case NEW_LEASE -> new NewLease(string(in), string(in), in.getDouble(), in.getLong());
+            case LEASE_GRANTED -> new LeaseGranted(string(in), in.getDouble(), in.getLong(), in.getLong());
+            case LEASE_HOLD -> new LeaseHold(string(in), in.getDouble(), string(in), varint(in), in.getLong());
+            case END_LEASE -> new EndLease(string(in), string(in), in.getLong());
+            case LEASE_REVOKED -> new LeaseRevoked(string(in), string(in));
+            case AUCTION_WON -> new AuctionWon(string(in), in.getDouble());
+            case AUCTION_HOUSE_CLOSED -> new AuctionHouseClosed(string(in));
+            case CONFIRM_BID -> new ConfirmBid(in.get() != 0, string(in), string(in), trace(in));
+            case UPDATE_MONEY -> new UpdateMoney(in.getDouble(), in.getDouble());
+            case PEER_HELLO -> new PeerHello(varint(in));
+            case FORWARDED -> new Forwarded(varint(in), string(in), read(in));
+            case DELIVER -> new Deliver(string(in), read(in));
+            case HOUSE_CREDIT -> new HouseCredit(string(in), string(in), string(in), in.getDouble(), varint(in));
+            case CREDIT_ACK -> new CreditAck(string(in));
+            case PEER_HOUSE -> new PeerHouse(string(in), string(in),
+                    new SocketData(string(in), varint(in)), in.get() != 0);
+            case REPLICA_HELLO -> new ReplicaHello();
+            case LEDGER_UPDATE -> {
+                long sequence = in.getLong();
+                long sentMillis = in.getLong();
+                boolean snapshot = in.get() != 0;
+                byte[] records = new byte[varint(in)];
+                in.get(records);
+                yield new LedgerUpdate(sequence, sentMillis, snapshot, records);
+            }
+            case REPLICA_ACK -> new ReplicaAck(in.getLong());
+            default -> throw new IOException("Unknown message tag " + tag);
+        };
+    }
+
+    private static AuctionData auction(ByteBuffer in) {
+        return new AuctionData(string(in), varint(in), in.getDouble(), string(in));
+    }
+
+    private static Trace trace(ByteBuffer in) {
+        int hops = varint(in) - 1;
+        if (hops < 0) return null;
+        Trace trace = new Trace(in.getLong());
+        for (int i = 0; i < hops; i++) trace.hop(string(in), in.getLong());
+        return trace;
+    }
+
+    private static int varint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+
+    private static String string(ByteBuffer in) {
+        int length = varint(in) - 1;
+        if (length < 0) return null;
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    /**
+     * Growable scratch buffer, one per encoding thread
+     */
+    private static class Out {
+        private byte[] buf = new byte[512];
+        private int pos;
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+
+        private Out tag(byte tag) {
+            ensure(1);
+            buf[pos++] = tag;
+            return this;
+        }
+
+        private Out bool(boolean b) {
+            return tag(b ? (byte) 1 : 0);
+        }
+
+        private Out varint(int value) {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+            return this;
+        }
+
+        private Out putDouble(double d) {
+            return putLong(Double.doubleToRawLongBits(d));
+        }
+
+        private Out putLong(long bits) {
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) buf[pos++] = (byte) (bits >>> i);
+            return this;
+        }
+
+        private Out string(String s) {
+            if (s == null) return varint(0);
+            int length = s.length();
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) ascii = s.charAt(i) < 0x80;
+            if (ascii) {
+                varint(length + 1);
+                ensure(length);
+                for (int i = 0; i < length; i++) buf[pos++] = (byte) s.charAt(i);
+                return this;
+            }
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            return varint(utf8.length + 1).bytes(utf8, utf8.length);
+        }
+
+        private Out bytes(byte[] b, int length) {
+            ensure(length);
+            System.arraycopy(b, 0, buf, pos, length);
+            pos += length;
+            return this;
+        }
+
+        private Out trace(Trace t) {
+            if (t == null) return varint(0);
+            varint(t.size() + 1).putLong(t.id());
+            for (int i = 0; i < t.size(); i++) string(t.where(i)).putLong(t.at(i));
+            return this;
+        }
+
+        private Out auction(AuctionData d) {
+            return string(d.item()).varint(d.ID()).putDouble(d.winningBid()).string(d.winningAgent());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Histogram
+ */
+package general;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values, usually nanoseconds, in the style of an HDR histogram.
+ * Values below 32 get a bucket each; above that every power of two is split into 16 buckets, so
+ * a recorded value is off by at most about 6% and the whole range of a long fits in under
+ * a thousand counters. Recording is one array increment, safe from any number of threads.
+ * Percentiles are read without stopping writers, so they may miss values recorded meanwhile.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one value
+     * @param value the value, negative values count as 0
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucket(value));
+        total.incrementAndGet();
+        if (value > max.get()) max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long count() {
+        return total.get();
+    }
+
+    /**
+     * @return largest value recorded
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1, for example 0.99
+     * @return the value at or below which that fraction of the recorded values lie, 0 if none
+     */
+    public long percentile(double quantile) {
+        long count = total.get();
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highest(i), max.get());
+        }
+        return max.get();
+    }
+
+    private static int bucket(long value) {
+        if (value < 2 * SUB) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB + (int) (value >>> shift);
+    }
+
+    private static long highest(int bucket) {
+        if (bucket < 2 * SUB) return bucket;
+        int shift = bucket / SUB - 1;
+        long lowest = (long) (bucket - shift * SUB) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
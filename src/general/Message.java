@@ -12,23 +12,65 @@ import java.util.Map;
  * Message interface defines messages that can be exchanged within the distributed auction system.
  * each message is defined as a record with a specific set of fields
  * implements serializable
+ * Requests to the bank carry a requestId chosen by the sender, echoed in the reply, so replies
+ * can be matched directly and a repeated request is not applied twice. 0 means no id.
+ * A SettleBatch carries several AuctionOver outcomes of one auction house, each with its own id.
+ * Messages sent on behalf of a bid carry the bid's Trace, or null when it is not traced.
+ * A credit lease sets aside part of an agent's balance for one auction house for a while. The
+ * house accepts bids against it without waiting for the bank, and sends each one afterwards as
+ * a LeaseHold. A LeaseGranted of 0 means no lease; EndLease gives back what is left of one.
+ * An auction house numbers every change to its auctions. NewAuctions is the whole list as of a
+ * sequence number, sent to an agent that joins or asks with ResyncAuctions; after it each change
+ * comes as an AuctionUpdate with the next number. An update replaces the auction with id replaces
+ * by auction, which is the same auction when a bid was accepted, and null when it closed.
+ * A HouseCredit is sent again until the bank it went to answers with a CreditAck for its item.
  */
 public interface Message {
+    /**
+     * A message that may carry a bid's trace
+     */
+    interface Traced {
+        Trace trace();
+    }
+
     record AgentMade(String accountNumber) implements Message, Serializable {}
     record NewAgent(String name, double startBal) implements Message, Serializable {}
     record RegisterAgent(String accountNumber, String name) implements Message, Serializable {}
-    record NewBid(String item, int id, double bid, String accountNumber) implements Message, Serializable {}
-    record NewHold(String accountNumber, double amount, String accAndID, int idNum) implements Message, Serializable {}
-    record ConfirmHold(boolean success, String item, String accountNumber, int id) implements Message, Serializable {}
-    record EndHold(String accNum, double amount, String item) implements Message, Serializable {}
+    record NewBid(String item, int id, double bid, String accountNumber, Trace trace) implements Message, Traced, Serializable {}
+    record NewHold(String accountNumber, double amount, String accAndID, int idNum, long requestId, Trace trace) implements Message, Traced, Serializable {}
+    record ConfirmHold(boolean success, String item, String accountNumber, int id, long requestId, Trace trace) implements Message, Traced, Serializable {}
+    record EndHold(String accNum, double amount, String item, long requestId) implements Message, Serializable {}
     record CloseAgent(String accountNumber) implements Message, Serializable {}
     record AuctionList(Map<String, SocketData> houses) implements Message, Serializable {}
     record AuctionHouseMade(String accountNumber) implements Message, Serializable {}
     record NewAuctionHouse(String name, int port) implements Message, Serializable {}
-    record NewAuctions(String name, List<AuctionData> auctionListings) implements Message, Serializable {}
-    record AuctionOver(String  ahNum, String agentNum, String item, double amount) implements Message, Serializable {}
+    record NewAuctions(String name, long sequence, List<AuctionData> auctionListings) implements Message, Serializable {}
+    record AuctionUpdate(String name, long sequence, int replaces, AuctionData auction) implements Message, Serializable {}
+    record ResyncAuctions(String accountNumber) implements Message, Serializable {}
+    record AuctionOver(String  ahNum, String agentNum, String item, double amount, long requestId) implements Message, Serializable {}
+    record SettleBatch(String ahNum, List<AuctionOver> outcomes) implements Message, Serializable {}
     record AuctionWon(String item, double amount) implements Message, Serializable {}
     record AuctionHouseClosed(String accountNumber) implements Message, Serializable {}
-    record ConfirmBid(boolean success, String item, String name) implements Message, Serializable {}
+    record ConfirmBid(boolean success, String item, String name, Trace trace) implements Message, Traced, Serializable {}
     record UpdateMoney (double amount, double hold) implements Message, Serializable {}
+
+    // credit leases between an auction house and the bank
+    record NewLease(String accountNumber, String ahNum, double amount, long requestId) implements Message, Serializable {}
+    record LeaseGranted(String accountNumber, double amount, long millis, long requestId) implements Message, Serializable {}
+    record LeaseHold(String accountNumber, double amount, String accAndID, int idNum, long requestId) implements Message, Serializable {}
+    record EndLease(String accountNumber, String ahNum, long requestId) implements Message, Serializable {}
+    record LeaseRevoked(String accountNumber, String ahNum) implements Message, Serializable {}
+
+    // between bank nodes in cluster mode
+    record PeerHello(int node) implements Message, Serializable {}
+    record Forwarded(int from, String replyTo, Message message) implements Message, Serializable {}
+    record Deliver(String accountNumber, Message message) implements Message, Serializable {}
+    record HouseCredit(String ahNum, String agentNum, String item, double amount, int from) implements Message, Serializable {}
+    record CreditAck(String item) implements Message, Serializable {}
+    record PeerHouse(String accountNumber, String name, SocketData socketData, boolean open) implements Message, Serializable {}
+
+    // between a primary bank and its standby
+    record ReplicaHello() implements Message, Serializable {}
+    record LedgerUpdate(long sequence, long sentMillis, boolean snapshot, byte[] records) implements Message, Serializable {}
+    record ReplicaAck(long sequence) implements Message, Serializable {}
 }
@@ -0,0 +1,162 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Message Queue
+ */
+package general;
+
+import javafx.util.Pair;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unbounded queue of received messages that measures how long each one waited. Every message is
+ * stamped when it is queued, and when it is taken the wait goes into a histogram for its
+ * message type, queue_wait_nanos{queue="name",type="NewHold"}. The queue's depth is published
+ * as queue_depth{queue="name"}. Used wherever a LinkedBlockingQueue of messages was used before.
+ * Traced messages also get a "name.queued" and a "name.taken" hop.
+ */
+public class MessageQueue extends AbstractQueue<Pair<Message, MessageWriter>>
+        implements BlockingQueue<Pair<Message, MessageWriter>> {
+    private record Stamped(Pair<Message, MessageWriter> item, long queued) {}
+
+    private final BlockingQueue<Stamped> queue = new LinkedBlockingQueue<>();
+    private final Map<Class<?>, Histogram> waits = new ConcurrentHashMap<>();
+    private final String name;
+    private final String queuedHop;
+    private final String takenHop;
+
+    /**
+     * Constructor
+     * @param name queue label in the metrics, for example "bank.messages"
+     */
+    public MessageQueue(String name) {
+        this(name, true);
+    }
+
+    /**
+     * Constructor
+     * @param name queue label in the metrics, for example "bank.messages"
+     * @param gauge false when the owner publishes the depth itself, as when many queues share a name
+     */
+    public MessageQueue(String name, boolean gauge) {
+        this.name = name;
+        queuedHop = name + ".queued";
+        takenHop = name + ".taken";
+        if (gauge) Metrics.gauge("queue_depth{queue=\"" + name + "\"}", queue::size);
+    }
+
+    @Override
+    public void put(Pair<Message, MessageWriter> item) throws InterruptedException {
+        queue.put(stamp(item));
+    }
+
+    @Override
+    public boolean offer(Pair<Message, MessageWriter> item) {
+        return queue.offer(stamp(item));
+    }
+
+    @Override
+    public boolean offer(Pair<Message, MessageWriter> item, long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.offer(stamp(item), timeout, unit);
+    }
+
+    @Override
+    public Pair<Message, MessageWriter> take() throws InterruptedException {
+        return taken(queue.take());
+    }
+
+    @Override
+    public Pair<Message, MessageWriter> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return taken(queue.poll(timeout, unit));
+    }
+
+    @Override
+    public Pair<Message, MessageWriter> poll() {
+        return taken(queue.poll());
+    }
+
+    @Override
+    public Pair<Message, MessageWriter> peek() {
+        Stamped head = queue.peek();
+        return head == null ? null : head.item();
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return queue.remainingCapacity();
+    }
+
+    @Override
+    public int drainTo(Collection<? super Pair<Message, MessageWriter>> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Pair<Message, MessageWriter>> c, int maxElements) {
+        int drained = 0;
+        Stamped head;
+        while (drained < maxElements && (head = queue.poll()) != null) {
+            c.add(taken(head));
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public Iterator<Pair<Message, MessageWriter>> iterator() {
+        Iterator<Stamped> it = queue.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Pair<Message, MessageWriter> next() {
+                return it.next().item();
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+            }
+        };
+    }
+
+    private Stamped stamp(Pair<Message, MessageWriter> item) {
+        if (item == null) throw new NullPointerException();
+        Trace.hop(item.getKey(), queuedHop);
+        return new Stamped(item, System.nanoTime());
+    }
+
+    /**
+     * Records how long a message waited
+     * @param head the stamped message, or null
+     * @return the message and its writer, or null
+     */
+    private Pair<Message, MessageWriter> taken(Stamped head) {
+        if (head == null) return null;
+        long waited = System.nanoTime() - head.queued();
+        Class<?> type = head.item().getKey().getClass();
+        Histogram wait = waits.get(type);
+        if (wait == null) {
+            wait = waits.computeIfAbsent(type, t ->
+                    Metrics.histogram("queue_wait_nanos{queue=\"" + name + "\",type=\"" + t.getSimpleName() + "\"}"));
+        }
+        wait.record(waited);
+        Trace.hop(head.item().getKey(), takenHop);
+        return head.item();
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Message Writer Interface
+ */
+package general;
+
+/**
+ * Outbound side of one connection. Senders only enqueue, the transport behind the writer
+ * decides when the bytes reach the socket.
+ */
+public interface MessageWriter {
+    /** default number of messages a connection may have waiting */
+    int CAPACITY = Integer.getInteger("auction.outbound.capacity", 1024);
+
+    /**
+     * Queues a message for the peer without blocking.
+     * @param m message to send
+     * @return false if the connection is closed or had to be closed because its queue was full
+     */
+    boolean send(Message m);
+
+    /**
+     * @return the number of messages waiting to be written
+     */
+    int pending();
+
+    /**
+     * stops writing and closes the connection
+     */
+    void close();
+}
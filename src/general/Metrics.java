@@ -0,0 +1,119 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Metrics
+ */
+package general;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of counters, gauges and histograms. Counters are LongAdders, so hot
+ * paths never contend on them, and histograms are lock-free. With -Dmetrics.port=N the bank,
+ * auction house and agent serve every metric as plain text at http://localhost:N/metrics,
+ * one value per line in the Prometheus text format. The endpoint only listens on loopback.
+ * Names may carry labels, for example queue_depth{queue="bank.messages"}.
+ */
+public final class Metrics {
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /** bytes handed to sockets by every transport */
+    public static final LongAdder OUTBOUND_BYTES = counter("outbound_bytes");
+    /** connections currently open */
+    public static final LongAdder CONNECTIONS = counter("connections_open");
+
+    private Metrics() {}
+
+    /**
+     * @param name metric name, with labels if any
+     * @return the counter with that name, created on first use
+     */
+    public static LongAdder counter(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter != null ? counter : COUNTERS.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * Registers a value read each time the metrics are rendered, replacing any gauge with that name
+     * @param name metric name, with labels if any
+     * @param value reads the current value, must be cheap and thread safe
+     */
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /**
+     * @param name metric name, with labels if any
+     * @return the histogram with that name, created on first use
+     */
+    public static Histogram histogram(String name) {
+        Histogram histogram = HISTOGRAMS.get(name);
+        return histogram != null ? histogram : HISTOGRAMS.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /**
+     * @return every metric in the Prometheus text format, sorted by name
+     */
+    public static String render() {
+        Map<String, Long> lines = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> lines.put(name, counter.sum()));
+        GAUGES.forEach((name, gauge) -> lines.put(name, gauge.getAsLong()));
+        HISTOGRAMS.forEach((name, histogram) -> {
+            for (double q : QUANTILES) lines.put(label(name, "quantile=\"" + q + "\""), histogram.percentile(q));
+            lines.put(suffix(name, "_count"), histogram.count());
+            lines.put(suffix(name, "_max"), histogram.max());
+        });
+        StringBuilder text = new StringBuilder();
+        lines.forEach((name, value) -> text.append(name).append(' ').append(value).append('\n'));
+        return text.toString();
+    }
+
+    /**
+     * Starts the HTTP endpoint if -Dmetrics.port is set. Does nothing otherwise.
+     * @param process name printed with the endpoint's address
+     */
+    public static void serve(String process) {
+        int port = Integer.getInteger("metrics.port", 0);
+        if (port <= 0) return;
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            System.out.println(process + " metrics on http://localhost:" + port + "/metrics");
+        } catch (IOException e) {
+            System.out.println("Error: Cannot serve metrics on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    private static String label(String name, String label) {
+        int brace = name.indexOf('{');
+        if (brace < 0) return name + "{" + label + "}";
+        return name.substring(0, name.length() - 1) + "," + label + "}";
+    }
+
+    private static String suffix(String name, String suffix) {
+        int brace = name.indexOf('{');
+        if (brace < 0) return name + suffix;
+        return name.substring(0, brace) + suffix + name.substring(brace);
+    }
+}
@@ -0,0 +1,342 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * NIO Server
+ */
+package general;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector-based server for the framed transport. A fixed number of I/O threads, each with its
+ * own selector, serve every connection, so the number of connected peers no longer decides the
+ * number of threads. Complete frames are decoded on the I/O thread and handed to the handler,
+ * which normally puts them on the same message queue the stream listeners use.
+ * Outbound messages are serialized by the sending thread and queued on the connection; the
+ * I/O thread writes them whenever the socket can take more bytes.
+ * One server may listen on several ports, each with its own handler, so many auction houses
+ * in one process can share the same I/O threads.
+ */
+public class NioServer implements Runnable {
+    /**
+     * Receives decoded messages from the I/O threads. Must not block.
+     */
+    public interface Handler {
+        /**
+         * Called with the first message on a new connection
+         * @param connection writer for the new connection
+         * @param first the registration message
+         * @param peer address of the peer
+         */
+        void opened(MessageWriter connection, Message first, InetSocketAddress peer);
+
+        /**
+         * Called with every later message on the connection
+         * @param connection the connection the message arrived on
+         * @param m the message
+         */
+        void received(MessageWriter connection, Message m);
+    }
+
+    /**
+     * A listening port and the handler for the connections made to it
+     */
+    private record Listening(ServerSocketChannel server, Handler handler) {}
+
+    private final Loop[] loops;
+    private int next;
+
+    /**
+     * Constructor for a server listening on one port
+     * @param port the port number to listen on
+     * @param ioThreads number of I/O threads, the first one also accepts connections
+     * @param handler receives the decoded messages
+     * @throws IOException if the port cannot be opened
+     */
+    public NioServer(int port, int ioThreads, Handler handler) throws IOException {
+        this(ioThreads);
+        listen(port, handler);
+    }
+
+    /**
+     * Constructor for a server that listens on the ports later given to listen
+     * @param ioThreads number of I/O threads, the first one also accepts connections
+     * @throws IOException if a selector cannot be opened
+     */
+    public NioServer(int ioThreads) throws IOException {
+        loops = new Loop[Math.max(1, ioThreads)];
+        for (int i = 0; i < loops.length; i++) loops[i] = new Loop();
+    }
+
+    /**
+     * Starts listening on another port. May be called before or after the server is started.
+     * @param port the port number to listen on
+     * @param handler receives the decoded messages from connections to that port
+     * @return closes the port again, leaving its open connections alone
+     * @throws IOException if the port cannot be opened
+     */
+    public Closeable listen(int port, Handler handler) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        Listening listening = new Listening(server, handler);
+        loops[0].submit(() -> {
+            try {
+                server.register(loops[0].selector, SelectionKey.OP_ACCEPT, listening);
+            } catch (ClosedChannelException e) {
+                System.out.println("Error: Port " + port + " closed before it was listened on");
+            }
+        });
+        System.out.println("NIO server on port: " + server.socket().getLocalPort() +
+                " with " + loops.length + " I/O threads");
+        return () -> loops[0].submit(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.out.println("Error closing port " + port + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Starts the other I/O threads and runs the first one on this thread
+     */
+    @Override
+    public void run() {
+        for (int i = 1; i < loops.length; i++) new Thread(loops[i]).start();
+        loops[0].run();
+    }
+
+    /**
+     * sets the loop flag to false on every I/O thread
+     */
+    public void stop() {
+        for (Loop loop : loops) {
+            loop.loop = false;
+            loop.selector.wakeup();
+        }
+    }
+
+    /**
+     * One I/O thread and its selector
+     */
+    private class Loop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean loop = true;
+
+        private Loop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /**
+         * Runs a task on this I/O thread
+         */
+        private void submit(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (loop) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept((Listening) key.attachment());
+                            continue;
+                        }
+                        Channel channel = (Channel) key.attachment();
+                        if (key.isReadable()) channel.read();
+                        if (key.isValid() && key.isWritable()) channel.write();
+                    }
+                } catch (IOException e) {
+                    System.out.println("Error: IO error on NIO server: " + e.getMessage());
+                }
+            }
+        }
+
+        private void accept(Listening listening) throws IOException {
+            SocketChannel ch;
+            while ((ch = listening.server().accept()) != null) {
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+                Loop owner = loops[next++ % loops.length];
+                Channel channel = new Channel(ch, owner, listening.handler());
+                owner.submit(channel::register);
+            }
+        }
+    }
+
+    /**
+     * One connection. Doubles as the MessageWriter handed to the handler.
+     */
+    private class Channel implements MessageWriter {
+        private final SocketChannel ch;
+        private final Loop loop;
+        private final Handler handler;
+        private final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicBoolean writeRequested = new AtomicBoolean();
+        private ByteBuffer in = ByteBuffer.allocate(8192);
+        private SelectionKey key;
+        private boolean registered;
+        private volatile boolean open = true;
+
+        private Channel(SocketChannel ch, Loop loop, Handler handler) {
+            this.ch = ch;
+            this.loop = loop;
+            this.handler = handler;
+        }
+
+        private void register() {
+            try {
+                key = ch.register(loop.selector, SelectionKey.OP_READ, this);
+                Metrics.CONNECTIONS.increment();
+            } catch (ClosedChannelException e) {
+                open = false;
+            }
+        }
+
+        @Override
+        public boolean send(Message m) {
+            if (!open) return false;
+            ByteBuffer frame;
+            Trace.hop(m, Trace.SENT);
+            try {
+                byte[] body = Transport.encode(m);
+                frame = ByteBuffer.allocate(4 + body.length).putInt(body.length).put(body).flip();
+            } catch (IOException e) {
+                System.out.println("Error: Cannot encode message: " + e.getMessage());
+                return false;
+            }
+            if (queued.incrementAndGet() > CAPACITY) {
+                System.out.println("Error: Outbound queue full, disconnecting peer");
+                close();
+                return false;
+            }
+            out.add(frame);
+            if (writeRequested.compareAndSet(false, true)) {
+                loop.submit(() -> interest(SelectionKey.OP_READ | SelectionKey.OP_WRITE));
+            }
+            return true;
+        }
+
+        @Override
+        public int pending() {
+            return queued.get();
+        }
+
+        @Override
+        public void close() {
+            open = false;
+            loop.submit(() -> {
+                if (!ch.isOpen()) return;
+                if (key != null) {
+                    key.cancel();
+                    Metrics.CONNECTIONS.decrement();
+                }
+                try {
+                    ch.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing connection: " + e.getMessage());
+                }
+            });
+        }
+
+        private void interest(int ops) {
+            if (key != null && key.isValid()) key.interestOps(ops);
+        }
+
+        /**
+         * Reads what the socket has and hands every complete frame to the handler
+         */
+        private void read() {
+            int n;
+            try {
+                n = ch.read(in);
+            } catch (IOException e) {
+                n = -1;
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= 4) {
+                int start = in.position();
+                int length = in.getInt(start);
+                if (length < 0 || length > Transport.MAX_FRAME) {
+                    System.out.println("Error: Bad frame length " + length + ", disconnecting peer");
+                    close();
+                    return;
+                }
+                if (in.remaining() < 4 + length) {
+                    if (in.capacity() < 4 + length) {
+                        ByteBuffer bigger = ByteBuffer.allocate(Integer.highestOneBit(4 + length) << 1);
+                        bigger.put(in);
+                        in = bigger;
+                        return;
+                    }
+                    break;
+                }
+                ByteBuffer frame = in.slice(start + 4, length);
+                in.position(start + 4 + length);
+                try {
+                    dispatch(Transport.decode(frame));
+                } catch (IOException | ClassNotFoundException e) {
+                    System.out.println("Error: Invalid incoming frame: " + e.getMessage());
+                }
+            }
+            in.compact();
+        }
+
+        private void dispatch(Message m) {
+            if (registered) {
+                handler.received(this, m);
+            } else {
+                registered = true;
+                handler.opened(this, m, (InetSocketAddress) ch.socket().getRemoteSocketAddress());
+            }
+        }
+
+        /**
+         * Writes queued frames until the socket stops taking bytes
+         */
+        private void write() {
+            try {
+                ByteBuffer head;
+                while ((head = out.peek()) != null) {
+                    Metrics.OUTBOUND_BYTES.add(ch.write(head));
+                    if (head.hasRemaining()) return;
+                    out.poll();
+                    queued.decrementAndGet();
+                }
+            } catch (IOException e) {
+                System.out.println("Error: IO error on NIO writer: " + e.getMessage());
+                close();
+                return;
+            }
+            interest(SelectionKey.OP_READ);
+            writeRequested.set(false);
+            if (!out.isEmpty() && writeRequested.compareAndSet(false, true)) {
+                interest(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+}
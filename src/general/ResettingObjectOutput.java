@@ -0,0 +1,137 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Resetting Object Output
+ */
+package general;
+
+import java.io.*;
+
+/**
+ * Object stream output for the default transport. An ObjectOutputStream keeps a handle to every
+ * object it has written so that repeats can be sent as back-references, and the matching
+ * ObjectInputStream does the same, so on a long-lived connection both ends hold on to every
+ * message ever sent. This output resets the stream after a number of messages or bytes, which
+ * clears the handle tables on both ends, and skips flushes when nothing was written since the
+ * last one. The limits are -Dauction.stream.resetMessages (default 1024) and
+ * -Dauction.stream.resetBytes (default 1 MB).
+ */
+public class ResettingObjectOutput implements Transport.Output {
+    /** messages written before the stream is reset */
+    public static final int RESET_MESSAGES = Integer.getInteger("auction.stream.resetMessages", 1024);
+    /** bytes written before the stream is reset */
+    public static final long RESET_BYTES = Long.getLong("auction.stream.resetBytes", 1 << 20);
+
+    private final CountingStream counter;
+    private final ObjectOutputStream out;
+    private final int resetMessages;
+    private final long resetBytes;
+    // written only by the connection's writer thread, read by stats()
+    private volatile long messages;
+    private volatile long flushes;
+    private volatile long resets;
+    private volatile int sinceReset;
+    private long bytesAtReset;
+    private long bytesAtFlush;
+
+    /**
+     * Statistics for one connection
+     * @param messages messages written
+     * @param bytes bytes written, including stream headers and resets
+     * @param flushes flushes that reached the socket
+     * @param resets times the handle tables were cleared
+     * @param retained messages written since the last reset, whose objects both ends still hold
+     */
+    public record Stats(long messages, long bytes, long flushes, long resets, int retained) {}
+
+    /**
+     * Constructor using the configured reset limits
+     * @param stream the socket's output stream
+     * @throws IOException if the stream header cannot be written
+     */
+    public ResettingObjectOutput(OutputStream stream) throws IOException {
+        this(stream, RESET_MESSAGES, RESET_BYTES);
+    }
+
+    /**
+     * Constructor
+     * @param stream the socket's output stream
+     * @param resetMessages messages written before the stream is reset
+     * @param resetBytes bytes written before the stream is reset
+     * @throws IOException if the stream header cannot be written
+     */
+    public ResettingObjectOutput(OutputStream stream, int resetMessages, long resetBytes) throws IOException {
+        this.counter = new CountingStream(new BufferedOutputStream(stream));
+        this.out = new ObjectOutputStream(counter);
+        this.resetMessages = resetMessages;
+        this.resetBytes = resetBytes;
+        out.flush();
+        counter.flushThrough();
+        bytesAtFlush = counter.count;
+    }
+
+    @Override
+    public void write(Message m) throws IOException {
+        out.writeObject(m);
+        messages++;
+        sinceReset++;
+        if (sinceReset >= resetMessages || counter.count - bytesAtReset >= resetBytes) {
+            out.reset();
+            resets++;
+            sinceReset = 0;
+            bytesAtReset = counter.count;
+        }
+    }
+
+    /**
+     * Flushes to the socket, unless nothing was written since the last flush
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+        if (counter.count == bytesAtFlush) return;
+        counter.flushThrough();
+        flushes++;
+        bytesAtFlush = counter.count;
+    }
+
+    /**
+     * @return the statistics for this connection so far
+     */
+    public Stats stats() {
+        return new Stats(messages, counter.count, flushes, resets, sinceReset);
+    }
+
+    /**
+     * Counts bytes on their way to the buffered socket stream. The object stream flushes its
+     * own block buffer into this one on flush(), but the socket is only flushed by flushThrough().
+     */
+    private static class CountingStream extends FilterOutputStream {
+        private volatile long count;
+
+        private CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+            Metrics.OUTBOUND_BYTES.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+            Metrics.OUTBOUND_BYTES.add(len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        private void flushThrough() throws IOException {
+            out.flush();
+        }
+    }
+}
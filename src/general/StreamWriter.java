@@ -0,0 +1,99 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Stream Writer
+ */
+package general;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Outbound queue for one blocking socket. Callers only enqueue with send(), and the writer thread
+ * drains the queue into the connection's output stream, so a slow peer only ever holds up
+ * its own writer. If the peer falls so far behind that the queue fills, the connection is
+ * closed rather than letting the sender block.
+ */
+public class StreamWriter implements MessageWriter, Runnable {
+    private final BlockingQueue<Message> queue;
+    private final Transport.Output out;
+    private final Closeable connection;
+    private volatile boolean loop;
+    private volatile Thread thread;
+
+    /**
+     * Constructor
+     * @param out the connection's output stream
+     * @param connection closed when the queue overflows or the writer stops, normally the socket
+     * @param capacity number of messages that may wait before the peer is disconnected
+     */
+    public StreamWriter(Transport.Output out, Closeable connection, int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.out = out;
+        this.connection = connection;
+        loop = true;
+    }
+
+    @Override
+    public boolean send(Message m) {
+        if (!loop) return false;
+        if (!queue.offer(m)) {
+            System.out.println("Error: Outbound queue full, disconnecting peer");
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int pending() {
+        return queue.size();
+    }
+
+    /**
+     * @return the output this writer drains into, for its statistics
+     */
+    public Transport.Output output() {
+        return out;
+    }
+
+    /**
+     * sets the loop flag to false, stops the thread and closes the connection
+     */
+    @Override
+    public void close() {
+        loop = false;
+        Thread t = thread;
+        if (t != null) t.interrupt();
+        try {
+            connection.close();
+        } catch (IOException e) {
+            System.out.println("Error closing connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes queued messages to the stream in order, flushing once the queue is drained.
+     * The connection counts as open in the metrics while this runs.
+     */
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        Metrics.CONNECTIONS.increment();
+        while (loop) {
+            try {
+                Message m = queue.take();
+                Trace.hop(m, Trace.SENT);
+                out.write(m);
+                if (queue.isEmpty()) out.flush();
+            } catch (InterruptedException e) {
+                loop = false;
+            } catch (IOException e) {
+                System.out.println("Error: IO error on message writer: " + e.getMessage());
+                loop = false;
+            }
+        }
+        Metrics.CONNECTIONS.decrement();
+    }
+}
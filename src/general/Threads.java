@@ -0,0 +1,57 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Threads
+ */
+package general;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates the listener, parser and writer threads. With -Dauction.virtualThreads=true they are
+ * virtual threads, so thousands of blocked connections cost heap rather than OS threads.
+ * Virtual threads are looked up reflectively so the code still runs on JVMs without them,
+ * in which case platform threads are used and a message is printed once.
+ */
+public final class Threads {
+    private static final Method UNSTARTED = lookup();
+
+    private Threads() {}
+
+    /**
+     * @param task what the thread runs
+     * @return an unstarted virtual or platform thread for the task
+     */
+    public static Thread newThread(Runnable task) {
+        if (UNSTARTED != null) {
+            try {
+                return (Thread) UNSTARTED.invoke(builder(), task);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Error creating virtual thread: " + e.getMessage());
+            }
+        }
+        return new Thread(task);
+    }
+
+    /**
+     * @return true if newThread hands out virtual threads
+     */
+    public static boolean virtual() {
+        return UNSTARTED != null;
+    }
+
+    private static Object builder() throws ReflectiveOperationException {
+        return Thread.class.getMethod("ofVirtual").invoke(null);
+    }
+
+    private static Method lookup() {
+        if (!Boolean.getBoolean("auction.virtualThreads")) return null;
+        try {
+            Method unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            unstarted.invoke(builder(), (Runnable) () -> {});
+            return unstarted;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.out.println("Virtual threads not available on this JVM, using platform threads");
+            return null;
+        }
+    }
+}
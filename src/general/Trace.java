@@ -0,0 +1,108 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Trace
+ */
+package general;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Trace context carried by a bid and by every message sent on its behalf: NewBid, NewHold,
+ * ConfirmHold and ConfirmBid. Each process adds a hop with a System.nanoTime() stamp when the
+ * message is queued, when a parser takes it and when it is written to a connection, so the
+ * agent that placed the bid can split the bid's latency into queue wait, time in each process
+ * and time on the network. Stamps from different processes are never subtracted from each other.
+ * Agents start traces only with -Dauction.trace=file; other processes just add hops to traces
+ * they receive. A trace is only touched by the thread that currently holds its message.
+ */
+public final class Trace implements Serializable {
+    private static final long serialVersionUID = 1L;
+    /** file the agent writes finished bid traces to, or null when tracing is off */
+    public static final String FILE = System.getProperty("auction.trace");
+    /** hop added when a message is written to a connection */
+    public static final String SENT = "sent";
+
+    private final long id;
+    private String[] hops = new String[12];
+    private long[] nanos = new long[12];
+    private int size;
+
+    /**
+     * Constructor
+     * @param id identifies the bid in the trace file
+     */
+    public Trace(long id) {
+        this.id = id;
+    }
+
+    /**
+     * @return a new trace for a bid, or null when tracing is off
+     */
+    public static Trace start() {
+        return FILE == null ? null : new Trace(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    }
+
+    /**
+     * Adds a hop to a message's trace, if it has one
+     * @param m any message
+     * @param where name of the hop
+     */
+    public static void hop(Message m, String where) {
+        if (m instanceof Message.Traced traced && traced.trace() != null) traced.trace().hop(where);
+    }
+
+    /**
+     * Adds a hop stamped now
+     * @param where name of the hop
+     */
+    public void hop(String where) {
+        hop(where, System.nanoTime());
+    }
+
+    /**
+     * Adds a hop with a given stamp, used when a trace is decoded
+     * @param where name of the hop
+     * @param at System.nanoTime() of the process that added it
+     */
+    public void hop(String where, long at) {
+        if (size == hops.length) {
+            hops = Arrays.copyOf(hops, size * 2);
+            nanos = Arrays.copyOf(nanos, size * 2);
+        }
+        hops[size] = where;
+        nanos[size] = at;
+        size++;
+    }
+
+    /**
+     * @return the trace's id
+     */
+    public long id() {
+        return id;
+    }
+
+    /**
+     * @return number of hops
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i hop index
+     * @return name of the hop
+     */
+    public String where(int i) {
+        return hops[i];
+    }
+
+    /**
+     * @param i hop index
+     * @return the hop's stamp on its own process's clock
+     */
+    public long at(int i) {
+        return nanos[i];
+    }
+}
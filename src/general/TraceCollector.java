@@ -0,0 +1,117 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Trace Collector
+ */
+package general;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Turns finished bid traces into latency breakdowns and appends them to the -Dauction.trace file,
+ * one tab-separated line per bid under a header line:
+ * trace, item, accepted, total, queue, bank, house, network, hops.
+ * Times are in nanoseconds. A trace is cut into visits, one per process it passed through: a
+ * visit starts when the message is queued there and ends when the reply is sent. Queue wait is
+ * the time between a message being queued and a parser taking it, summed over every visit.
+ * Bank and house are the rest of the time spent in bank and auction house visits. Network is
+ * the agent's time from sending the bid to receiving the answer, less every visit in between,
+ * so it also covers time in socket buffers and writer queues. Each of these is a difference of
+ * two stamps from one process, so clocks never need to agree. The raw hops are written last
+ * as name@nanos pairs for offline analysis.
+ */
+public final class TraceCollector {
+    private static final String HEADER = "trace\titem\taccepted\ttotal\tqueue\tbank\thouse\tnetwork\thops";
+    private static final Histogram TOTAL = Metrics.histogram("bid_trace_total_nanos");
+    private static BufferedWriter out;
+
+    /**
+     * Latency breakdown of one bid, in nanoseconds
+     */
+    public record Breakdown(long total, long queue, long bank, long house, long network) {}
+
+    private TraceCollector() {}
+
+    /**
+     * Records a bid whose answer has reached the agent and been taken by its parser
+     * @param trace the bid's trace
+     * @param item the item bid on
+     * @param accepted whether the bid was accepted
+     */
+    public static void finish(Trace trace, String item, boolean accepted) {
+        Breakdown b = breakdown(trace);
+        if (b == null) return;
+        TOTAL.record(b.total());
+        StringBuilder line = new StringBuilder(256);
+        line.append(Long.toHexString(trace.id())).append('\t').append(item).append('\t').append(accepted)
+                .append('\t').append(b.total()).append('\t').append(b.queue()).append('\t').append(b.bank())
+                .append('\t').append(b.house()).append('\t').append(b.network()).append('\t');
+        for (int i = 0; i < trace.size(); i++) {
+            if (i > 0) line.append(',');
+            line.append(trace.where(i)).append('@').append(trace.at(i));
+        }
+        write(line.append('\n').toString());
+    }
+
+    /**
+     * @param trace a trace whose first hop is the agent sending the bid and whose last hop is
+     *              the agent's parser taking the answer
+     * @return the breakdown, or null if the trace does not have that shape
+     */
+    public static Breakdown breakdown(Trace trace) {
+        int last = trace.size() - 1;
+        if (last < 1 || !Trace.SENT.equals(trace.where(0))) return null;
+        long queue = 0, bank = 0, house = 0, visits = 0;
+        int visitStart = -1;
+        long visitQueue = 0;
+        long queued = 0;
+        for (int i = 1; i <= last; i++) {
+            String where = trace.where(i);
+            long at = trace.at(i);
+            if (where.endsWith(".queued")) {
+                if (visitStart < 0) {
+                    visitStart = i;
+                    visitQueue = 0;
+                }
+                queued = at;
+            } else if (where.endsWith(".taken")) {
+                queue += at - queued;
+                visitQueue += at - queued;
+            } else if (Trace.SENT.equals(where) && visitStart >= 0) {
+                long span = at - trace.at(visitStart);
+                String process = trace.where(visitStart);
+                if (process.startsWith("bank")) {
+                    bank += span - visitQueue;
+                } else if (process.startsWith("auctionHouse")) {
+                    house += span - visitQueue;
+                }
+                visits += span;
+                visitStart = -1;
+            }
+        }
+        if (visitStart < 0) return null;
+        long total = trace.at(last) - trace.at(0);
+        long network = trace.at(visitStart) - trace.at(0) - visits;
+        return new Breakdown(total, queue, bank, house, network);
+    }
+
+    private static synchronized void write(String line) {
+        try {
+            if (out == null) {
+                Path file = Path.of(Trace.FILE);
+                boolean fresh = !Files.exists(file) || Files.size(file) == 0;
+                out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                if (fresh) out.write(HEADER + "\n");
+            }
+            out.write(line);
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Error: Cannot write trace file: " + e.getMessage());
+        }
+    }
+}
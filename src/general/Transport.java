@@ -0,0 +1,157 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Transport
+ */
+package general;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Sets up the message streams on a socket. The default transport is one long-lived object
+ * stream per direction, reset periodically by ResettingObjectOutput. With
+ * -Dauction.transport=nio every message is sent as its own frame, a 4 byte length followed by
+ * the serialized message, which is what the selector-based NioServer reads. With
+ * -Dauction.codec=binary the frames are always used and their bodies are written by BinaryCodec
+ * instead of Java serialization. Every process in the system must use the same transport and
+ * codec.
+ */
+public final class Transport {
+    /** true when messages are framed for the selector transport */
+    public static final boolean NIO = "nio".equals(System.getProperty("auction.transport"));
+    /** true when frame bodies are written by BinaryCodec */
+    public static final boolean BINARY = "binary".equals(System.getProperty("auction.codec"));
+    /** largest frame accepted from a peer */
+    public static final int MAX_FRAME = 1 << 20;
+
+    /**
+     * Reads messages from a connection.
+     */
+    public interface Input {
+        Message read() throws IOException, ClassNotFoundException;
+    }
+
+    /**
+     * Writes messages to a connection.
+     */
+    public interface Output {
+        void write(Message m) throws IOException;
+        void flush() throws IOException;
+    }
+
+    /**
+     * Both directions of an open blocking connection
+     * @param in reads messages from the peer
+     * @param out queues messages to the peer, its thread is already running
+     */
+    public record Streams(Input in, StreamWriter out) {}
+
+    private Transport() {}
+
+    /**
+     * Creates the streams for a connected socket, on either the client or the server side,
+     * and starts the writer thread.
+     * @param socket connected socket
+     * @return reader and writer for the socket
+     * @throws IOException if the streams cannot be created
+     */
+    public static Streams open(Socket socket) throws IOException {
+        Input in;
+        Output out;
+        if (NIO || BINARY) {
+            DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream dataIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new Output() {
+                @Override
+                public void write(Message m) throws IOException {
+                    byte[] frame = encode(m);
+                    dataOut.writeInt(frame.length);
+                    dataOut.write(frame);
+                    Metrics.OUTBOUND_BYTES.add(4 + frame.length);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    dataOut.flush();
+                }
+            };
+            in = () -> {
+                int length = dataIn.readInt();
+                if (length < 0 || length > MAX_FRAME) throw new IOException("Bad frame length " + length);
+                byte[] frame = new byte[length];
+                dataIn.readFully(frame);
+                return decode(ByteBuffer.wrap(frame));
+            };
+        } else {
+            out = new ResettingObjectOutput(socket.getOutputStream());
+            ObjectInputStream objIn = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            in = () -> (Message) objIn.readObject();
+        }
+        StreamWriter writer = new StreamWriter(out, socket, MessageWriter.CAPACITY);
+        Threads.newThread(writer).start();
+        return new Streams(in, writer);
+    }
+
+    /**
+     * Encodes one message into a frame body with the configured codec
+     * @param m message to encode
+     * @return the frame body
+     * @throws IOException if the message cannot be encoded
+     */
+    public static byte[] encode(Message m) throws IOException {
+        return BINARY ? BinaryCodec.encode(m) : serialize(m);
+    }
+
+    /**
+     * Reads one message from a frame body with the configured codec
+     * @param frame buffer positioned at the start of the body, limited to its end
+     * @return the message
+     * @throws IOException if the frame is malformed
+     * @throws ClassNotFoundException if the message class is unknown
+     */
+    public static Message decode(ByteBuffer frame) throws IOException, ClassNotFoundException {
+        return BINARY ? BinaryCodec.decode(frame) : deserialize(frame);
+    }
+
+    /**
+     * Serializes one message with Java serialization
+     * @param m message to encode
+     * @return the serialized message
+     * @throws IOException if the message cannot be serialized
+     */
+    static byte[] serialize(Message m) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(m);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads one Java serialized message
+     * @param frame buffer positioned at the start of the message, limited to its end
+     * @return the message
+     * @throws IOException if the frame is not a serialized message
+     * @throws ClassNotFoundException if the message class is unknown
+     */
+    static Message deserialize(ByteBuffer frame) throws IOException, ClassNotFoundException {
+        InputStream bytes = new InputStream() {
+            @Override
+            public int read() {
+                return frame.hasRemaining() ? frame.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!frame.hasRemaining()) return -1;
+                int n = Math.min(len, frame.remaining());
+                frame.get(b, off, n);
+                return n;
+            }
+        };
+        try (ObjectInputStream in = new ObjectInputStream(bytes)) {
+            return (Message) in.readObject();
+        }
+    }
+}
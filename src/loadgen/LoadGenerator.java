@@ -0,0 +1,181 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Load Generator
+ */
+package loadgen;
+
+import general.Histogram;
+import general.Metrics;
+import general.SocketData;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts load on a running bank without any windows. Starts synthetic auction houses and agents
+ * that speak the real protocol, with the transport, codec and thread settings of the auction.*
+ * properties, lets the agents bid at a steady rate for a while, and prints throughput and
+ * bid-to-ConfirmBid latency every few seconds and for the whole run.
+ * Usage: java loadgen.LoadGenerator bankHost bankPort
+ * Settings:
+ * -Dload.houses (default 10), -Dload.agents (default 1000),
+ * -Dload.bidsPerSecond per agent (default 1), -Dload.seconds (default 60),
+ * -Dload.auctions open per house (default 3), -Dload.auctionMillis an auction stays open (default 10000),
+ * -Dload.housePort first port of the houses (default 7000), -Dload.balance per agent (default 1e9),
+ * -Dload.reportSeconds (default 5), -Dload.pacerThreads (default 2), and
+ * -Dload.bankMetrics, the bank's -Dmetrics.port, to also report how many balance updates the
+ * bank conflated.
+ */
+public class LoadGenerator {
+    private final SocketData bankAddress;
+    private final LoadStats stats = new LoadStats();
+    private final List<SyntheticHouse> houses = new ArrayList<>();
+    private final List<SyntheticAgent> agents = new ArrayList<>();
+
+    /**
+     * Constructor
+     * @param bankAddress where the bank listens
+     */
+    public LoadGenerator(SocketData bankAddress) {
+        this.bankAddress = bankAddress;
+    }
+
+    /**
+     * Main
+     * @param args bank host and port
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java loadgen.LoadGenerator bankHost bankPort");
+            return;
+        }
+        try {
+            Metrics.serve("Load generator");
+            new LoadGenerator(new SocketData(args[0], Integer.parseInt(args[1]))).run();
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid port number : " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error: Load generator failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.println("Load generator interrupted");
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Starts the houses and agents, runs the load and prints the reports
+     * @throws IOException if the bank or a house cannot be reached
+     * @throws InterruptedException if interrupted
+     */
+    public void run() throws IOException, InterruptedException {
+        int houseCount = Integer.getInteger("load.houses", 10);
+        int agentCount = Integer.getInteger("load.agents", 1000);
+        double rate = Double.parseDouble(System.getProperty("load.bidsPerSecond", "1"));
+        long seconds = Long.getLong("load.seconds", 60);
+        long reportSeconds = Long.getLong("load.reportSeconds", 5);
+        int housePort = Integer.getInteger("load.housePort", 7000);
+        double balance = Double.parseDouble(System.getProperty("load.balance", "1e9"));
+
+        for (int i = 0; i < houseCount; i++) {
+            SyntheticHouse house = new SyntheticHouse("Load house " + i, housePort + i,
+                    Integer.getInteger("load.auctions", 3), Long.getLong("load.auctionMillis", 10_000));
+            house.start(bankAddress);
+            houses.add(house);
+        }
+        for (SyntheticHouse house : houses) {
+            if (!house.awaitRegistered(30_000)) throw new IOException("An auction house was not registered by the bank");
+        }
+        System.out.println(houseCount + " auction houses registered");
+
+        long started = System.nanoTime();
+        for (int i = 0; i < agentCount; i++) {
+            SyntheticAgent agent = new SyntheticAgent("Load agent " + i, "Load house " + (i % houseCount), balance, stats);
+            agent.start(bankAddress);
+            agents.add(agent);
+        }
+        long deadline = System.currentTimeMillis() + 60_000;
+        int ready;
+        while ((ready = countReady()) < agentCount) {
+            if (System.currentTimeMillis() > deadline) throw new IOException("Only " + ready + " agents joined a house");
+            Thread.sleep(100);
+        }
+        System.out.printf("%d agents joined their houses in %.1f s%n", agentCount, (System.nanoTime() - started) / 1e9);
+
+        ScheduledExecutorService pacer = Executors.newScheduledThreadPool(Integer.getInteger("load.pacerThreads", 2));
+        long period = Math.max(1, (long) (1e9 / rate));
+        for (SyntheticAgent agent : agents) {
+            long offset = ThreadLocalRandom.current().nextLong(period);
+            pacer.scheduleAtFixedRate(agent::tick, offset, period, TimeUnit.NANOSECONDS);
+        }
+        System.out.printf("Bidding at %.1f bids/s per agent, %.0f bids/s in all, for %d s%n", rate, rate * agentCount, seconds);
+
+        long start = System.nanoTime();
+        long last = start;
+        long lastAnswered = 0;
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(reportSeconds),
+                    Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+            long now = System.nanoTime();
+            long answered = answered();
+            report(String.format("%5.0fs", (now - start) / 1e9), answered - lastAnswered, now - last,
+                    stats.nextInterval());
+            last = now;
+            lastAnswered = answered;
+        }
+        pacer.shutdownNow();
+        long elapsed = System.nanoTime() - start;
+        Thread.sleep(1000); // let outstanding bids finish
+
+        System.out.println("--- totals");
+        report("total", answered(), elapsed, stats.total());
+        System.out.printf("bids sent %d, accepted %d, rejected %d, sent late %d, auctions won %d%n",
+                stats.bids.sum(), stats.accepted.sum(), stats.rejected.sum(), stats.late.sum(), stats.won.sum());
+        System.out.printf("balance updates received %d, %.2f per answered bid%n", stats.balanceUpdates.sum(),
+                stats.balanceUpdates.sum() / (double) Math.max(1, answered()));
+        bankConflation();
+        for (SyntheticAgent agent : agents) agent.stop();
+        for (SyntheticHouse house : houses) house.stop();
+    }
+
+    private int countReady() {
+        int ready = 0;
+        for (SyntheticAgent agent : agents) if (agent.ready()) ready++;
+        return ready;
+    }
+
+    private long answered() {
+        return stats.accepted.sum() + stats.rejected.sum();
+    }
+
+    private void report(String label, long answered, long nanos, Histogram latency) {
+        int backlog = 0;
+        for (SyntheticAgent agent : agents) backlog += agent.backlog();
+        System.out.printf("%s  %9.1f bids/s  p50 %8.3f ms  p99 %8.3f ms  p999 %8.3f ms  max %8.3f ms  waiting %d%n",
+                label, answered / (nanos / 1e9), latency.percentile(0.5) / 1e6, latency.percentile(0.99) / 1e6,
+                latency.percentile(0.999) / 1e6, latency.max() / 1e6, backlog);
+    }
+
+    /**
+     * Prints the bank's balance update counts from its metrics endpoint, if -Dload.bankMetrics is set
+     */
+    private void bankConflation() {
+        int port = Integer.getInteger("load.bankMetrics", 0);
+        if (port <= 0) return;
+        try (InputStream in = new URL("http://" + bankAddress.hostname() + ":" + port + "/metrics").openStream()) {
+            for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                if (line.startsWith("bank_balance_updates_")) System.out.println("bank " + line);
+            }
+        } catch (IOException e) {
+            System.out.println("Error: Cannot read the bank's metrics: " + e.getMessage());
+        }
+    }
+}
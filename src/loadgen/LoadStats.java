@@ -0,0 +1,54 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Load Statistics
+ */
+package loadgen;
+
+import general.Histogram;
+import general.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and latencies shared by every synthetic agent and house. Bid latency is recorded twice,
+ * into a histogram for the whole run and into one for the current report interval, which the
+ * report swaps out for a fresh one each time it prints.
+ */
+public class LoadStats {
+    final LongAdder bids = Metrics.counter("load_bids{result=\"sent\"}");
+    final LongAdder accepted = Metrics.counter("load_bids{result=\"accepted\"}");
+    final LongAdder rejected = Metrics.counter("load_bids{result=\"rejected\"}");
+    final LongAdder won = Metrics.counter("load_auctions_won");
+    final LongAdder balanceUpdates = Metrics.counter("load_balance_updates");
+    final LongAdder late = Metrics.counter("load_bids_late");
+    private final Histogram total = Metrics.histogram("load_bid_nanos");
+    private volatile Histogram interval = new Histogram();
+
+    /**
+     * Records a bid's answer
+     * @param nanos time from when the bid was due to be sent until its ConfirmBid arrived
+     * @param success whether the bid was accepted
+     */
+    protected void answered(long nanos, boolean success) {
+        (success ? accepted : rejected).increment();
+        total.record(nanos);
+        interval.record(nanos);
+    }
+
+    /**
+     * @return latencies of the whole run
+     */
+    protected Histogram total() {
+        return total;
+    }
+
+    /**
+     * Starts a new report interval
+     * @return latencies of the interval that just ended
+     */
+    protected Histogram nextInterval() {
+        Histogram ended = interval;
+        interval = new Histogram();
+        return ended;
+    }
+}
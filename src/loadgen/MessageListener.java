@@ -0,0 +1,67 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Load Generator Message Listener
+ */
+package loadgen;
+import general.Message;
+import general.MessageWriter;
+import general.Transport;
+import javafx.util.Pair;
+import java.io.*;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * listens for incoming messages to a synthetic auction house
+ */
+public class MessageListener implements Runnable {
+    private boolean loop;
+    private final BlockingQueue<Pair<Message, MessageWriter>> messages;
+    private final Transport.Input in;
+    private final MessageWriter out;
+
+    /**
+     * Creates a new MessageListener with the specified queue of messages
+     * @param messages the queue of messages to be listened to
+     * @param in input stream
+     * @param out outbound queue for replies to the sender
+     */
+    protected MessageListener(BlockingQueue<Pair<Message, MessageWriter>> messages, Transport.Input in, MessageWriter out) {
+        this.messages = messages;
+        this.in = in;
+        this.out = out;
+        loop = true;
+    }
+
+    /**
+     * sets the loop flag to false. stop the thread
+     */
+    protected void stop() {
+        loop = false;
+    }
+
+    /**
+     * Reads incoming messages and puts them into a blockingqueue
+     * messages are paired with an output stream that can be used to send responses back to sender
+     * runs until the loop flag is set to false by calling stop()
+     */
+    @Override
+    public void run() {
+        while (loop) {
+            try {
+                Message m = in.read();
+                messages.put(new Pair<>(m, out));
+            } catch (InterruptedException e) {
+                System.out.println("Message listener interrupted: " +
+                        e.getMessage());
+                loop = false;
+            } catch (ClassNotFoundException e) {
+                System.out.println("Error: Invalid incoming message class: " +
+                        e.getMessage());
+            } catch (IOException e) {
+                System.out.println("Error: IO error on message listener: " +
+                        e.getMessage());
+                loop = false;
+            }
+        }
+    }
+}
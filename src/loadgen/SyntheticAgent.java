@@ -0,0 +1,182 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Synthetic Agent
+ */
+package loadgen;
+
+import general.AuctionBook;
+import general.AuctionData;
+import general.Message;
+import general.Message.*;
+import general.MessageWriter;
+import general.SocketData;
+import general.Threads;
+import general.Trace;
+import general.TraceCollector;
+import general.Transport;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Agent without a window that follows the same protocol as Agent: it opens a bank account,
+ * connects to one auction house from the bank's list and bids on that house's auctions.
+ * Bids are due at a fixed rate, but only one is outstanding at a time. A bid that falls due while
+ * another is outstanding waits and is sent when the answer arrives, and its latency is still
+ * measured from when it was due, so a slow system cannot hide its queueing by slowing the agent
+ * down. Messages are handled on the thread that reads them, since thousands of agents cannot
+ * each have a parser thread.
+ */
+public class SyntheticAgent {
+    private final String name;
+    private final String houseName;
+    private final double startBalance;
+    private final LoadStats stats;
+    private final ArrayDeque<Long> due = new ArrayDeque<>();
+    private MessageWriter bank;
+    private MessageWriter house;
+    private String accountNumber;
+    private final AuctionBook auctions = new AuctionBook(); // the house's open auctions
+    private long outstanding = -1;
+    private volatile boolean stopped;
+
+    /**
+     * Constructor
+     * @param name the agent's name
+     * @param houseName name of the auction house to bid at
+     * @param startBalance opening balance of the agent's account
+     * @param stats shared statistics
+     */
+    public SyntheticAgent(String name, String houseName, double startBalance, LoadStats stats) {
+        this.name = name;
+        this.houseName = houseName;
+        this.startBalance = startBalance;
+        this.stats = stats;
+    }
+
+    /**
+     * Connects to the bank and asks for an account. The agent joins its house once the bank
+     * lists it.
+     * @param bankAddress where the bank listens
+     * @throws IOException if the bank cannot be reached
+     */
+    public void start(SocketData bankAddress) throws IOException {
+        Transport.Streams streams = Transport.open(new Socket(bankAddress.hostname(), bankAddress.port()));
+        bank = streams.out();
+        Threads.newThread(new Listener(streams.in())).start();
+        bank.send(new NewAgent(name, startBalance));
+    }
+
+    /**
+     * @return true once the agent has its house's auction list and can bid
+     */
+    public boolean ready() {
+        return auctions != null;
+    }
+
+    /**
+     * Called each time a bid falls due
+     */
+    public synchronized void tick() {
+        if (stopped) return;
+        due.add(System.nanoTime());
+        if (outstanding < 0) sendNext();
+        else stats.late.increment();
+    }
+
+    /**
+     * Stops bidding and closes the agent's connections without closing its account
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (house != null) house.close();
+        if (bank != null) bank.close();
+    }
+
+    /**
+     * @return bids that fell due but have not been sent yet
+     */
+    public synchronized int backlog() {
+        return due.size();
+    }
+
+    private void sendNext() {
+        List<AuctionData> open = auctions.auctions();
+        Long next = due.poll();
+        if (next == null || open.isEmpty()) return;
+        AuctionData auction = open.get(ThreadLocalRandom.current().nextInt(open.size()));
+        double bid = auction.winningBid() + 1 + ThreadLocalRandom.current().nextInt(100) / 100.0;
+        outstanding = next;
+        stats.bids.increment();
+        house.send(new NewBid(auction.item(), auction.ID(), bid, accountNumber, Trace.start()));
+    }
+
+    private synchronized void answered(ConfirmBid confirm) {
+        if (outstanding < 0) return;
+        stats.answered(System.nanoTime() - outstanding, confirm.success());
+        if (confirm.trace() != null) {
+            // the answer is handled as soon as it is read, so it waits in no queue here
+            long now = System.nanoTime();
+            confirm.trace().hop("agent.queued", now);
+            confirm.trace().hop("agent.taken", now);
+            TraceCollector.finish(confirm.trace(), confirm.item(), confirm.success());
+        }
+        outstanding = -1;
+        if (!stopped) sendNext();
+    }
+
+    private void handle(Message m) throws IOException {
+        if (m instanceof AgentMade made) {
+            accountNumber = made.accountNumber();
+        } else if (m instanceof AuctionList list) {
+            joinHouse(list);
+        } else if (m instanceof NewAuctions newAuctions) {
+            auctions.snapshot(newAuctions);
+        } else if (m instanceof AuctionUpdate update) {
+            if (!auctions.apply(update)) house.send(new ResyncAuctions(accountNumber));
+        } else if (m instanceof ConfirmBid confirm) {
+            answered(confirm);
+        } else if (m instanceof UpdateMoney) {
+            stats.balanceUpdates.increment();
+        } else if (m instanceof AuctionWon) {
+            stats.won.increment();
+        }
+    }
+
+    private synchronized void joinHouse(AuctionList list) throws IOException {
+        SocketData address = list.houses().get(houseName);
+        if (house != null || address == null || stopped) return;
+        Transport.Streams streams = Transport.open(new Socket(address.hostname(), address.port()));
+        house = streams.out();
+        Threads.newThread(new Listener(streams.in())).start();
+        house.send(new RegisterAgent(accountNumber, name));
+    }
+
+    /**
+     * Reads one connection and handles each message as it arrives
+     */
+    private class Listener implements Runnable {
+        private final Transport.Input in;
+
+        private Listener(Transport.Input in) {
+            this.in = in;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    handle(in.read());
+                } catch (ClassNotFoundException e) {
+                    System.out.println("Error: Invalid incoming message class: " + e.getMessage());
+                } catch (IOException e) {
+                    if (!stopped) System.out.println("Error: Agent " + name + " lost a connection: " + e.getMessage());
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * Thomas Hynes, Christopher Jarek, Carmen Monohan
+ * Synthetic Auction House
+ */
+package loadgen;
+
+import general.AuctionData;
+import general.Message;
+import general.Message.*;
+import general.MessageQueue;
+import general.MessageWriter;
+import general.SocketData;
+import general.Threads;
+import general.Transport;
+import javafx.util.Pair;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Auction house without a window that follows the same protocol as AuctionHouse: it registers
+ * with the bank, accepts agents on its own port, asks the bank to hold each bid that beats the
+ * current one, answers with ConfirmBid once the bank replies, and sends every agent each change
+ * to its auctions as a numbered AuctionUpdate, with the whole list only for agents that join.
+ * Auctions close a fixed time after they open, so the winners are settled with the bank and new
+ * auctions take their place. Every message is handled on the house's own thread,
+ * from a queue named auctionHouse.load followed by the port, so bid traces count its time as
+ * auction house time.
+ */
+public class SyntheticHouse implements Runnable {
+    private static class Auction {
+        private final String item;
+        private final int id;
+        private final long closes;
+        private double winningBid = 20;
+        private String winningAgent = "no bidder";
+        private String agentAccount;
+
+        private Auction(String item, int id, long closes) {
+            this.item = item;
+            this.id = id;
+            this.closes = closes;
+        }
+    }
+
+    private final String name;
+    private final int port;
+    private final int auctionCount;
+    private final long auctionMillis;
+    private final BlockingQueue<Pair<Message, MessageWriter>> messages;
+    private final Map<String, MessageWriter> agents = new HashMap<>();
+    private final Map<String, String> agentNames = new HashMap<>();
+    private final Map<Integer, Auction> auctions = new LinkedHashMap<>();
+    private final Map<Long, NewBid> pending = new HashMap<>();
+    private final CountDownLatch registered = new CountDownLatch(1);
+    private MessageWriter bank;
+    private ServerSocket server;
+    private String accountNumber;
+    private int auctionNum;
+    private long sequence; // number of the last change to the auctions
+    private long requestIds;
+    private boolean loop = true;
+
+    /**
+     * Constructor
+     * @param name the house's name, which agents look for in the bank's list
+     * @param port port agents connect to
+     * @param auctionCount auctions open at once
+     * @param auctionMillis how long each auction stays open
+     */
+    public SyntheticHouse(String name, int port, int auctionCount, long auctionMillis) {
+        this.name = name;
+        this.port = port;
+        this.auctionCount = auctionCount;
+        this.auctionMillis = auctionMillis;
+        messages = new MessageQueue("auctionHouse.load" + port);
+    }
+
+    /**
+     * Opens the house's port, registers with the bank and starts the house thread
+     * @param bankAddress where the bank listens
+     * @throws IOException if the port cannot be opened or the bank cannot be reached
+     */
+    public void start(SocketData bankAddress) throws IOException {
+        server = new ServerSocket(port);
+        Thread acceptor = new Thread(this::accept);
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        Transport.Streams streams = Transport.open(new Socket(bankAddress.hostname(), bankAddress.port()));
+        bank = streams.out();
+        Threads.newThread(new MessageListener(messages, streams.in(), bank)).start();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < auctionCount; i++) openAuction(now);
+        bank.send(new NewAuctionHouse(name, port));
+        Thread thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for the bank to open the house's account
+     * @param millis longest time to wait
+     * @return true once the house is registered
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitRegistered(long millis) throws InterruptedException {
+        return registered.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * sets the loop flag to false. stop the thread
+     */
+    public void stop() {
+        loop = false;
+    }
+
+    /**
+     * Accepts agent connections and starts a listener for each
+     */
+    private void accept() {
+        while (loop) {
+            try {
+                Socket socket = server.accept();
+                Transport.Streams streams = Transport.open(socket);
+                Threads.newThread(new MessageListener(messages, streams.in(), streams.out())).start();
+            } catch (IOException e) {
+                System.out.println("Error: Synthetic house " + name + " cannot accept an agent: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handles messages and closes auctions whose time is up
+     */
+    @Override
+    public void run() {
+        while (loop) {
+            try {
+                Pair<Message, MessageWriter> next = messages.poll(50, TimeUnit.MILLISECONDS);
+                if (next != null) handle(next.getKey(), next.getValue());
+                closeAuctions(System.currentTimeMillis());
+            } catch (InterruptedException e) {
+                loop = false;
+            }
+        }
+    }
+
+    private void handle(Message m, MessageWriter out) {
+        if (m instanceof AuctionHouseMade made) {
+            accountNumber = made.accountNumber();
+            registered.countDown();
+        } else if (m instanceof RegisterAgent register) {
+            agents.put(register.accountNumber(), out);
+            agentNames.put(register.accountNumber(), register.name());
+            out.send(new NewAuctions(name, sequence, listings()));
+        } else if (m instanceof ResyncAuctions) {
+            out.send(new NewAuctions(name, sequence, listings()));
+        } else if (m instanceof NewBid bid) {
+            bidReceived(bid, out);
+        } else if (m instanceof ConfirmHold confirm) {
+            holdConfirmed(confirm);
+        }
+    }
+
+    /**
+     * Asks the bank to hold a bid that beats the current one, and turns any other bid down
+     */
+    private void bidReceived(NewBid bid, MessageWriter out) {
+        Auction auction = auctions.get(bid.id());
+        if (auction == null || bid.bid() <= auction.winningBid) {
+            out.send(new ConfirmBid(false, bid.item(), name, bid.trace()));
+            return;
+        }
+        long requestId = ++requestIds;
+        pending.put(requestId, bid);
+        bank.send(new NewHold(bid.accountNumber(), bid.bid(), holdStr(auction.id), auction.id, requestId, bid.trace()));
+    }
+
+    /**
+     * Settles a pending bid once the bank has answered its hold
+     */
+    private void holdConfirmed(ConfirmHold confirm) {
+        NewBid bid = pending.remove(confirm.requestId());
+        if (bid == null) return;
+        MessageWriter agent = agents.get(bid.accountNumber());
+        Auction auction = auctions.get(bid.id());
+        if (!confirm.success()) {
+            if (agent != null) agent.send(new ConfirmBid(false, bid.item(), name, confirm.trace()));
+            return;
+        }
+        if (auction == null || bid.bid() <= auction.winningBid) {
+            bank.send(new EndHold(bid.accountNumber(), bid.bid(), holdStr(bid.id()), ++requestIds));
+            if (agent != null) agent.send(new ConfirmBid(false, bid.item(), name, confirm.trace()));
+            return;
+        }
+        if (auction.agentAccount != null && !auction.agentAccount.equals(bid.accountNumber())) {
+            bank.send(new EndHold(auction.agentAccount, auction.winningBid, holdStr(auction.id), ++requestIds));
+        }
+        auction.winningBid = bid.bid();
+        auction.agentAccount = bid.accountNumber();
+        auction.winningAgent = agentNames.getOrDefault(bid.accountNumber(), bid.accountNumber());
+        if (agent != null) agent.send(new ConfirmBid(true, auction.item, name, confirm.trace()));
+        sendChange(auction.id, auction);
+    }
+
+    /**
+     * Closes every auction whose time is up, settles the won ones with the bank in one message
+     * and opens new auctions in their place
+     */
+    private void closeAuctions(long now) {
+        List<AuctionOver> outcomes = null;
+        for (Auction auction : new ArrayList<>(auctions.values())) {
+            if (auction.closes > now) continue;
+            auctions.remove(auction.id);
+            sendChange(auction.id, openAuction(now));
+            if (outcomes == null) outcomes = new ArrayList<>();
+            if (auction.agentAccount == null) continue;
+            MessageWriter agent = agents.get(auction.agentAccount);
+            if (agent != null) agent.send(new AuctionWon(auction.item, auction.winningBid));
+            outcomes.add(new AuctionOver(accountNumber, auction.agentAccount, holdStr(auction.id),
+                    auction.winningBid, ++requestIds));
+        }
+        if (outcomes == null) return;
+        if (outcomes.size() == 1) {
+            bank.send(outcomes.get(0));
+        } else if (!outcomes.isEmpty()) {
+            bank.send(new SettleBatch(accountNumber, outcomes));
+        }
+    }
+
+    private Auction openAuction(long now) {
+        int id = ++auctionNum;
+        Auction auction = new Auction(name + " item " + id, id, now + auctionMillis);
+        auctions.put(id, auction);
+        return auction;
+    }
+
+    /**
+     * Sends every agent one change to the auctions
+     * @param replaces id of the auction changed or closed
+     * @param auction the auction in its place
+     */
+    private void sendChange(int replaces, Auction auction) {
+        AuctionUpdate update = new AuctionUpdate(name, ++sequence, replaces,
+                new AuctionData(auction.item, auction.id, auction.winningBid, auction.winningAgent));
+        for (MessageWriter agent : agents.values()) agent.send(update);
+    }
+
+    private List<AuctionData> listings() {
+        List<AuctionData> list = new ArrayList<>(auctions.size());
+        for (Auction a : auctions.values()) list.add(new AuctionData(a.item, a.id, a.winningBid, a.winningAgent));
+        return list;
+    }
+
+    private String holdStr(int id) {
+        return accountNumber + ":" + id;
+    }
+}